@@ -0,0 +1,16 @@
+package io.github.bigmontz.benchmarks;
+
+import io.github.bigmontz.repository.User;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+public class Samples {
+
+    public static final ZonedDateTime CREATED_AT = ZonedDateTime.of(2022, 1, 10, 18, 42, 17, 123_000_000, ZoneId.of("UTC"));
+    public static final ZonedDateTime UPDATED_AT = CREATED_AT.plusMinutes(5);
+
+    public static User user(Object id) {
+        return new User(id, "bigmontz", "Antonio", 33, "Barcelos", "s3cr3t!", CREATED_AT, UPDATED_AT);
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.bigmontz.controller;
+
+import com.google.gson.Gson;
+import io.github.bigmontz.benchmarks.Samples;
+import io.github.bigmontz.config.Config;
+import io.github.bigmontz.repository.PasswordUpdate;
+import io.github.bigmontz.repository.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private Gson gson;
+    private User user;
+    private String userJson;
+    private String creationJson;
+    private String passwordUpdateJson;
+
+    @Setup
+    public void setUp() {
+        gson = Config.gson();
+        user = Samples.user(42L);
+        userJson = gson.toJson(user);
+        creationJson = """
+                {"username":"bigmontz","name":"Antonio","age":33,"surname":"Barcelos","password":"s3cr3t!"}""";
+        passwordUpdateJson = """
+                {"password":"s3cr3t!","newPassword":"n3w-s3cr3t!"}""";
+    }
+
+    @Benchmark
+    public String encodeToString() {
+        return gson.toJson(user);
+    }
+
+    // what UserController does for every response
+    @Benchmark
+    public byte[] encodeToBuffer() {
+        return JsonBuffer.toBytes(gson, user);
+    }
+
+    @Benchmark
+    public User decodeUser() {
+        return gson.fromJson(new StringReader(userJson), User.class);
+    }
+
+    // body of POST /user
+    @Benchmark
+    public User decodeCreation() {
+        return gson.fromJson(new StringReader(creationJson), User.class);
+    }
+
+    // body of PUT /user/{id}/password
+    @Benchmark
+    public PasswordUpdate decodePasswordUpdate() {
+        return gson.fromJson(new StringReader(passwordUpdateJson), PasswordUpdate.class);
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.bigmontz.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathParsingBenchmark {
+
+    // not final, so that the JIT cannot constant-fold the input
+    private String userPath = "/user/61dc7d3a8f1b2c4e5d6a7b8c";
+    private String passwordPath = "/user/61dc7d3a8f1b2c4e5d6a7b8c/password";
+
+    @Benchmark
+    public String retrieveUserPath() {
+        return UserController.rawUserId(userPath);
+    }
+
+    @Benchmark
+    public String updateUserPasswordPath() {
+        return UserController.rawPasswordUserId(passwordPath);
+    }
+}
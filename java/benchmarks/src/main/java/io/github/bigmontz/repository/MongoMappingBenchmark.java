@@ -0,0 +1,47 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.benchmarks.Samples;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MongoMappingBenchmark {
+
+    private Document document;
+
+    @Setup
+    public void setUp() {
+        var user = Samples.user(null);
+        document = new Document("_id", new ObjectId("61dc7d3a8f1b2c4e5d6a7b8c"))
+                .append("username", user.getUsername())
+                .append("name", user.getName())
+                .append("age", user.getAge())
+                .append("surname", user.getSurname())
+                .append("password", user.getPassword())
+                .append("created_at", Date.from(user.getCreatedAt().toInstant()))
+                .append("updated_at", Date.from(user.getUpdatedAt().toInstant()));
+    }
+
+    @Benchmark
+    public User fromDocument() {
+        return UserMongoRepository.fromDocument(document);
+    }
+}
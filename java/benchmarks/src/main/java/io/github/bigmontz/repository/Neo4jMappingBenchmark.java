@@ -0,0 +1,55 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.benchmarks.Samples;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.value.NodeValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.driver.Values.value;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Neo4jMappingBenchmark {
+
+    private Record record;
+
+    @Setup
+    public void setUp() {
+        var user = Samples.user(42L);
+        Map<String, Value> properties = Map.of(
+                "username", value(user.getUsername()),
+                "name", value(user.getName()),
+                "age", value(user.getAge()),
+                "surname", value(user.getSurname()),
+                "password", value(user.getPassword()),
+                "createdAt", value(user.getCreatedAt()),
+                "updatedAt", value(user.getUpdatedAt()));
+        var node = new InternalNode(42L, List.of("User"), properties);
+        record = new InternalRecord(List.of("user"), new Value[]{new NodeValue(node)});
+    }
+
+    @Benchmark
+    public User fromRecord() {
+        return UserNeo4jRepository.fromRecord(record);
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.benchmarks.Samples;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PostgresMappingBenchmark {
+
+    private ResultSet resultSet;
+
+    @Setup
+    public void setUp() {
+        resultSet = fakeResultSet(Samples.user(42L));
+    }
+
+    @Benchmark
+    public Optional<User> map() {
+        return UserPostgresRepository.map(resultSet);
+    }
+
+    // a single row, in UserPostgresRepository.COLUMNS order, that never runs out
+    private static ResultSet fakeResultSet(User user) {
+        var createdAt = Timestamp.from(user.getCreatedAt().toInstant());
+        var updatedAt = Timestamp.from(user.getUpdatedAt().toInstant());
+        Object[] row = {user.getId(), user.getUsername(), user.getName(), user.getAge(), user.getSurname(), user.getPassword(), createdAt, updatedAt};
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "next" -> true;
+                    case "getLong", "getString", "getInt", "getTimestamp" -> row[(int) args[0] - 1];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -1,20 +1,76 @@
 package io.github.bigmontz;
 
-import com.sun.net.httpserver.HttpServer;
+import com.google.gson.Gson;
 import io.github.bigmontz.config.Config;
+import io.github.bigmontz.config.Env;
+import io.github.bigmontz.config.MetricsBindings;
+import io.github.bigmontz.controller.MetricsController;
+import io.github.bigmontz.controller.ReadinessController;
 import io.github.bigmontz.controller.UserController;
+import io.github.bigmontz.controller.WarmUp;
+import io.github.bigmontz.limit.AdmissionControl;
+import io.github.bigmontz.metrics.HttpMetrics;
+import io.github.bigmontz.metrics.MetricsRegistry;
+import io.github.bigmontz.repository.AsyncUserRepository;
+import io.github.bigmontz.repository.UserRepository;
+import io.github.bigmontz.server.RequestExecutor;
+import io.github.bigmontz.server.ServerEngine;
+import io.github.bigmontz.server.nio.NioServerEngine;
+import io.github.bigmontz.startup.Startup;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
 
 public class App {
     public static void main(String[] args) throws IOException {
-        UserController userController = new UserController(Config.userRepository(), Config.gson());
+        Startup startup = new Startup();
+        MetricsRegistry metricsRegistry = Config.metricsRegistry();
+        MetricsBindings.bind(metricsRegistry, startup);
+        // drivers get loaded and connected while the JSON paths warm up
+        CompletableFuture<UserRepository<?>> pendingUserRepository = startup.supply(() -> Config.userRepository(metricsRegistry, startup));
+        Gson gson = Config.gson();
+        WarmUp.fromEnv(gson).run();
 
-        HttpServer server = HttpServer.create();
-        server.bind(new InetSocketAddress("localhost", 3003), 100);
+        HttpMetrics<UserController.Endpoint> httpMetrics = new HttpMetrics<>(UserController.Endpoint.class);
+        metricsRegistry.register(httpMetrics);
+        AdmissionControl admissionControl = AdmissionControl.fromEnv();
+        MetricsBindings.bind(metricsRegistry, admissionControl);
+        UserRepository<?> userRepository = Startup.join(pendingUserRepository);
+        AsyncUserRepository<?> asyncUserRepository = Env.getOrDefault("ASYNC_REPOSITORY", false, Boolean::parseBoolean)
+                ? Config.asyncUserRepository(userRepository)
+                : null;
+        UserController userController = new UserController(userRepository, asyncUserRepository, gson, httpMetrics, admissionControl, Config.exportExecutor());
+
+        RequestExecutor requestExecutor = RequestExecutor.fromEnv();
+        MetricsBindings.bind(metricsRegistry, requestExecutor);
+
+        var address = new InetSocketAddress("localhost", Env.getOrDefault("HTTP_PORT", 3003, Integer::parseInt));
+        ServerEngine server = ServerEngine.fromEnv(address, requestExecutor);
+        if (server instanceof NioServerEngine nioServer) {
+            MetricsBindings.bind(metricsRegistry, nioServer);
+        }
         server.createContext("/user", userController::handle);
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(10)));
+        server.createContext("/metrics", new MetricsController(metricsRegistry)::handle);
+        server.createContext("/ready", new ReadinessController(startup)::handle);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(10);
+            requestExecutor.shutdown();
+            try {
+                if (asyncUserRepository != null && asyncUserRepository != userRepository) {
+                    asyncUserRepository.close();
+                }
+                userRepository.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
         server.start();
+        startup.finish();
+        // see the fast-startup profile: the classes loaded up to here are archived on exit
+        if (Env.getOrDefault("STARTUP_TRAINING_RUN", false, Boolean::parseBoolean)) {
+            System.exit(0);
+        }
     }
 }
@@ -0,0 +1,83 @@
+package io.github.bigmontz.bulkload;
+
+import io.github.bigmontz.config.Env;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class BulkLoadSettings {
+
+    public enum Format {
+        NDJSON,
+        CSV;
+
+        // CSV for .csv files, NDJSON otherwise, e.g. for the output of GET /user/export
+        static Format of(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(".csv") ? CSV : NDJSON;
+        }
+    }
+
+    private final Path file;
+    private final Format format;
+    private final int batchSize;
+    private final int parallelism;
+    private final int readBufferSize;
+    private final Duration reportInterval;
+
+    public BulkLoadSettings(Path file, Format format, int batchSize, int parallelism, int readBufferSize, Duration reportInterval) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(String.format("invalid batch size %d", batchSize));
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(String.format("invalid parallelism %d", parallelism));
+        }
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException(String.format("invalid read buffer size %d", readBufferSize));
+        }
+        this.file = file;
+        this.format = format;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.readBufferSize = readBufferSize;
+        this.reportInterval = reportInterval;
+    }
+
+    public static BulkLoadSettings fromEnv() {
+        Path file = Path.of(Env.getOrThrow("BULKLOAD_FILE", () -> new RuntimeException("missing BULKLOAD_FILE envvar")));
+        return new BulkLoadSettings(
+                file,
+                Env.getOrDefault("BULKLOAD_FORMAT", Format.of(file), format -> Format.valueOf(format.toUpperCase())),
+                Env.getOrDefault("BULKLOAD_BATCH_SIZE", 5_000, Integer::parseInt),
+                Env.getOrDefault("BULKLOAD_PARALLELISM", Runtime.getRuntime().availableProcessors(), Integer::parseInt),
+                Env.getOrDefault("BULKLOAD_READ_BUFFER_KB", 1_024, Integer::parseInt) * 1024,
+                Duration.ofSeconds(Env.getOrDefault("BULKLOAD_REPORT_INTERVAL_S", 5L, Long::parseLong))
+        );
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    // users written per backend call: one COPY, bulk write or transaction each
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // workers, each loading its own range of the file
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // bytes each worker reads from the file at once, grown to fit longer lines
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public Duration getReportInterval() {
+        return reportInterval;
+    }
+}
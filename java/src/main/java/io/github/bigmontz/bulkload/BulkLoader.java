@@ -0,0 +1,195 @@
+package io.github.bigmontz.bulkload;
+
+import com.google.gson.Gson;
+import io.github.bigmontz.config.Config;
+import io.github.bigmontz.repository.BatchingUserRepository;
+import io.github.bigmontz.repository.CachingUserRepository;
+import io.github.bigmontz.repository.HashingUserRepository;
+import io.github.bigmontz.repository.MeteredUserRepository;
+import io.github.bigmontz.repository.User;
+import io.github.bigmontz.repository.UserRepository;
+import io.github.bigmontz.startup.Startup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Loads users from an NDJSON or CSV file straight into the configured backend, through
+ * {@link UserRepository#loadAll(List)}: COPY for PostgreSQL and CockroachDB, unordered bulk writes for MongoDB and
+ * UNWIND batches for Neo4j. Configured through the DB_TYPE variables of the server and the BULKLOAD_* ones of
+ * {@link BulkLoadSettings}, e.g.:
+ * <pre>
+ * DB_TYPE=postgres BULKLOAD_FILE=users.ndjson mvn -q compile exec:java -Dexec.mainClass=io.github.bigmontz.bulkload.BulkLoader
+ * </pre>
+ * The file is split in as many byte ranges as there are workers, each loading the lines starting in its range.
+ * Users are created anew, IDs in the file are ignored. A failure stops the load, some batches may have been loaded.
+ * <p>
+ * With PASSWORD_HASHING=true, plain-text passwords are hashed on the way in, which bounds the load whatever the
+ * backend: each hash costs about PASSWORD_HASH_TARGET_MS (20 ms by default) of CPU, i.e. some 50 rows/s per hashing
+ * thread. The progress output reports the share of the workers' time spent waiting for hashes. Setting
+ * PASSWORD_HASH_ITERATIONS for the load trades that time for weaker hashes, until each user's next password update
+ * rehashes it. Hashes in the file, e.g. from an export, are kept as they are.
+ */
+public class BulkLoader {
+
+    private final BulkLoadSettings settings;
+    private final UserRepository<?> repository;
+    private final Gson gson;
+    private final AtomicLong loadedUsers = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // null when passwords are stored as they come
+    private final HashingUserRepository<?> hashing;
+    // only touched by the reporter thread
+    private long reportedUsers;
+    private long reportedHashingNanos;
+
+    public BulkLoader(BulkLoadSettings settings, UserRepository<?> repository, Gson gson) {
+        this.settings = settings;
+        this.repository = repository;
+        this.gson = gson;
+        this.hashing = hashingOf(repository);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var settings = BulkLoadSettings.fromEnv();
+        var startup = new Startup();
+        try (var repository = Config.userRepository(Config.metricsRegistry(), startup)) {
+            // e.g. the creation of the CockroachDB table
+            Startup.join(startup.finish());
+            new BulkLoader(settings, repository, Config.gson()).run(System.out);
+        }
+    }
+
+    public void run(PrintStream out) throws IOException, InterruptedException {
+        try (var channel = FileChannel.open(settings.getFile(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = 0;
+            Function<String, User> parser = line -> gson.fromJson(line, User.class);
+            if (settings.getFormat() == BulkLoadSettings.Format.CSV) {
+                var headerReader = new LineReader(channel, 0, size, settings.getReadBufferSize());
+                String header = headerReader.next();
+                if (header == null) {
+                    throw new IllegalArgumentException(String.format("missing CSV header in %s", settings.getFile()));
+                }
+                parser = new CsvUserParser(header)::parse;
+                dataStart = headerReader.getPosition();
+            }
+            out.printf("loading %s (%s, %d bytes) with %d workers, %d users per batch%n", settings.getFile(),
+                    settings.getFormat(), size, settings.getParallelism(), settings.getBatchSize());
+            load(out, channel, dataStart, size, parser);
+        }
+    }
+
+    private void load(PrintStream out, FileChannel channel, long dataStart, long size, Function<String, User> parser) throws InterruptedException {
+        long start = System.nanoTime();
+        var reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulkload-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long reportInterval = settings.getReportInterval().toNanos();
+        reporter.scheduleAtFixedRate(() -> reportInterval(out, start), reportInterval, reportInterval, TimeUnit.NANOSECONDS);
+
+        var workers = new ArrayList<Thread>();
+        long rangeSize = (size - dataStart + settings.getParallelism() - 1) / settings.getParallelism();
+        for (int i = 0; i < settings.getParallelism(); i++) {
+            long rangeStart = Math.min(size, dataStart + i * rangeSize);
+            long rangeEnd = Math.min(size, rangeStart + rangeSize);
+            Thread worker = new Thread(() -> work(channel, rangeStart, rangeEnd, parser), "bulkload-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        reporter.shutdownNow();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("%nloaded %,d users in %.1fs, %.1f rows/s%n", loadedUsers.get(), seconds, loadedUsers.get() / seconds);
+        if (hashing != null) {
+            double hashingSeconds = hashing.getLoadHashingNanos() / 1e9;
+            out.printf("workers spent %.1fs hashing passwords, %.0f%% of their time%n", hashingSeconds,
+                    100 * hashingSeconds / (seconds * settings.getParallelism()));
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException(String.format("bulk load failed after %,d users", loadedUsers.get()), failure.get());
+        }
+    }
+
+    private void reportInterval(PrintStream out, long start) {
+        long loaded = loadedUsers.get();
+        long interval = settings.getReportInterval().toNanos();
+        out.printf("[%5ds] %,d users, %.1f rows/s", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), loaded,
+                (loaded - reportedUsers) / (interval / 1e9));
+        reportedUsers = loaded;
+        if (hashing != null) {
+            long hashingNanos = hashing.getLoadHashingNanos();
+            out.printf(", %.0f%% hashing", 100.0 * (hashingNanos - reportedHashingNanos) / ((double) interval * settings.getParallelism()));
+            reportedHashingNanos = hashingNanos;
+        }
+        out.println();
+    }
+
+    private void work(FileChannel channel, long rangeStart, long rangeEnd, Function<String, User> parser) {
+        try {
+            var reader = new LineReader(channel, rangeStart, rangeEnd, settings.getReadBufferSize());
+            var batch = new ArrayList<User>(settings.getBatchSize());
+            String line;
+            while ((line = reader.next()) != null && failure.get() == null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    batch.add(parser.apply(line));
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException(String.format("invalid record at byte %d of %s: %s",
+                            reader.getLineStart(), settings.getFile(), e.getMessage()), e);
+                }
+                if (batch.size() == settings.getBatchSize()) {
+                    load(batch);
+                    batch = new ArrayList<>(settings.getBatchSize());
+                }
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                load(batch);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the other workers stop at their next line
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void load(List<User> batch) {
+        repository.loadAll(batch);
+        loadedUsers.addAndGet(batch.size());
+    }
+
+    // the wrappers Config puts around the backend, down to password hashing
+    private static HashingUserRepository<?> hashingOf(UserRepository<?> repository) {
+        UserRepository<?> current = repository;
+        while (current != null) {
+            if (current instanceof HashingUserRepository<?> hashing) {
+                return hashing;
+            }
+            if (current instanceof MeteredUserRepository<?> metered) {
+                current = metered.getDelegate();
+            } else if (current instanceof CachingUserRepository<?> caching) {
+                current = caching.getDelegate();
+            } else if (current instanceof BatchingUserRepository<?> batching) {
+                current = batching.getDelegate();
+            } else {
+                current = null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.bigmontz.bulkload;
+
+import io.github.bigmontz.repository.User;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps CSV records to users, after the column names of the header: username, name, age, surname, password, and
+ * optionally created_at and updated_at as ISO-8601 timestamps. Other columns, e.g. id, are ignored.
+ * Fields may be quoted, with quotes doubled within, but records cannot span lines.
+ */
+class CsvUserParser {
+
+    private static final List<String> REQUIRED_COLUMNS = List.of("username", "name", "age", "surname", "password");
+
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final int columnCount;
+
+    CsvUserParser(String header) {
+        // without the byte order mark spreadsheets may start files with
+        List<String> names = split(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(), i);
+        }
+        for (String column : REQUIRED_COLUMNS) {
+            if (!columns.containsKey(column)) {
+                throw new IllegalArgumentException(String.format("missing column %s in CSV header %s", column, header));
+            }
+        }
+        this.columnCount = names.size();
+    }
+
+    User parse(String line) {
+        List<String> fields = split(line);
+        if (fields.size() != columnCount) {
+            throw new IllegalArgumentException(String.format("expected %d fields, got %d", columnCount, fields.size()));
+        }
+        return new User(
+                null,
+                field(fields, "username"),
+                field(fields, "name"),
+                Integer.parseInt(field(fields, "age").trim()),
+                field(fields, "surname"),
+                field(fields, "password"),
+                timestamp(fields, "created_at"),
+                timestamp(fields, "updated_at")
+        );
+    }
+
+    private String field(List<String> fields, String column) {
+        return fields.get(columns.get(column));
+    }
+
+    private ZonedDateTime timestamp(List<String> fields, String column) {
+        Integer index = columns.get(column);
+        if (index == null || fields.get(index).isBlank()) {
+            return null;
+        }
+        return ZonedDateTime.parse(fields.get(index).trim());
+    }
+
+    static List<String> split(String line) {
+        var fields = new ArrayList<String>();
+        var field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
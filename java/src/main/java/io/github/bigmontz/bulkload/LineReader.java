@@ -0,0 +1,110 @@
+package io.github.bigmontz.bulkload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the lines starting within a byte range of a file, through positional reads of a channel the readers of the
+ * other ranges share. A line belongs to the range it starts in: the reader finishes its last line past the end of
+ * its range, and skips the partial line its range starts with.
+ */
+class LineReader {
+
+    private final FileChannel channel;
+    private final long end;
+    private byte[] buffer;
+    // file position of buffer[0]
+    private long bufferPosition;
+    private int offset;
+    private int limit;
+    private boolean endOfFile;
+    private long lineStart;
+
+    LineReader(FileChannel channel, long start, long end, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.end = end;
+        this.buffer = new byte[bufferSize];
+        if (start == 0) {
+            return;
+        }
+        // reading from the byte before the range skips nothing when the range starts on a line of its own
+        this.bufferPosition = start - 1;
+        nextLine();
+    }
+
+    /**
+     * @return the next line, without its line terminator, null once past the range
+     */
+    String next() throws IOException {
+        if (getPosition() >= end) {
+            return null;
+        }
+        return nextLine();
+    }
+
+    // file position of the next line
+    long getPosition() {
+        return bufferPosition + offset;
+    }
+
+    // file position of the line last returned, for error messages
+    long getLineStart() {
+        return lineStart;
+    }
+
+    private String nextLine() throws IOException {
+        int scanned = offset;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return line(i, i + 1);
+                }
+            }
+            scanned = limit;
+            if (endOfFile) {
+                return offset < limit ? line(limit, limit) : null;
+            }
+            scanned -= fill();
+        }
+    }
+
+    private String line(int lineEnd, int nextOffset) {
+        lineStart = bufferPosition + offset;
+        int length = lineEnd - offset;
+        if (length > 0 && buffer[lineEnd - 1] == '\r') {
+            length--;
+        }
+        String line = new String(buffer, offset, length, UTF_8);
+        offset = nextOffset;
+        return line;
+    }
+
+    /**
+     * Keeps the unread bytes, moved to the start of the buffer, and reads as many more as fit.
+     *
+     * @return how far the unread bytes moved
+     */
+    private int fill() throws IOException {
+        int shift = offset;
+        if (offset > 0) {
+            System.arraycopy(buffer, offset, buffer, 0, limit - offset);
+            bufferPosition += offset;
+            limit -= offset;
+            offset = 0;
+        } else if (limit == buffer.length) {
+            // a line longer than the buffer
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit), bufferPosition + limit);
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+}
@@ -2,21 +2,55 @@ package io.github.bigmontz.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.mongodb.client.MongoClient;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClients;
+import io.github.bigmontz.jdbc.PoolSettings;
+import io.github.bigmontz.jdbc.PooledDataSource;
+import io.github.bigmontz.metrics.MetricsRegistry;
+import io.github.bigmontz.metrics.RepositoryMetrics;
+import io.github.bigmontz.mmap.MmapSettings;
+import io.github.bigmontz.repository.AsyncUserRepository;
+import io.github.bigmontz.repository.BatchingUserRepository;
+import io.github.bigmontz.repository.CachingUserRepository;
+import io.github.bigmontz.repository.CockroachRetry;
+import io.github.bigmontz.repository.ExecutorAsyncUserRepository;
+import io.github.bigmontz.repository.HashingAsyncUserRepository;
+import io.github.bigmontz.repository.HashingUserRepository;
+import io.github.bigmontz.repository.MeteredAsyncUserRepository;
+import io.github.bigmontz.repository.MeteredUserRepository;
+import io.github.bigmontz.repository.PasswordHasher;
+import io.github.bigmontz.repository.PasswordUpdate;
+import io.github.bigmontz.repository.ShardedUserRepository;
+import io.github.bigmontz.repository.User;
 import io.github.bigmontz.repository.UserCockroachRepository;
+import io.github.bigmontz.repository.UserMmapRepository;
+import io.github.bigmontz.repository.UserMongoAsyncRepository;
 import io.github.bigmontz.repository.UserMongoRepository;
 import io.github.bigmontz.repository.UserNeo4jRepository;
 import io.github.bigmontz.repository.UserPostgresRepository;
 import io.github.bigmontz.repository.UserRepository;
+import io.github.bigmontz.startup.Startup;
 import org.neo4j.driver.AuthTokens;
 import org.neo4j.driver.Driver;
 import org.neo4j.driver.GraphDatabase;
 import org.postgresql.ds.PGSimpleDataSource;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.gson.FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES;
 
@@ -26,58 +60,311 @@ public class Config {
         return new GsonBuilder()
                 .setFieldNamingPolicy(LOWER_CASE_WITH_UNDERSCORES)
                 .registerTypeAdapter(ZonedDateTime.class, new ZonedDateTimeGsonAdapter())
+                .registerTypeAdapter(User.class, new UserGsonAdapter())
+                .registerTypeAdapter(PasswordUpdate.class, new PasswordUpdateGsonAdapter())
                 .create();
     }
 
-    public static UserRepository<?> userRepository() {
-        var dbType = Env.getOrThrow("DB_TYPE", () -> new RuntimeException("missing DB_TYPE envvar"));
+    public static MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry(Map.of("db_type", dbType()));
+    }
+
+    /**
+     * Builds the configured backend, with its decorators.
+     *
+     * @param metrics the registry the backend and its decorators expose their statistics to
+     * @param startup runs the connectivity and schema checks in the background, as well as the creation of the shards
+     * @return the repository
+     */
+    public static UserRepository<?> userRepository(MetricsRegistry metrics, Startup startup) {
+        var repositoryMetrics = new RepositoryMetrics();
+        metrics.register(repositoryMetrics);
+        return withMetrics(withCache(withBatching(withHashing(backendUserRepository(metrics, startup), metrics), metrics), metrics), repositoryMetrics);
+    }
+
+    private static String dbType() {
+        return Env.getOrThrow("DB_TYPE", () -> new RuntimeException("missing DB_TYPE envvar"));
+    }
+
+    // SHARDS lists the addresses of the instances to spread users over, separated by ';'
+    // POSTGRES_REPLICAS lists the replicas of each of them the same way, e.g. "r0a,r0b;r1a"
+    private static UserRepository<?> backendUserRepository(MetricsRegistry metrics, Startup startup) {
+        var dbType = dbType();
+        var shards = Env.getOrDefault("SHARDS", "").trim();
+        String[] replicas = Env.getOrDefault("POSTGRES_REPLICAS", "").split(";");
+        if (shards.isEmpty()) {
+            return backendUserRepository(dbType, defaultAddress(dbType), replicaAddresses(replicas, 0), metrics, startup);
+        }
+        String[] addresses = shards.split(";");
+        // shards are independent, their drivers are created in parallel
+        var pending = new ArrayList<CompletableFuture<UserRepository<?>>>(addresses.length);
+        for (int i = 0; i < addresses.length; i++) {
+            String address = addresses[i].trim();
+            List<String> shardReplicas = replicaAddresses(replicas, i);
+            MetricsRegistry shardMetrics = metrics.scoped("shard", Integer.toString(i));
+            pending.add(startup.supply(() -> backendUserRepository(dbType, address, shardReplicas, shardMetrics, startup)));
+        }
+        var repositories = new ArrayList<UserRepository<?>>(addresses.length);
+        for (var repository : pending) {
+            repositories.add(Startup.join(repository));
+        }
+        var repository = sharded(repositories);
+        MetricsBindings.bind(metrics, repository);
+        return repository;
+    }
+
+    // all shards are of the same DB_TYPE, hence share the same ID type
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ShardedUserRepository<?> sharded(List<UserRepository<?>> repositories) {
+        return new ShardedUserRepository<>((List) repositories);
+    }
+
+    private static List<String> replicaAddresses(String[] replicas, int shard) {
+        if (shard >= replicas.length) {
+            return List.of();
+        }
+        var addresses = new ArrayList<String>();
+        for (String address : replicas[shard].split(",")) {
+            if (!address.isBlank()) {
+                addresses.add(address.trim());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * @param address          the instance to connect to, the directory of the mmap backend
+     * @param replicaAddresses the replicas reads are spread over, only supported by PostgreSQL
+     */
+    private static UserRepository<?> backendUserRepository(String dbType, String address, List<String> replicaAddresses, MetricsRegistry metrics, Startup startup) {
         return switch (dbType) {
-            case "neo4j" -> new UserNeo4jRepository(neo4jDriver());
-            case "mongodb" -> new UserMongoRepository(mongoDriver());
-            case "postgres" -> new UserPostgresRepository(postgresDriver());
+            case "neo4j" -> {
+                Driver driver = neo4jDriver(address);
+                // the driver connects on first use, the check only holds up readiness
+                startup.run(driver::verifyConnectivity);
+                yield new UserNeo4jRepository(driver);
+            }
+            case "mongodb" -> new UserMongoRepository(
+                    MongoClients.create(mongoConnectionString(address)),
+                    Env.getOrDefault("MONGODB_HIGH_THROUGHPUT", false, Boolean::parseBoolean),
+                    mongoWriteConcern(),
+                    mongoReadPreference());
+            case "postgres" -> {
+                var replicas = new ArrayList<DataSource>(replicaAddresses.size());
+                for (int i = 0; i < replicaAddresses.size(); i++) {
+                    replicas.add(postgresDriver(replicaAddresses.get(i), "POSTGRES_REPLICA", "postgres_replica_" + i, metrics));
+                }
+                yield new UserPostgresRepository(postgresDriver(address, "POSTGRES", "postgres", metrics), replicas);
+            }
+            case "mmap" -> {
+                var repository = new UserMmapRepository(MmapSettings.fromEnv(Path.of(address)));
+                MetricsBindings.bind(metrics, repository);
+                yield repository;
+            }
             case "cockroachdb" -> {
-                DataSource dataSource = cockroachDriver();
-                createUserTable(dataSource);
-                yield new UserCockroachRepository(dataSource);
+                DataSource dataSource = cockroachDriver(address, metrics);
+                startup.run(() -> createUserTable(dataSource));
+                var retry = CockroachRetry.fromEnv();
+                MetricsBindings.bind(metrics, retry);
+                yield new UserCockroachRepository(dataSource, retry);
             }
             default -> throw new IllegalStateException(String.format("unsupported DB_TYPE %s", dbType));
         };
     }
 
-    private static Driver neo4jDriver() {
+    private static String defaultAddress(String dbType) {
+        return switch (dbType) {
+            case "neo4j" -> Env.getOrDefault("NEO4J_URL", "neo4j://localhost");
+            case "mongodb" -> Env.getOrDefault("MONGODB_ADDRESS", "localhost");
+            case "postgres" -> Env.getOrDefault("POSTGRES_URL", "localhost");
+            case "mmap" -> Env.getOrDefault("MMAP_DIRECTORY", "data");
+            case "cockroachdb" -> Env.getOrDefault("COCKROACH_URL", "localhost");
+            default -> throw new IllegalStateException(String.format("unsupported DB_TYPE %s", dbType));
+        };
+    }
+
+    /**
+     * Returns the non-blocking flavour of the given repository.
+     * Neo4j and MongoDB get native async implementations, chained on password hashing, unless the repository is
+     * cached (a cache has to see every write) or batched (batches gather blocking callers). Other backends have their
+     * blocking calls offloaded to a bounded executor, ASYNC_BLOCKING_THREADS threads in front of a queue of
+     * ASYNC_BLOCKING_QUEUE_SIZE calls: calls past that fail, and are answered with 503.
+     *
+     * @param userRepository the repository returned by {@link #userRepository(MetricsRegistry, Startup)}
+     * @return the async repository
+     */
+    public static AsyncUserRepository<?> asyncUserRepository(UserRepository<?> userRepository) {
+        if (userRepository instanceof MeteredUserRepository<?> meteredUserRepository) {
+            return withMetrics(meteredUserRepository);
+        }
+        if (userRepository instanceof HashingUserRepository<?> hashingUserRepository) {
+            return withHashing(hashingUserRepository);
+        }
+        if (userRepository instanceof AsyncUserRepository<?> asyncUserRepository) {
+            return asyncUserRepository;
+        }
+        if (userRepository instanceof UserMongoRepository mongoUserRepository) {
+            return new UserMongoAsyncRepository(
+                    com.mongodb.reactivestreams.client.MongoClients.create(mongoConnectionString(defaultAddress("mongodb"))),
+                    mongoUserRepository.isHighThroughput(),
+                    mongoWriteConcern(),
+                    mongoReadPreference());
+        }
+        return withExecutor(userRepository);
+    }
+
+    /**
+     * Threads for the exports, EXPORT_THREADS of them: an export past those is turned down rather than queued, as it
+     * would hold its connection for as long as the others take.
+     */
+    public static Executor exportExecutor() {
+        int threads = Env.getOrDefault("EXPORT_THREADS", 2, Integer::parseInt);
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "user-export-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static <ID> AsyncUserRepository<ID> withExecutor(UserRepository<ID> repository) {
+        int threads = Env.getOrDefault("ASYNC_BLOCKING_THREADS", 16, Integer::parseInt);
+        var threadCount = new AtomicInteger();
+        var executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Env.getOrDefault("ASYNC_BLOCKING_QUEUE_SIZE", 1_000, Integer::parseInt)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "repository-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return new ExecutorAsyncUserRepository<>(repository, executor);
+    }
+
+    private static <ID> AsyncUserRepository<ID> withMetrics(MeteredUserRepository<ID> repository) {
+        @SuppressWarnings("unchecked")
+        var asyncUserRepository = (AsyncUserRepository<ID>) asyncUserRepository(repository.getDelegate());
+        // a backend implementing both flavours is closed once, as the blocking repository
+        boolean ownsDelegate = asyncUserRepository != repository.getDelegate();
+        return new MeteredAsyncUserRepository<>(asyncUserRepository, repository.getMetrics(), ownsDelegate);
+    }
+
+    private static <ID> AsyncUserRepository<ID> withHashing(HashingUserRepository<ID> repository) {
+        @SuppressWarnings("unchecked")
+        var asyncUserRepository = (AsyncUserRepository<ID>) asyncUserRepository(repository.getDelegate());
+        boolean ownsDelegate = asyncUserRepository != repository.getDelegate();
+        return new HashingAsyncUserRepository<>(asyncUserRepository, repository, ownsDelegate);
+    }
+
+    // opt-in: responses then carry the hash in place of the password, which the API contract does not expect
+    private static <ID> UserRepository<ID> withHashing(UserRepository<ID> repository, MetricsRegistry metrics) {
+        if (!Env.getOrDefault("PASSWORD_HASHING", false, Boolean::parseBoolean)) {
+            return repository;
+        }
+        var hasher = PasswordHasher.fromEnv();
+        MetricsBindings.bind(metrics, hasher);
+        return new HashingUserRepository<>(repository, hasher);
+    }
+
+    private static <ID> UserRepository<ID> withMetrics(UserRepository<ID> repository, RepositoryMetrics metrics) {
+        return new MeteredUserRepository<>(repository, metrics);
+    }
+
+    private static <ID> UserRepository<ID> withCache(UserRepository<ID> repository, MetricsRegistry metrics) {
+        int maxSize = Env.getOrDefault("USER_CACHE_MAX_SIZE", 0, Integer::parseInt);
+        if (maxSize <= 0) {
+            return repository;
+        }
+        var ttl = Duration.ofMillis(Env.getOrDefault("USER_CACHE_TTL_MS", 30_000L, Long::parseLong));
+        var cache = new CachingUserRepository<>(repository, maxSize, ttl);
+        MetricsBindings.bind(metrics, cache);
+        return cache;
+    }
+
+    // cache misses are the ones batched, below the cache. Batches gather concurrent callers, which takes handlers
+    // running on several threads, see HTTP_EXECUTOR
+    private static <ID> UserRepository<ID> withBatching(UserRepository<ID> repository, MetricsRegistry metrics) {
+        long windowMicros = Env.getOrDefault("USER_FIND_BATCH_WINDOW_US", 0L, Long::parseLong);
+        if (windowMicros <= 0) {
+            return repository;
+        }
+        var batching = new BatchingUserRepository<>(
+                repository,
+                Duration.ofNanos(windowMicros * 1_000),
+                Env.getOrDefault("USER_FIND_BATCH_MAX_SIZE", 100, Integer::parseInt));
+        MetricsBindings.bind(metrics, batching);
+        return batching;
+    }
+
+    private static Driver neo4jDriver(String url) {
         return GraphDatabase.driver(
-                Env.getOrDefault("NEO4J_URL", "neo4j://localhost"),
+                url,
                 AuthTokens.basic(
                         Env.getOrDefault("NEO4J_USER", "neo4j"),
                         Env.getOrDefault("NEO4J_PASSWORD", "pass")));
     }
 
-    private static MongoClient mongoDriver() {
+    private static String mongoConnectionString(String address) {
         // TODO: add "?retryWrites=true"?
-        return MongoClients.create(String.format("mongodb://%s:%s@%s",
+        return String.format("mongodb://%s:%s@%s",
                 Env.getOrDefault("MONGODB_USER", "mongodb"),
                 Env.getOrDefault("MONGODB_PASSWORD", "mongodb"),
-                Env.getOrDefault("MONGODB_ADDRESS", "localhost")));
+                address);
+    }
+
+    private static WriteConcern mongoWriteConcern() {
+        return Env.getOrDefault("MONGODB_WRITE_CONCERN", WriteConcern.ACKNOWLEDGED, Config::writeConcern);
     }
 
-    private static DataSource postgresDriver() {
-        var url = String.format("jdbc:postgresql://%s/", Env.getOrDefault("POSTGRES_URL", "localhost"));
+    private static ReadPreference mongoReadPreference() {
+        return Env.getOrDefault("MONGODB_READ_PREFERENCE", ReadPreference.primary(), ReadPreference::valueOf);
+    }
+
+    // e.g. "majority", "w1", "unacknowledged"
+    private static WriteConcern writeConcern(String name) {
+        var writeConcern = WriteConcern.valueOf(name);
+        if (writeConcern == null) {
+            throw new IllegalStateException(String.format("unsupported MONGODB_WRITE_CONCERN %s", name));
+        }
+        return writeConcern;
+    }
+
+    // poolPrefix: replicas get their own pool settings, e.g. POSTGRES_REPLICA_POOL_MAX_SIZE
+    private static DataSource postgresDriver(String address, String poolPrefix, String poolName, MetricsRegistry metrics) {
+        var url = String.format("jdbc:postgresql://%s/", address);
         PGSimpleDataSource dataSource = new PGSimpleDataSource();
         dataSource.setURL(url);
         dataSource.setUser(Env.getOrDefault("POSTGRES_USER", "postgres"));
         dataSource.setPassword(Env.getOrDefault("POSTGRES_PASSWORD", "postgres"));
-        return dataSource;
+        tunePgJdbc(dataSource, "POSTGRES");
+        var pool = new PooledDataSource(dataSource, PoolSettings.fromEnv(poolPrefix));
+        MetricsBindings.bind(metrics, pool, poolName);
+        return pool;
     }
 
-    private static DataSource cockroachDriver() {
+    private static DataSource cockroachDriver(String address, MetricsRegistry metrics) {
         PGSimpleDataSource dataSource = new PGSimpleDataSource();
-        dataSource.setServerNames(new String[]{Env.getOrDefault("COCKROACH_URL", "localhost")});
+        dataSource.setServerNames(new String[]{address});
         dataSource.setUser(Env.getOrDefault("COCKROACH_USER", "admin"));
         dataSource.setPassword(Env.getOrDefault("COCKROACH_PASSWORD", "cockroach"));
         dataSource.setDatabaseName(Env.getOrDefault("COCKROACH_DATABASE", "postgres"));
         dataSource.setSsl(false);
         dataSource.setPortNumbers(new int[]{Env.getOrDefault("COCKROACH_PORT", 26257, Integer::parseInt)});
-        return dataSource;
+        tunePgJdbc(dataSource, "COCKROACH");
+        var pool = new PooledDataSource(dataSource, PoolSettings.fromEnv("COCKROACH"));
+        MetricsBindings.bind(metrics, pool, "cockroachdb");
+        return pool;
+    }
+
+    // see https://jdbc.postgresql.org/documentation/use/#connection-parameters
+    private static void tunePgJdbc(PGSimpleDataSource dataSource, String prefix) {
+        // server-prepare from the first execution, pooled connections keep their prepared statements around
+        dataSource.setPrepareThreshold(Env.getOrDefault(prefix + "_PREPARE_THRESHOLD", 1, Integer::parseInt));
+        dataSource.setPreparedStatementCacheQueries(Env.getOrDefault(prefix + "_PREPARED_STATEMENT_CACHE_QUERIES", 256, Integer::parseInt));
+        dataSource.setPreparedStatementCacheSizeMiB(Env.getOrDefault(prefix + "_PREPARED_STATEMENT_CACHE_SIZE_MIB", 5, Integer::parseInt));
+        dataSource.setBinaryTransfer(Env.getOrDefault(prefix + "_BINARY_TRANSFER", true, Boolean::parseBoolean));
+        dataSource.setReWriteBatchedInserts(Env.getOrDefault(prefix + "_REWRITE_BATCHED_INSERTS", true, Boolean::parseBoolean));
     }
 
     private static void createUserTable(DataSource dataSource) {
@@ -0,0 +1,162 @@
+package io.github.bigmontz.config;
+
+import java.time.DateTimeException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Hand-rolled {@link DateTimeFormatter#ISO_OFFSET_DATE_TIME} formatting and {@link ZonedDateTime#parse(CharSequence)}
+ * parsing for the shapes timestamps have on the wire, e.g. 2021-12-24T10:15:30.123456Z.
+ * Anything else (years past 9999, offsets with seconds, region IDs...) goes through java.time, so results are always
+ * the same as the formatter's.
+ */
+public final class IsoDateTimeCodec {
+
+    // yyyy-MM-ddTHH:mm:ss.nnnnnnnnn+HH:MM
+    private static final int MAX_LENGTH = 35;
+
+    private IsoDateTimeCodec() {
+    }
+
+    public static String format(ZonedDateTime value) {
+        int year = value.getYear();
+        int offsetSeconds = value.getOffset().getTotalSeconds();
+        if (year < 0 || year > 9999 || offsetSeconds % 60 != 0) {
+            return value.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+        char[] chars = new char[MAX_LENGTH];
+        int position = putDigits(chars, 0, year, 4);
+        chars[position++] = '-';
+        position = putDigits(chars, position, value.getMonthValue(), 2);
+        chars[position++] = '-';
+        position = putDigits(chars, position, value.getDayOfMonth(), 2);
+        chars[position++] = 'T';
+        position = putDigits(chars, position, value.getHour(), 2);
+        chars[position++] = ':';
+        position = putDigits(chars, position, value.getMinute(), 2);
+        chars[position++] = ':';
+        position = putDigits(chars, position, value.getSecond(), 2);
+        int nano = value.getNano();
+        if (nano > 0) {
+            // as many digits as needed, trailing zeros dropped
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            chars[position++] = '.';
+            position = putDigits(chars, position, nano, digits);
+        }
+        if (offsetSeconds == 0) {
+            chars[position++] = 'Z';
+        } else {
+            chars[position++] = offsetSeconds < 0 ? '-' : '+';
+            int offsetMinutes = Math.abs(offsetSeconds) / 60;
+            position = putDigits(chars, position, offsetMinutes / 60, 2);
+            chars[position++] = ':';
+            position = putDigits(chars, position, offsetMinutes % 60, 2);
+        }
+        return new String(chars, 0, position);
+    }
+
+    public static ZonedDateTime parse(String value) {
+        ZonedDateTime result = tryParse(value);
+        return result != null ? result : ZonedDateTime.parse(value);
+    }
+
+    // null when the value is not in one of the usual shapes or out of range, java.time then gets to report the error
+    private static ZonedDateTime tryParse(String value) {
+        int length = value.length();
+        if (length < 17 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T' || value.charAt(13) != ':') {
+            return null;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = 0;
+        int nano = 0;
+        int position = 16;
+        if (value.charAt(position) == ':') {
+            if (length < position + 4) {
+                return null;
+            }
+            second = digits(value, position + 1, 2);
+            position += 3;
+            if (value.charAt(position) == '.') {
+                int start = ++position;
+                while (position < length && position - start < 10 && isDigit(value.charAt(position))) {
+                    position++;
+                }
+                int digits = position - start;
+                if (digits == 0 || digits > 9) {
+                    return null;
+                }
+                nano = digits(value, start, digits);
+                for (int i = digits; i < 9; i++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || nano < 0) {
+            return null;
+        }
+        ZoneOffset offset = offset(value, position);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.of(year, month, day, hour, minute, second, nano, offset);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static ZoneOffset offset(String value, int position) {
+        int remaining = value.length() - position;
+        if (remaining == 1 && value.charAt(position) == 'Z') {
+            return ZoneOffset.UTC;
+        }
+        if (remaining != 6 || value.charAt(position + 3) != ':') {
+            return null;
+        }
+        char sign = value.charAt(position);
+        int hours = digits(value, position + 1, 2);
+        int minutes = digits(value, position + 4, 2);
+        if ((sign != '+' && sign != '-') || hours < 0 || minutes < 0) {
+            return null;
+        }
+        try {
+            return sign == '+' ? ZoneOffset.ofHoursMinutes(hours, minutes) : ZoneOffset.ofHoursMinutes(-hours, -minutes);
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    // -1 if any of the characters is not a digit
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int putDigits(char[] chars, int position, int value, int count) {
+        for (int i = position + count - 1; i >= position; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + count;
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.bigmontz.config;
+
+import io.github.bigmontz.jdbc.PooledDataSource;
+import io.github.bigmontz.limit.AdmissionControl;
+import io.github.bigmontz.metrics.MetricsRegistry;
+import io.github.bigmontz.repository.BatchingUserRepository;
+import io.github.bigmontz.repository.CachingUserRepository;
+import io.github.bigmontz.repository.CockroachRetry;
+import io.github.bigmontz.repository.PasswordHasher;
+import io.github.bigmontz.repository.ShardedUserRepository;
+import io.github.bigmontz.repository.UserMmapRepository;
+import io.github.bigmontz.server.RequestExecutor;
+import io.github.bigmontz.server.nio.NioServerEngine;
+import io.github.bigmontz.startup.Startup;
+
+import static io.github.bigmontz.metrics.PrometheusWriter.label;
+
+// exposes the statistics components keep about themselves, read at scrape time only
+public class MetricsBindings {
+
+    public static void bind(MetricsRegistry registry, RequestExecutor executor) {
+        var mode = label("mode", executor.getMode().name().toLowerCase());
+        registry.register(writer -> {
+            writer.family("http_executor_queue_depth", "gauge", "Requests waiting for a handler thread");
+            writer.sample("http_executor_queue_depth", mode, executor.getQueueDepth());
+            writer.family("http_executor_active_threads", "gauge", "Handler threads running a request");
+            writer.sample("http_executor_active_threads", mode, executor.getActiveCount());
+            writer.family("http_executor_rejections_total", "counter", "Requests the pool was full for: served on the dispatcher thread by the JDK engine, answered 503 by the NIO engine");
+            writer.sample("http_executor_rejections_total", mode, executor.getRejectionCount());
+        });
+    }
+
+    public static void bind(MetricsRegistry registry, AdmissionControl admissionControl) {
+        var limits = admissionControl.getLimits();
+        registry.register(writer -> {
+            writer.family("admission_limit", "gauge", "Requests admitted at once, adjusted from their latency");
+            limits.forEach((priority, limit) -> writer.sample("admission_limit", priorityLabel(priority), limit.getLimit()));
+            writer.family("admission_in_flight", "gauge", "Admitted requests not completed yet");
+            limits.forEach((priority, limit) -> writer.sample("admission_in_flight", priorityLabel(priority), limit.getInFlight()));
+            writer.family("admission_shed_total", "counter", "Requests answered with a 503 because the limit was reached");
+            limits.forEach((priority, limit) -> writer.sample("admission_shed_total", priorityLabel(priority), limit.getShedCount()));
+        });
+    }
+
+    private static String priorityLabel(AdmissionControl.Priority priority) {
+        return label("priority", priority.name().toLowerCase());
+    }
+
+    public static void bind(MetricsRegistry registry, NioServerEngine server) {
+        registry.gauge("http_open_connections", "Client connections open on the NIO engine", server::getOpenConnectionCount);
+        registry.gauge("http_active_exchanges", "Requests being handled or having their response written", server::getActiveExchangeCount);
+        registry.counter("http_buffer_allocations_total", "Direct buffers allocated because the pool was empty", () -> server.getBufferPool().getAllocationCount());
+        registry.gauge("http_pooled_buffers", "Direct buffers waiting in the pool", () -> server.getBufferPool().getPooledCount());
+        registry.counter("http_nio_rejections_total", "Requests answered 503 because no handler thread could take them", server::getRejectionCount);
+    }
+
+    public static void bind(MetricsRegistry registry, Startup startup) {
+        registry.gauge("startup_ready", "Whether the application is warmed up and done initialising", () -> startup.getState() == Startup.State.READY ? 1 : 0);
+        registry.gauge("startup_ready_seconds", "Time from the start of the JVM to readiness, 0 until ready", startup::getReadySeconds);
+    }
+
+    static void bind(MetricsRegistry registry, PooledDataSource pool, String name) {
+        var poolLabel = label("pool", name);
+        registry.register(writer -> {
+            writer.family("jdbc_pool_connections", "gauge", "Pooled JDBC connections by state");
+            writer.sample("jdbc_pool_connections", poolLabel + "," + label("state", "active"), pool.getActiveCount());
+            writer.sample("jdbc_pool_connections", poolLabel + "," + label("state", "idle"), pool.getIdleCount());
+            writer.family("jdbc_pool_connections_open", "gauge", "Open JDBC connections, leased or idle");
+            writer.sample("jdbc_pool_connections_open", poolLabel, pool.getTotalCount());
+            writer.family("jdbc_pool_waiting_threads", "gauge", "Threads waiting for a JDBC connection");
+            writer.sample("jdbc_pool_waiting_threads", poolLabel, pool.getWaitingCount());
+            writer.family("jdbc_pool_acquire_seconds", "summary", "Time to acquire a JDBC connection");
+            writer.summary("jdbc_pool_acquire_seconds", poolLabel, pool.getAcquireTimeNanos(), 1e9);
+        });
+    }
+
+    static void bind(MetricsRegistry registry, PasswordHasher hasher) {
+        registry.gauge("password_hash_iterations", "PBKDF2 iterations of new password hashes", hasher::getIterations);
+        registry.timer("password_hash_seconds", "Time to hash or verify a password, on the hashing pool", hasher.getLatencyNanos());
+        registry.gauge("password_hash_queue_depth", "Passwords waiting for a hashing thread", hasher::getQueueDepth);
+        registry.counter("password_legacy_verifications_total", "Plain-text passwords verified, hashed on their update", hasher::getLegacyVerificationCount);
+    }
+
+    static void bind(MetricsRegistry registry, CockroachRetry retry) {
+        registry.counter("cockroach_retry_calls_total", "Transactions run with retries", retry::getCallCount);
+        registry.counter("cockroach_retry_contentions_total", "Attempts aborted by a serialization failure (40001)", retry::getContentionCount);
+        registry.counter("cockroach_retry_exhausted_attempts_total", "Transactions failed after their last attempt", retry::getExhaustedAttemptsCount);
+        registry.counter("cockroach_retry_exhausted_budget_total", "Transactions failed because the retry budget ran out", retry::getExhaustedBudgetCount);
+        registry.register(writer -> {
+            writer.family("cockroach_retry_successes_total", "counter", "Transactions that succeeded, by attempt");
+            for (int attempt = 1; attempt <= retry.getMaxAttempts(); attempt++) {
+                writer.sample("cockroach_retry_successes_total", label("attempt", Integer.toString(attempt)), retry.getSuccessCount(attempt));
+            }
+            writer.family("cockroach_retry_attempt_seconds", "summary", "Latency of transaction attempts, by attempt");
+            for (int attempt = 1; attempt <= retry.getMaxAttempts(); attempt++) {
+                writer.summary("cockroach_retry_attempt_seconds", label("attempt", Integer.toString(attempt)), retry.getAttemptLatencyNanos(attempt), 1e9);
+            }
+        });
+    }
+
+    static void bind(MetricsRegistry registry, CachingUserRepository<?> cache) {
+        registry.counter("user_cache_hits_total", "User cache hits", cache::getHitCount);
+        registry.counter("user_cache_misses_total", "User cache misses", cache::getMissCount);
+        registry.counter("user_cache_evictions_total", "Users evicted from the cache", cache::getEvictionCount);
+        registry.gauge("user_cache_size", "Users in the cache", cache::getSize);
+    }
+
+    static void bind(MetricsRegistry registry, BatchingUserRepository<?> repository) {
+        registry.counter("user_find_batches_total", "Lookups of batched findById calls", repository::getBatchCount);
+        registry.counter("user_find_batched_calls_total", "findById calls served by a batched lookup", repository::getBatchedCallCount);
+    }
+
+    static void bind(MetricsRegistry registry, ShardedUserRepository<?> repository) {
+        registry.register(writer -> {
+            writer.family("user_shard_up", "gauge", "Whether a shard is taking new users, 0 after repeated failures");
+            for (var shard : repository.getShards()) {
+                writer.sample("user_shard_up", shardLabel(shard), shard.isUp() ? 1 : 0);
+            }
+            writer.family("user_shard_operation_seconds", "summary", "Latency of the calls to a shard, failed calls included");
+            for (var shard : repository.getShards()) {
+                writer.summary("user_shard_operation_seconds", shardLabel(shard), shard.getLatencyNanos(), 1e9);
+            }
+            writer.family("user_shard_errors_total", "counter", "Failed calls to a shard");
+            for (var shard : repository.getShards()) {
+                writer.sample("user_shard_errors_total", shardLabel(shard), shard.getErrorCount());
+            }
+            writer.family("user_shard_created_total", "counter", "Users created on a shard");
+            for (var shard : repository.getShards()) {
+                writer.sample("user_shard_created_total", shardLabel(shard), shard.getCreatedCount());
+            }
+        });
+    }
+
+    private static String shardLabel(ShardedUserRepository.Shard<?> shard) {
+        return label("shard", Integer.toString(shard.getIndex()));
+    }
+
+    static void bind(MetricsRegistry registry, UserMmapRepository repository) {
+        registry.gauge("mmap_users", "Users in the memory-mapped store", repository::getUserCount);
+        registry.gauge("mmap_garbage_records", "Dead records waiting for compaction", repository::getGarbageCount);
+        registry.gauge("mmap_log_bytes", "Size of the user log", repository::getLogSize);
+        registry.counter("mmap_compactions_total", "Completed log compactions", repository::getCompactionCount);
+        registry.counter("mmap_failed_maintenance_total", "Checkpoints or compactions that failed", repository::getFailedMaintenanceCount);
+    }
+}
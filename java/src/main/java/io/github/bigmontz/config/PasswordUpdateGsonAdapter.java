@@ -0,0 +1,45 @@
+package io.github.bigmontz.config;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.bigmontz.repository.PasswordUpdate;
+
+import java.io.IOException;
+
+// body of PUT /user/{id}/password, its fields are camel case unlike the rest of the API
+public class PasswordUpdateGsonAdapter extends TypeAdapter<PasswordUpdate> {
+
+    @Override
+    public void write(JsonWriter out, PasswordUpdate passwordUpdate) throws IOException {
+        if (passwordUpdate == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("password").value(passwordUpdate.getPassword());
+        out.name("newPassword").value(passwordUpdate.getNewPassword());
+        out.endObject();
+    }
+
+    @Override
+    public PasswordUpdate read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String password = null;
+        String newPassword = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "password" -> password = UserGsonAdapter.readString(in);
+                case "newPassword" -> newPassword = UserGsonAdapter.readString(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new PasswordUpdate(password, newPassword);
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.bigmontz.config;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.bigmontz.repository.User;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+/**
+ * Streams users without going through reflection, with the same output as the reflective adapter: fields in
+ * declaration order, named after the lower case with underscores policy, null fields omitted.
+ */
+public class UserGsonAdapter extends TypeAdapter<User> {
+
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+        if (user == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        writeId(out.name("id"), user.getId());
+        out.name("username").value(user.getUsername());
+        out.name("name").value(user.getName());
+        out.name("age").value(user.getAge());
+        out.name("surname").value(user.getSurname());
+        out.name("password").value(user.getPassword());
+        out.name("created_at").value(format(user.getCreatedAt()));
+        out.name("updated_at").value(format(user.getUpdatedAt()));
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Object id = null;
+        String username = null;
+        String name = null;
+        int age = 0;
+        String surname = null;
+        String password = null;
+        ZonedDateTime createdAt = null;
+        ZonedDateTime updatedAt = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id" -> id = readId(in);
+                case "username" -> username = readString(in);
+                case "name" -> name = readString(in);
+                case "age" -> age = readAge(in, age);
+                case "surname" -> surname = readString(in);
+                case "password" -> password = readString(in);
+                case "created_at" -> createdAt = readTimestamp(in);
+                case "updated_at" -> updatedAt = readTimestamp(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new User(id, username, name, age, surname, password, createdAt, updatedAt);
+    }
+
+    // IDs are longs or strings depending on the backend
+    private static void writeId(JsonWriter out, Object id) throws IOException {
+        if (id == null) {
+            out.nullValue();
+        } else if (id instanceof Number number) {
+            out.value(number);
+        } else {
+            out.value(id.toString());
+        }
+    }
+
+    // mirrors Gson's Object adapter: numbers are read as doubles, nested values are kept as a tree
+    private static Object readId(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            case NUMBER -> in.nextDouble();
+            case STRING -> in.nextString();
+            case BOOLEAN -> in.nextBoolean();
+            default -> JsonParser.parseReader(in);
+        };
+    }
+
+    static String readString(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            case BOOLEAN -> Boolean.toString(in.nextBoolean());
+            default -> in.nextString();
+        };
+    }
+
+    // a null age leaves the primitive field as it was, like the reflective adapter does
+    private static int readAge(JsonReader in, int current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static ZonedDateTime readTimestamp(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return IsoDateTimeCodec.parse(in.nextString());
+    }
+
+    private static String format(ZonedDateTime timestamp) {
+        return timestamp == null ? null : IsoDateTimeCodec.format(timestamp);
+    }
+}
@@ -1,28 +1,27 @@
 package io.github.bigmontz.config;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 
 // needed since Gson reflection on ZonedDateTime breaks java.time module boundaries
-public class ZonedDateTimeGsonAdapter implements JsonSerializer<ZonedDateTime>, JsonDeserializer<ZonedDateTime> {
+public class ZonedDateTimeGsonAdapter extends TypeAdapter<ZonedDateTime> {
 
     @Override
-    public ZonedDateTime deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-        String value = jsonElement.getAsString();
-        return ZonedDateTime.parse(value);
+    public void write(JsonWriter out, ZonedDateTime value) throws IOException {
+        out.value(value == null ? null : IsoDateTimeCodec.format(value));
     }
 
     @Override
-    public JsonElement serialize(ZonedDateTime value, Type type, JsonSerializationContext jsonSerializationContext) {
-        return new JsonPrimitive(value.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    public ZonedDateTime read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return IsoDateTimeCodec.parse(in.nextString());
     }
-}
\ No newline at end of file
+}
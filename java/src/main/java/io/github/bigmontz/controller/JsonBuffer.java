@@ -0,0 +1,69 @@
+package io.github.bigmontz.controller;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// pooled UTF-8 buffer responses are serialized into once, so their exact length is known without re-encoding
+class JsonBuffer extends ByteArrayOutputStream {
+
+    // do not keep the occasional huge response (e.g. a batch) around forever
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    // shared rather than per thread: with HTTP_EXECUTOR=virtual every request runs on a thread of its own, which
+    // would allocate a buffer and an encoder each
+    private static final ArrayBlockingQueue<JsonBuffer> POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private final Writer writer = new OutputStreamWriter(this, UTF_8);
+
+    private JsonBuffer() {
+        super(1024);
+    }
+
+    /**
+     * Serializes the given value into a pooled buffer, which must not be used anymore once released.
+     * A buffer whose serialization fails is not pooled again: its writer may still hold part of the value.
+     */
+    static JsonBuffer serialize(Gson gson, Object value) {
+        JsonBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            buffer = new JsonBuffer();
+        }
+        try {
+            gson.toJson(value, buffer.writer);
+            buffer.writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    static byte[] toBytes(Gson gson, Object value) {
+        JsonBuffer buffer = serialize(gson, value);
+        try {
+            return buffer.toByteArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    void sendTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    void release() {
+        if (buf.length <= MAX_RETAINED_CAPACITY) {
+            reset();
+            POOL.offer(this);
+        }
+    }
+}
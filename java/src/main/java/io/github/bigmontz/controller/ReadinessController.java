@@ -0,0 +1,37 @@
+package io.github.bigmontz.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import io.github.bigmontz.startup.Startup;
+
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// readiness probe: 200 once warmed up and done initialising, 503 before, or for good if initialisation failed
+public class ReadinessController {
+
+    private final Startup startup;
+
+    public ReadinessController(Startup startup) {
+        this.startup = startup;
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        String message = switch (startup.getState()) {
+            case STARTING -> "starting";
+            case READY -> "ready";
+            case FAILED -> "startup failed: " + startup.getFailure();
+        };
+        byte[] body = message.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain;charset=utf-8");
+        exchange.sendResponseHeaders(startup.getState() == Startup.State.READY ? 200 : 503, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
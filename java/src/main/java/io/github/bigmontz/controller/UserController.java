@@ -1,99 +1,662 @@
 package io.github.bigmontz.controller;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.sun.net.httpserver.HttpExchange;
+import io.github.bigmontz.limit.AdmissionControl;
+import io.github.bigmontz.limit.AdmissionControl.Permit;
+import io.github.bigmontz.limit.AdmissionControl.Priority;
+import io.github.bigmontz.metrics.HttpMetrics;
+import io.github.bigmontz.repository.AsyncUserRepository;
+import io.github.bigmontz.repository.Consistency;
 import io.github.bigmontz.repository.PasswordUpdate;
 import io.github.bigmontz.repository.User;
+import io.github.bigmontz.repository.UserField;
 import io.github.bigmontz.repository.UserRepository;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class UserController {
 
+    private static final int MAX_BATCH_SIZE = 1_000;
+
+    // exported users are written out in chunks of about this size
+    private static final int EXPORT_CHUNK_SIZE = 64 * 1024;
+
+    // sent back after writes, for the client's next reads to observe them even when served by a replica
+    private static final String CONSISTENCY_TOKEN = "Consistency-Token";
+
     @SuppressWarnings("rawtypes") // 🙈
     private final UserRepository userRepository;
 
+    // optional: when set, single-user operations complete their exchange from the repository's completion callback
+    @SuppressWarnings("rawtypes")
+    private final AsyncUserRepository asyncUserRepository;
+
     private final Gson gson;
 
+    private final HttpMetrics<Endpoint> httpMetrics;
+
+    private final AdmissionControl admissionControl;
+
+    // runs exports, which stream for as long as the client takes to read them
+    private final Executor exportExecutor;
+
+    // single instance so that caching repositories can memoize the serialized user
+    private final Function<User, UserJson> userJson;
+
     public UserController(UserRepository<?> userRepository, Gson gson) {
+        this(userRepository, null, gson, new HttpMetrics<>(Endpoint.class), new AdmissionControl(Map.of(), 1), Runnable::run);
+    }
+
+    public UserController(UserRepository<?> userRepository, AsyncUserRepository<?> asyncUserRepository, Gson gson, HttpMetrics<Endpoint> httpMetrics, AdmissionControl admissionControl, Executor exportExecutor) {
         this.userRepository = userRepository;
+        this.asyncUserRepository = asyncUserRepository;
         this.gson = gson;
+        this.httpMetrics = httpMetrics;
+        this.admissionControl = admissionControl;
+        this.exportExecutor = exportExecutor;
+        this.userJson = user -> new UserJson(JsonBuffer.toBytes(gson, user), user.getUpdatedAt());
+    }
+
+    public enum Endpoint {
+        CREATE("/user"),
+        RETRIEVE("/user/{id}"),
+        UPDATE_PASSWORD("/user/{id}/password"),
+        BATCH("/user/batch"),
+        EXPORT("/user/export"),
+        UNSUPPORTED("unsupported");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
     }
 
     public void handle(HttpExchange exchange) throws IOException {
-        var requestMethod = exchange.getRequestMethod();
-        switch (requestMethod) {
-            case "POST" -> createUser(exchange);
-            case "GET" -> retrieveUser(exchange);
-            case "PUT" -> updateUserPassword(exchange);
-            default -> exchange.sendResponseHeaders(405, 0);
+        long start = System.nanoTime();
+        var endpoint = endpointOf(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+        var permit = admissionControl.tryAcquire(priorityOf(endpoint));
+        if (permit == null) {
+            try {
+                writeOverloadedResponse(exchange);
+            } finally {
+                record(exchange, endpoint, start, null);
+            }
+            return;
+        }
+        boolean deferred = false;
+        var consistency = Consistency.of(exchange.getRequestHeaders().getFirst(CONSISTENCY_TOKEN));
+        try (var ignored = consistency.enter()) {
+            deferred = switch (endpoint) {
+                case CREATE -> createUser(exchange, start, permit);
+                case RETRIEVE -> retrieveUser(exchange, start, permit);
+                case UPDATE_PASSWORD -> updateUserPassword(exchange, start, permit);
+                case BATCH -> {
+                    batchUsers(exchange);
+                    yield false;
+                }
+                case EXPORT -> exportUsers(exchange, start, permit);
+                case UNSUPPORTED -> {
+                    exchange.sendResponseHeaders(405, -1);
+                    exchange.close();
+                    yield false;
+                }
+            };
+        } finally {
+            // deferred responses are recorded once written, see respondLater
+            if (!deferred) {
+                record(exchange, endpoint, start, permit);
+            }
+        }
+    }
+
+    static Endpoint endpointOf(String method, String path) {
+        return switch (method) {
+            case "POST" -> path.equals("/user/batch") ? Endpoint.BATCH : Endpoint.CREATE;
+            case "GET" -> path.equals("/user/export") ? Endpoint.EXPORT : Endpoint.RETRIEVE;
+            case "PUT" -> Endpoint.UPDATE_PASSWORD;
+            default -> Endpoint.UNSUPPORTED;
+        };
+    }
+
+    // requests that are never shed, such as unsupported ones, have no priority. Exports would hold a permit for
+    // minutes, and skew the latency the limits adapt to
+    private static Priority priorityOf(Endpoint endpoint) {
+        return switch (endpoint) {
+            case RETRIEVE -> Priority.READ;
+            // batches may read too, but cost like writes
+            case CREATE, UPDATE_PASSWORD, BATCH -> Priority.WRITE;
+            case EXPORT, UNSUPPORTED -> null;
+        };
+    }
+
+    // permit: null for shed requests
+    private void record(HttpExchange exchange, Endpoint endpoint, long start, Permit permit) {
+        // -1: the handler failed before responding, the server drops the connection
+        int status = exchange.getResponseCode() == -1 ? 500 : exchange.getResponseCode();
+        if (permit != null) {
+            permit.release(status >= 500);
         }
+        httpMetrics.record(endpoint, exchange.getRequestMethod(), status, System.nanoTime() - start);
     }
 
-    private void createUser(HttpExchange exchange) throws IOException {
-        try (Reader body = new InputStreamReader(exchange.getRequestBody())) {
+    // returns true when the response is written later, from the async repository's completion
+    private boolean createUser(HttpExchange exchange, long start, Permit permit) throws IOException {
+        try (Reader body = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
             var user = gson.fromJson(body, User.class);
             if (user.getId() != null) {
                 writeErrorResponse(exchange, 400, "ID of user should be set during creation");
-                return;
+                return false;
+            }
+            if (asyncUserRepository != null) {
+                @SuppressWarnings("unchecked")
+                CompletionStage<User> result = asyncUserRepository.createAsync(user);
+                respondLater(exchange, Endpoint.CREATE, start, permit, result, (ex, created) -> writeOkResponse(ex, created));
+                return true;
             }
             User result = userRepository.create(user);
-            writeOkResponse(exchange, gson.toJson(result));
+            writeOkResponse(exchange, result);
+        } catch (RejectedExecutionException e) {
+            // e.g. the password hashing queue is full
+            writeOverloadedResponse(exchange);
+        } catch (IllegalArgumentException e) {
+            // e.g. a field missing or too long for the backend
+            writeErrorResponse(exchange, 400, e.getMessage());
         } catch (Exception e) {
             writeErrorResponse(exchange, 500, e.toString());
         }
+        return false;
     }
 
-    private void retrieveUser(HttpExchange exchange) throws IOException {
-        var rawId = exchange.getRequestURI().getPath().replaceFirst("/user/", "");
-        Optional<User> result = userRepository.findById(userRepository.parseId(rawId));
+    private boolean retrieveUser(HttpExchange exchange, long start, Permit permit) throws IOException {
+        var rawId = rawUserId(exchange.getRequestURI().getPath());
+        var rawFields = queryParameter(exchange, "fields");
+        if (rawFields.isPresent()) {
+            return retrievePartialUser(exchange, start, permit, rawId, rawFields.get());
+        }
+        if (asyncUserRepository != null) {
+            retrieveUserAsync(exchange, start, permit, rawId);
+            return true;
+        }
+        var userId = userRepository.parseId(rawId);
+        String printedId = userRepository.printId(userId);
+        // polling clients mostly get a 304, answered from updated_at alone
+        if (UserVersion.isConditional(exchange.getRequestHeaders())) {
+            @SuppressWarnings("unchecked")
+            Optional<ZonedDateTime> updatedAt = userRepository.findUpdatedAt(userId);
+            if (updatedAt.isEmpty()) {
+                writeErrorResponse(exchange, 404, "no user found");
+                return false;
+            }
+            var version = UserVersion.of(printedId, updatedAt.get());
+            if (version.isNotModified(exchange.getRequestHeaders())) {
+                writeNotModifiedResponse(exchange, version);
+                return false;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        Optional<UserJson> result = userRepository.findById(userId, userJson);
         if (result.isEmpty()) {
+            writeErrorResponse(exchange, 404, "no user found");
+            return false;
+        }
+        addVersion(exchange, printedId, result.get().updatedAt());
+        writeOkResponse(exchange, result.get().json());
+        return false;
+    }
+
+    // same as the blocking flavour, with the conditional check chained on the updated_at lookup
+    @SuppressWarnings("unchecked")
+    private void retrieveUserAsync(HttpExchange exchange, long start, Permit permit, String rawId) {
+        Object userId = asyncUserRepository.parseId(rawId);
+        String printedId = asyncUserRepository.printId(userId);
+        CompletionStage<Retrieval> result;
+        if (UserVersion.isConditional(exchange.getRequestHeaders())) {
+            Consistency consistency = Consistency.current();
+            CompletionStage<Optional<ZonedDateTime>> updatedAt = asyncUserRepository.findUpdatedAtAsync(userId);
+            result = updatedAt.thenCompose(found -> {
+                if (found.isEmpty()) {
+                    return CompletableFuture.completedFuture(new Retrieval(null, Optional.empty()));
+                }
+                var version = UserVersion.of(printedId, found.get());
+                if (version.isNotModified(exchange.getRequestHeaders())) {
+                    return CompletableFuture.completedFuture(new Retrieval(version, Optional.empty()));
+                }
+                // the lookup starts from the driver's thread, with the consistency of the request
+                try (var ignored = consistency.enter()) {
+                    return ((CompletionStage<Optional<User>>) asyncUserRepository.findByIdAsync(userId)).thenApply(user -> new Retrieval(null, user));
+                }
+            });
+        } else {
+            result = ((CompletionStage<Optional<User>>) asyncUserRepository.findByIdAsync(userId)).thenApply(user -> new Retrieval(null, user));
+        }
+        respondLater(exchange, Endpoint.RETRIEVE, start, permit, result, (ex, retrieval) -> {
+            if (retrieval.notModified() != null) {
+                writeNotModifiedResponse(ex, retrieval.notModified());
+                return;
+            }
+            if (retrieval.user().isEmpty()) {
+                writeErrorResponse(ex, 404, "no user found");
+                return;
+            }
+            addVersion(ex, printedId, retrieval.user().get().getUpdatedAt());
+            writeOkResponse(ex, retrieval.user().get());
+        });
+    }
+
+    private static void addVersion(HttpExchange exchange, String printedId, ZonedDateTime updatedAt) {
+        if (updatedAt != null) {
+            UserVersion.of(printedId, updatedAt).addTo(exchange.getResponseHeaders());
+        }
+    }
+
+    private boolean retrievePartialUser(HttpExchange exchange, long start, Permit permit, String rawId, String rawFields) throws IOException {
+        Set<UserField> fields;
+        try {
+            fields = UserField.parse(rawFields);
+        } catch (IllegalArgumentException e) {
+            writeErrorResponse(exchange, 400, e.getMessage());
+            return false;
+        }
+        if (asyncUserRepository != null) {
+            @SuppressWarnings("unchecked")
+            CompletionStage<Optional<User>> result = asyncUserRepository.findByIdAsync(asyncUserRepository.parseId(rawId), fields);
+            respondLater(exchange, Endpoint.RETRIEVE, start, permit, result, (ex, user) -> writePartialUser(ex, fields, user));
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Optional<User> result = userRepository.findById(userRepository.parseId(rawId), fields);
+        writePartialUser(exchange, fields, result);
+        return false;
+    }
+
+    private void writePartialUser(HttpExchange exchange, Set<UserField> fields, Optional<User> user) throws IOException {
+        if (user.isEmpty()) {
             writeErrorResponse(exchange, 404, "no user found");
             return;
         }
-        writeOkResponse(exchange, gson.toJson(result.get()));
+        var projection = new LinkedHashMap<String, Object>();
+        for (UserField field : fields) {
+            projection.put(field.getName(), field.valueOf(user.get()));
+        }
+        writeOkResponse(exchange, projection);
     }
 
-    private void updateUserPassword(HttpExchange exchange) throws IOException {
+    private boolean updateUserPassword(HttpExchange exchange, long start, Permit permit) throws IOException {
         var requestedPath = exchange.getRequestURI().getPath();
         if (!requestedPath.endsWith("/password")) {
             writeErrorResponse(exchange, 404, "");
-            return;
+            return false;
         }
-        var rawId = requestedPath.replaceFirst("/user/", "").replaceFirst("/password", "");
+        var rawId = rawPasswordUserId(requestedPath);
         var userId = userRepository.parseId(rawId);
-        try (Reader body = new InputStreamReader(exchange.getRequestBody())) {
-            var passwordUpdate = new PasswordUpdate(gson.fromJson(body, new TypeToken<Map<String, String>>() {}.getType())); // hacky/lazy since I don't want to customize the global field naming case policy
+        try (Reader body = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
+            var passwordUpdate = gson.fromJson(body, PasswordUpdate.class);
+            if (asyncUserRepository != null) {
+                @SuppressWarnings("unchecked")
+                CompletionStage<Boolean> result = asyncUserRepository.updatePasswordAsync(userId, passwordUpdate);
+                respondLater(exchange, Endpoint.UPDATE_PASSWORD, start, permit, result, (ex, updated) -> {
+                    if (!updated) {
+                        writeErrorResponse(ex, 404, "no user found");
+                        return;
+                    }
+                    writeOkResponse(ex, Map.of("id", asyncUserRepository.printId(userId)));
+                });
+                return true;
+            }
             if (!userRepository.updatePassword(userId, passwordUpdate)) {
                 writeErrorResponse(exchange, 404, "no user found");
+                return false;
+            }
+            writeOkResponse(exchange, Map.of("id", userRepository.printId(userId)));
+            return false;
+        } catch (RejectedExecutionException e) {
+            writeOverloadedResponse(exchange);
+            return false;
+        } catch (IllegalArgumentException e) {
+            writeErrorResponse(exchange, 400, e.getMessage());
+            return false;
+        }
+    }
+
+    private void batchUsers(HttpExchange exchange) throws IOException {
+        try (Reader body = new InputStreamReader(exchange.getRequestBody(), UTF_8)) {
+            JsonArray operations = gson.fromJson(body, JsonArray.class);
+            if (operations == null) {
+                writeErrorResponse(exchange, 400, "expected a JSON array of operations");
                 return;
             }
-            writeOkResponse(exchange, gson.toJson(Map.of("id", userRepository.printId(userId))));
+            if (operations.size() > MAX_BATCH_SIZE) {
+                writeErrorResponse(exchange, 400, String.format("batch exceeds %d operations", MAX_BATCH_SIZE));
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> results = executeBatch(userRepository, operations);
+            writeOkResponse(exchange, results);
+        } catch (JsonParseException e) {
+            writeErrorResponse(exchange, 400, e.toString());
+        } catch (RejectedExecutionException e) {
+            writeOverloadedResponse(exchange);
+        } catch (Exception e) {
+            writeErrorResponse(exchange, 500, e.toString());
         }
     }
 
+    /**
+     * Streams all users as NDJSON, in ID order: a client cut off resumes from the last user it got, with
+     * ?after={id}.
+     * Exports run on their own threads, where writes wait for the client to keep up, rather than on the server's.
+     * The status is only sent along with the first users, failures before them get a 500. Failures past that point
+     * end the stream with an {"error": ...} line.
+     *
+     * @return true when the export runs, in which case it records itself once done
+     */
+    private boolean exportUsers(HttpExchange exchange, long start, Permit permit) throws IOException {
+        Object afterId;
+        try {
+            afterId = queryParameter(exchange, "after").map(userRepository::parseId).orElse(null);
+        } catch (IllegalArgumentException e) {
+            writeErrorResponse(exchange, 400, e.toString());
+            return false;
+        }
+        try {
+            exportExecutor.execute(() -> {
+                try {
+                    exportUsers(exchange, afterId);
+                } catch (IOException | UncheckedIOException e) {
+                    // the client went away
+                    exchange.close();
+                } finally {
+                    record(exchange, Endpoint.EXPORT, start, permit);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            writeOverloadedResponse(exchange);
+            return false;
+        }
+    }
+
+    private void exportUsers(HttpExchange exchange, Object afterId) throws IOException {
+        var export = new UserExport(exchange);
+        try {
+            @SuppressWarnings("unchecked")
+            UserRepository<Object> repository = userRepository;
+            repository.exportAll(afterId, export);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (export.out == null) {
+                writeErrorResponse(exchange, 500, e.toString());
+                return;
+            }
+            export.accept(Map.of("error", e.toString()));
+        }
+        export.finish();
+    }
+
+    // writes users to the response body as they come out of the repository's cursor
+    private final class UserExport implements Consumer<Object> {
+
+        private final HttpExchange exchange;
+        private OutputStream out;
+
+        private UserExport(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void accept(Object line) {
+            JsonBuffer json = JsonBuffer.serialize(gson, line);
+            try {
+                if (out == null) {
+                    start();
+                }
+                json.sendTo(out);
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                json.release();
+            }
+        }
+
+        private void start() throws IOException {
+            exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            out = new BufferedOutputStream(exchange.getResponseBody(), EXPORT_CHUNK_SIZE);
+        }
+
+        private void finish() throws IOException {
+            if (out == null) {
+                start();
+            }
+            out.close();
+        }
+    }
+
+    // creations run first, then password updates, then reads, so that reads observe the writes of the same batch
+    private <ID> List<Map<String, Object>> executeBatch(UserRepository<ID> repository, JsonArray operations) {
+        var results = new ArrayList<Map<String, Object>>(Collections.nCopies(operations.size(), null));
+        var creations = new ArrayList<User>();
+        var creationIndexes = new ArrayList<Integer>();
+        var passwordUpdates = new LinkedHashMap<ID, PasswordUpdate>();
+        var passwordUpdateIndexes = new HashMap<ID, Integer>();
+        var reads = new LinkedHashMap<Integer, ID>();
+        for (int i = 0; i < operations.size(); i++) {
+            if (!operations.get(i).isJsonObject()) {
+                results.set(i, batchError(400, "operation should be a JSON object"));
+                continue;
+            }
+            JsonObject operation = operations.get(i).getAsJsonObject();
+            try {
+                switch (stringField(operation, "op")) {
+                    case "create" -> {
+                        var user = gson.fromJson(operation.get("user"), User.class);
+                        if (user == null || user.getId() != null) {
+                            results.set(i, batchError(400, "user without ID expected for creation"));
+                            continue;
+                        }
+                        creations.add(user);
+                        creationIndexes.add(i);
+                    }
+                    case "get" -> reads.put(i, repository.parseId(stringField(operation, "id")));
+                    case "update_password" -> {
+                        var userId = repository.parseId(stringField(operation, "id"));
+                        if (passwordUpdates.containsKey(userId)) {
+                            results.set(i, batchError(400, "duplicate password update for the same user"));
+                            continue;
+                        }
+                        passwordUpdates.put(userId, new PasswordUpdate(stringField(operation, "password"), stringField(operation, "newPassword")));
+                        passwordUpdateIndexes.put(userId, i);
+                    }
+                    default -> results.set(i, batchError(400, "unsupported operation, expected one of create, get, update_password"));
+                }
+            } catch (IllegalArgumentException | JsonParseException e) {
+                results.set(i, batchError(400, e.toString()));
+            }
+        }
+
+        List<User> created = repository.createAll(creations);
+        for (int i = 0; i < created.size(); i++) {
+            results.set(creationIndexes.get(i), batchOk(created.get(i)));
+        }
+        Set<ID> updated = repository.updatePasswords(passwordUpdates);
+        passwordUpdateIndexes.forEach((userId, index) -> results.set(index, updated.contains(userId)
+                ? batchOk(Map.of("id", repository.printId(userId)))
+                : batchError(404, "no user found")));
+        Map<ID, User> found = repository.findAllById(new HashSet<>(reads.values()));
+        reads.forEach((index, userId) -> {
+            User user = found.get(userId);
+            results.set(index, user != null ? batchOk(user) : batchError(404, "no user found"));
+        });
+        return results;
+    }
+
+    // callbacks run on the common pool rather than on the driver's I/O threads, since writing the response may block
+    private <T> void respondLater(HttpExchange exchange, Endpoint endpoint, long start, Permit permit, CompletionStage<T> result, ResponseWriter<T> responseWriter) {
+        Consistency consistency = Consistency.current();
+        result.whenCompleteAsync((value, error) -> {
+            try (var ignored = consistency.enter()) {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof RejectedExecutionException) {
+                        writeOverloadedResponse(exchange);
+                        return;
+                    }
+                    // rejected input, as on the blocking paths
+                    if (cause instanceof IllegalArgumentException) {
+                        writeErrorResponse(exchange, 400, cause.getMessage());
+                        return;
+                    }
+                    writeErrorResponse(exchange, 500, cause.toString());
+                    return;
+                }
+                responseWriter.write(exchange, value);
+            } catch (IOException e) {
+                exchange.close();
+            } finally {
+                record(exchange, endpoint, start, permit);
+            }
+        });
+    }
+
+    // serialized user, along with what its validators are derived from
+    private record UserJson(byte[] json, ZonedDateTime updatedAt) {
+    }
+
+    // either the version the client already has, or the user looked up
+    private record Retrieval(UserVersion notModified, Optional<User> user) {
+    }
+
+    @FunctionalInterface
+    private interface ResponseWriter<T> {
+        void write(HttpExchange exchange, T value) throws IOException;
+    }
+
+    // e.g. /user/42
+    static String rawUserId(String path) {
+        return path.replaceFirst("/user/", "");
+    }
+
+    // e.g. /user/42/password
+    static String rawPasswordUserId(String path) {
+        return path.replaceFirst("/user/", "").replaceFirst("/password", "");
+    }
+
+    private static Optional<String> queryParameter(HttpExchange exchange, String name) {
+        var rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null) {
+            return Optional.empty();
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return Optional.of(URLDecoder.decode(parameter.substring(separator + 1), UTF_8));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static String stringField(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        if (value == null || !value.isJsonPrimitive()) {
+            throw new IllegalArgumentException(String.format("missing string field %s", name));
+        }
+        return value.getAsString();
+    }
+
+    private static Map<String, Object> batchOk(Object body) {
+        return Map.of("status", 200, "body", body);
+    }
+
+    private static Map<String, Object> batchError(int statusCode, String errorMsg) {
+        return Map.of("status", statusCode, "error", errorMsg);
+    }
+
     private void writeErrorResponse(HttpExchange exchange, int statusCode, String errorMsg) throws IOException {
+        byte[] body = errorMsg.getBytes(UTF_8);
         exchange.getResponseHeaders().add("Content-Type", "text/plain;charset=utf-8");
-        exchange.sendResponseHeaders(statusCode, errorMsg.getBytes(UTF_8).length);
-        try (var writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody()))) {
-            writer.write(errorMsg);
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // shed rather than queued, for the client to back off instead of timing out
+    private void writeOverloadedResponse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", Integer.toString(admissionControl.getRetryAfterSeconds()));
+        writeErrorResponse(exchange, 503, "overloaded, retry later");
+    }
+
+    private void writeNotModifiedResponse(HttpExchange exchange, UserVersion version) throws IOException {
+        version.addTo(exchange.getResponseHeaders());
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+    }
+
+    private static void addConsistencyToken(HttpExchange exchange) {
+        String token = Consistency.current().getObserved();
+        if (token != null) {
+            exchange.getResponseHeaders().set(CONSISTENCY_TOKEN, token);
+        }
+    }
+
+    private void writeOkResponse(HttpExchange exchange, Object body) throws IOException {
+        JsonBuffer json = JsonBuffer.serialize(gson, body);
+        try {
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+            addConsistencyToken(exchange);
+            exchange.sendResponseHeaders(200, json.size());
+            try (var out = exchange.getResponseBody()) {
+                json.sendTo(out);
+            }
+        } finally {
+            json.release();
         }
     }
 
-    private void writeOkResponse(HttpExchange exchange, String json) throws IOException {
+    private void writeOkResponse(HttpExchange exchange, byte[] json) throws IOException {
         exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
-        exchange.sendResponseHeaders(200, json.getBytes(UTF_8).length);
-        try (var writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody()))) {
-            writer.write(json);
+        addConsistencyToken(exchange);
+        exchange.sendResponseHeaders(200, json.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(json);
         }
     }
 }
@@ -0,0 +1,82 @@
+package io.github.bigmontz.controller;
+
+import com.sun.net.httpserver.Headers;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+// validators of a user's JSON representation, which only changes when its updated_at does
+class UserVersion {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final String entityTag;
+    private final Instant lastModified;
+
+    private UserVersion(String entityTag, Instant lastModified) {
+        this.entityTag = entityTag;
+        this.lastModified = lastModified;
+    }
+
+    static UserVersion of(String printedId, ZonedDateTime updatedAt) {
+        Instant instant = updatedAt.toInstant();
+        String version = Long.toHexString(instant.getEpochSecond()) + "." + Integer.toHexString(instant.getNano());
+        return new UserVersion("\"" + printedId + "-" + version + "\"", instant);
+    }
+
+    static boolean isConditional(Headers requestHeaders) {
+        return requestHeaders.containsKey("If-None-Match") || requestHeaders.containsKey("If-Modified-Since");
+    }
+
+    void addTo(Headers responseHeaders) {
+        responseHeaders.set("ETag", entityTag);
+        responseHeaders.set("Last-Modified", HTTP_DATE.format(lastModified));
+    }
+
+    /**
+     * If-Modified-Since is only looked at when there is no If-None-Match, see RFC 9110 section 13.2.2.
+     *
+     * @return true if the client's copy is current and a 304 can be sent instead of the user
+     */
+    boolean isNotModified(Headers requestHeaders) {
+        List<String> ifNoneMatch = requestHeaders.get("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String value : ifNoneMatch) {
+                for (String candidate : value.split(",")) {
+                    if (matches(candidate.trim())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            Instant since = Instant.from(HTTP_DATE.parse(ifModifiedSince));
+            // HTTP dates only have a one second resolution
+            return !lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+        } catch (DateTimeParseException e) {
+            // invalid dates are ignored
+            return false;
+        }
+    }
+
+    // weak comparison, as required for If-None-Match
+    private boolean matches(String candidate) {
+        if (candidate.equals("*")) {
+            return true;
+        }
+        if (candidate.startsWith("W/")) {
+            candidate = candidate.substring(2);
+        }
+        return candidate.equals(entityTag);
+    }
+}
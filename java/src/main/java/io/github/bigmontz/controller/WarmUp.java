@@ -0,0 +1,97 @@
+package io.github.bigmontz.controller;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.Headers;
+import io.github.bigmontz.config.Env;
+import io.github.bigmontz.repository.PasswordUpdate;
+import io.github.bigmontz.repository.User;
+import io.github.bigmontz.repository.UserField;
+
+import java.io.StringReader;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs the request paths that do not touch the backend, i.e. routing and the JSON mapping of users, enough times for
+ * them to be compiled before the first request instead of during the first seconds of traffic.
+ */
+public class WarmUp {
+
+    private static final String CREATION = """
+            {"username":"warm-up","name":"Warm","age":33,"surname":"Up","password":"s3cr3t!"}""";
+    private static final String PASSWORD_UPDATE = """
+            {"password":"s3cr3t!","newPassword":"n3w-s3cr3t!"}""";
+    private static final String BATCH = """
+            [{"op":"create","user":%s},{"op":"get","id":"42"},{"op":"update_password","id":"42","password":"s3cr3t!","newPassword":"n3w-s3cr3t!"}]"""
+            .formatted(CREATION);
+    private static final ZonedDateTime UPDATED_AT = ZonedDateTime.of(2022, 1, 10, 18, 42, 17, 123_000_000, ZoneId.of("UTC"));
+
+    private final Gson gson;
+    private final int iterations;
+    // written so that the JIT cannot drop the work
+    private volatile long sink;
+
+    /**
+     * @param gson       the instance the controller serializes with, whose adapters are cached on first use
+     * @param iterations runs of every path, about 10 000 get them compiled by C2
+     */
+    public WarmUp(Gson gson, int iterations) {
+        this.gson = gson;
+        this.iterations = iterations;
+    }
+
+    public static WarmUp fromEnv(Gson gson) {
+        return new WarmUp(gson, Env.getOrDefault("STARTUP_WARMUP_ITERATIONS", 10_000, Integer::parseInt));
+    }
+
+    public void run() {
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += runOnce(i);
+        }
+        this.sink = sink;
+    }
+
+    private long runOnce(int i) {
+        long sink = 0;
+        sink += UserController.endpointOf("POST", "/user").ordinal();
+        sink += UserController.endpointOf("GET", "/user/42").ordinal();
+        sink += UserController.endpointOf("PUT", "/user/42/password").ordinal();
+        sink += UserController.rawUserId("/user/" + i).length();
+        sink += UserController.rawPasswordUserId("/user/" + i + "/password").length();
+
+        User created = gson.fromJson(new StringReader(CREATION), User.class);
+        var user = new User((long) i, created.getUsername(), created.getName(), created.getAge(), created.getSurname(),
+                created.getPassword(), UPDATED_AT, UPDATED_AT.plusNanos(i));
+        byte[] json = JsonBuffer.toBytes(gson, user);
+        sink += json.length;
+        sink += gson.fromJson(new StringReader(new String(json, UTF_8)), User.class).getAge();
+        sink += gson.fromJson(new StringReader(PASSWORD_UPDATE), PasswordUpdate.class).getNewPassword().length();
+
+        JsonArray batch = gson.fromJson(new StringReader(BATCH), JsonArray.class);
+        JsonObject creation = batch.get(0).getAsJsonObject();
+        sink += gson.fromJson(creation.get("user"), User.class).getUsername().length();
+        sink += JsonBuffer.toBytes(gson, List.of(Map.of("status", 200, "body", user), Map.of("status", 404, "error", "no user found"))).length;
+
+        var projection = new LinkedHashMap<String, Object>();
+        for (UserField field : UserField.parse("username,updated_at")) {
+            projection.put(field.getName(), field.valueOf(user));
+        }
+        sink += JsonBuffer.toBytes(gson, projection).length;
+
+        var version = UserVersion.of(Long.toString(i), user.getUpdatedAt());
+        var headers = new Headers();
+        version.addTo(headers);
+        var conditional = new Headers();
+        conditional.set("If-None-Match", headers.getFirst("ETag"));
+        sink += version.isNotModified(conditional) ? 1 : 0;
+        return sink;
+    }
+}
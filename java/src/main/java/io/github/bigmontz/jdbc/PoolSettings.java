@@ -0,0 +1,75 @@
+package io.github.bigmontz.jdbc;
+
+import io.github.bigmontz.config.Env;
+
+import java.time.Duration;
+
+public class PoolSettings {
+
+    private final int minSize;
+    private final int maxSize;
+    private final Duration acquireTimeout;
+    private final Duration idleTimeout;
+    private final Duration maxLifetime;
+    private final boolean validateOnBorrow;
+    private final Duration validationTimeout;
+
+    public PoolSettings(int minSize, int maxSize, Duration acquireTimeout, Duration idleTimeout, Duration maxLifetime, boolean validateOnBorrow, Duration validationTimeout) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException(String.format("invalid pool size bounds [%d, %d]", minSize, maxSize));
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeout = acquireTimeout;
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+        this.validateOnBorrow = validateOnBorrow;
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Reads the pool settings from the environment, e.g. POSTGRES_POOL_MAX_SIZE for the "POSTGRES" prefix.
+     *
+     * @param prefix the backend-specific envvar prefix
+     * @return the resolved settings
+     */
+    public static PoolSettings fromEnv(String prefix) {
+        return new PoolSettings(
+                Env.getOrDefault(prefix + "_POOL_MIN_SIZE", 2, Integer::parseInt),
+                Env.getOrDefault(prefix + "_POOL_MAX_SIZE", 16, Integer::parseInt),
+                Duration.ofMillis(Env.getOrDefault(prefix + "_POOL_ACQUIRE_TIMEOUT_MS", 5_000L, Long::parseLong)),
+                Duration.ofMillis(Env.getOrDefault(prefix + "_POOL_IDLE_TIMEOUT_MS", 600_000L, Long::parseLong)),
+                Duration.ofMillis(Env.getOrDefault(prefix + "_POOL_MAX_LIFETIME_MS", 1_800_000L, Long::parseLong)),
+                Env.getOrDefault(prefix + "_POOL_VALIDATE_ON_BORROW", true, Boolean::parseBoolean),
+                Duration.ofMillis(Env.getOrDefault(prefix + "_POOL_VALIDATION_TIMEOUT_MS", 1_000L, Long::parseLong))
+        );
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Duration getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public Duration getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    public Duration getValidationTimeout() {
+        return validationTimeout;
+    }
+}
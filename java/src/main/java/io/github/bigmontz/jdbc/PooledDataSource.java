@@ -0,0 +1,343 @@
+package io.github.bigmontz.jdbc;
+
+import io.github.bigmontz.metrics.Histogram;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// bounded pool in front of a plain (non-pooling) DataSource such as PGSimpleDataSource
+public class PooledDataSource implements DataSource, Closeable {
+
+    // a slot freed without a connection to show for it, e.g. after a failed open, wakes no borrower up
+    private static final long RESERVE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final DataSource delegate;
+    private final PoolSettings settings;
+    private final Semaphore leases;
+    // idle connections are reused LIFO so the least recently used ones are the first to be evicted
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Histogram acquireTimeNanos = new Histogram();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public PooledDataSource(DataSource delegate, PoolSettings settings) {
+        this.delegate = delegate;
+        this.settings = settings;
+        this.leases = new Semaphore(settings.getMaxSize(), true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = Math.max(1_000, Math.min(30_000, settings.getIdleTimeout().toMillis() / 2));
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        long start = System.nanoTime();
+        long deadline = start + settings.getAcquireTimeout().toNanos();
+        waiting.incrementAndGet();
+        try {
+            if (!leases.tryAcquire(settings.getAcquireTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(String.format("could not acquire a connection within %d ms (active: %d, max: %d)",
+                        settings.getAcquireTimeout().toMillis(), active.get(), settings.getMaxSize()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while acquiring a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        try {
+            PhysicalConnection connection = borrow(deadline);
+            active.incrementAndGet();
+            acquireTimeNanos.record(System.nanoTime() - start);
+            return lease(connection);
+        } catch (SQLException | RuntimeException e) {
+            leases.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("pooled connections are bound to the configured credentials");
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PhysicalConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    public Histogram getAcquireTimeNanos() {
+        return acquireTimeNanos;
+    }
+
+    private PhysicalConnection borrow(long deadline) throws SQLException {
+        while (true) {
+            PhysicalConnection connection = idle.pollFirst();
+            if (connection == null) {
+                if (reserve(settings.getMaxSize())) {
+                    return open();
+                }
+                // the housekeeper holds a slot while it opens a connection, which then joins the idle ones
+                connection = awaitIdle(deadline);
+                if (connection == null) {
+                    continue;
+                }
+            }
+            if (connection.isExpired(System.nanoTime()) || !isValid(connection)) {
+                discard(connection);
+                continue;
+            }
+            return connection;
+        }
+    }
+
+    private PhysicalConnection awaitIdle(long deadline) throws SQLException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new SQLTransientConnectionException(String.format("could not acquire a connection within %d ms (total: %d, max: %d)",
+                    settings.getAcquireTimeout().toMillis(), total.get(), settings.getMaxSize()));
+        }
+        try {
+            return idle.pollFirst(Math.min(remaining, RESERVE_RETRY_NANOS), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while acquiring a connection", e);
+        }
+    }
+
+    private boolean isValid(PhysicalConnection connection) {
+        if (!settings.isValidateOnBorrow()) {
+            return true;
+        }
+        try {
+            return connection.raw.isValid((int) Math.max(1, settings.getValidationTimeout().toSeconds()));
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection lease(PhysicalConnection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (released.compareAndSet(false, true)) {
+                                release(connection);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return released.get() || connection.raw.isClosed();
+                        }
+                        case "toString" -> {
+                            return "pooled " + connection.raw;
+                        }
+                        case "hashCode" -> {
+                            return System.identityHashCode(proxy);
+                        }
+                        case "equals" -> {
+                            return proxy == args[0];
+                        }
+                    }
+                    if (released.get()) {
+                        throw new SQLException("connection has already been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(connection.raw, args);
+                    } catch (InvocationTargetException e) {
+                        // SQL state class 08 = connection exception, do not hand that connection out again
+                        if (e.getCause() instanceof SQLException sqlException
+                                && sqlException.getSQLState() != null
+                                && sqlException.getSQLState().startsWith("08")) {
+                            connection.broken = true;
+                        }
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void release(PhysicalConnection connection) {
+        try {
+            if (closed || connection.broken || connection.isExpired(System.nanoTime()) || !reset(connection)) {
+                discard(connection);
+            } else {
+                connection.lastReleasedAt = System.nanoTime();
+                idle.offerFirst(connection);
+            }
+        } finally {
+            active.decrementAndGet();
+            leases.release();
+        }
+    }
+
+    private static boolean reset(PhysicalConnection connection) {
+        try {
+            if (connection.raw.isClosed()) {
+                return false;
+            }
+            if (!connection.raw.getAutoCommit()) {
+                connection.raw.rollback();
+                connection.raw.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void housekeep() {
+        long now = System.nanoTime();
+        Iterator<PhysicalConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            PhysicalConnection connection = oldestFirst.next();
+            boolean idleTooLong = now - connection.lastReleasedAt > settings.getIdleTimeout().toNanos()
+                    && total.get() > settings.getMinSize();
+            if ((idleTooLong || connection.isExpired(now)) && idle.remove(connection)) {
+                discard(connection);
+            }
+        }
+        while (!closed && reserve(settings.getMinSize())) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                // the database is unreachable for now, borrowers will report it
+                return;
+            }
+        }
+    }
+
+    private boolean reserve(int limit) {
+        int current;
+        do {
+            current = total.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!total.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        try {
+            return new PhysicalConnection(delegate.getConnection(), settings.getMaxLifetime().toNanos());
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void discard(PhysicalConnection connection) {
+        total.decrementAndGet();
+        try {
+            connection.raw.close();
+        } catch (SQLException ignored) {
+            // the connection is gone either way
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    private static class PhysicalConnection {
+        private final Connection raw;
+        private final long expiresAt;
+        private volatile long lastReleasedAt;
+        private volatile boolean broken;
+
+        PhysicalConnection(Connection raw, long maxLifetimeNanos) {
+            this.raw = raw;
+            long now = System.nanoTime();
+            this.expiresAt = now + maxLifetimeNanos;
+            this.lastReleasedAt = now;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
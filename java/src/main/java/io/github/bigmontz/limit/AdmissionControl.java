@@ -0,0 +1,84 @@
+package io.github.bigmontz.limit;
+
+import io.github.bigmontz.config.Env;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Fails requests fast once the backend is saturated, instead of letting them queue until clients time out.
+ * Reads and writes get their own adaptive limit, see ADMISSION_READ_* and ADMISSION_WRITE_*: slow writes do not shed
+ * reads and the other way around.
+ */
+public class AdmissionControl {
+
+    public enum Priority {
+        READ,
+        WRITE
+    }
+
+    private final Map<Priority, GradientLimit> limits;
+    private final int retryAfterSeconds;
+
+    /**
+     * @param settings          the settings of each limit, requests of priorities without any are always admitted
+     * @param retryAfterSeconds the delay shed requests are told to retry after
+     */
+    public AdmissionControl(Map<Priority, LimitSettings> settings, int retryAfterSeconds) {
+        var limits = new EnumMap<Priority, GradientLimit>(Priority.class);
+        settings.forEach((priority, prioritySettings) -> limits.put(priority, new GradientLimit(prioritySettings)));
+        this.limits = Collections.unmodifiableMap(limits);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public static AdmissionControl fromEnv() {
+        var settings = new EnumMap<Priority, LimitSettings>(Priority.class);
+        if (Env.getOrDefault("ADMISSION_CONTROL", true, Boolean::parseBoolean)) {
+            for (Priority priority : Priority.values()) {
+                settings.put(priority, LimitSettings.fromEnv("ADMISSION_" + priority.name()));
+            }
+        }
+        return new AdmissionControl(settings, Env.getOrDefault("ADMISSION_RETRY_AFTER_SECONDS", 1, Integer::parseInt));
+    }
+
+    /**
+     * @param priority the priority of the request, null for requests that are never shed
+     * @return the permit to release once the request completes, null if the request is to be shed
+     */
+    public Permit tryAcquire(Priority priority) {
+        GradientLimit limit = priority == null ? null : limits.get(priority);
+        if (limit != null && !limit.tryAcquire()) {
+            return null;
+        }
+        return new Permit(limit, System.nanoTime());
+    }
+
+    public Map<Priority, GradientLimit> getLimits() {
+        return limits;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public static final class Permit {
+
+        private final GradientLimit limit;
+        private final long start;
+
+        private Permit(GradientLimit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+
+        /**
+         * @param failed whether the request failed because of the backend, e.g. answered with a 500
+         */
+        public void release(boolean failed) {
+            if (limit != null) {
+                limit.release(System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
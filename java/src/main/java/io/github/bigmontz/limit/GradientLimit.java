@@ -0,0 +1,108 @@
+package io.github.bigmontz.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit adjusted from the latency of the calls it admits.
+ * Every window of calls, the window's average latency is compared to its long term average: the limit grows by about
+ * its square root while latency stays within tolerance, and shrinks in proportion to the slowdown otherwise, i.e.
+ * once calls queue up in the backend rather than run. Windows with failed calls cut the limit multiplicatively, as
+ * timeouts and errors say little about latency.
+ */
+public class GradientLimit {
+
+    // weight of the new estimate in the limit, damps oscillations
+    private static final double SMOOTHING = 0.2;
+    // windows the long term latency average spans
+    private static final int LONG_WINDOWS = 20;
+
+    private final LimitSettings settings;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private volatile int limit;
+
+    // guarded by this
+    private double estimatedLimit;
+    private double longLatencyNanos;
+    private long windowLatencyNanos;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowFailed;
+
+    public GradientLimit(LimitSettings settings) {
+        this.settings = settings;
+        this.limit = settings.getInitialLimit();
+        this.estimatedLimit = settings.getInitialLimit();
+    }
+
+    /**
+     * @return true if the call is admitted, in which case {@link #release(long, boolean)} must follow
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                shed.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos how long the admitted call took
+     * @param failed       whether it failed, e.g. timed out
+     */
+    public void release(long latencyNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            windowLatencyNanos += latencyNanos;
+            windowCount++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, current);
+            windowFailed |= failed;
+            if (windowCount >= settings.getWindowSize()) {
+                update();
+            }
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    private void update() {
+        double latency = (double) windowLatencyNanos / windowCount;
+        if (windowFailed) {
+            estimatedLimit *= settings.getBackoffRatio();
+        } else {
+            longLatencyNanos = longLatencyNanos == 0 ? latency : longLatencyNanos + (latency - longLatencyNanos) / LONG_WINDOWS;
+            // latency dropped well below its average, e.g. after a slow spell: catch up faster
+            if (longLatencyNanos > 2 * latency) {
+                longLatencyNanos *= 0.95;
+            }
+            // less than half of the limit used: latency says nothing about what a higher one would do
+            if (windowMaxInFlight >= estimatedLimit / 2) {
+                double gradient = Math.max(0.5, Math.min(1.0, settings.getTolerance() * longLatencyNanos / latency));
+                double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+                estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            }
+        }
+        estimatedLimit = Math.max(settings.getMinLimit(), Math.min(settings.getMaxLimit(), estimatedLimit));
+        limit = (int) estimatedLimit;
+        windowLatencyNanos = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+        windowFailed = false;
+    }
+}
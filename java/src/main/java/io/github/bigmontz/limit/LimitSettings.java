@@ -0,0 +1,75 @@
+package io.github.bigmontz.limit;
+
+import io.github.bigmontz.config.Env;
+
+public class LimitSettings {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int windowSize;
+    private final double tolerance;
+    private final double backoffRatio;
+
+    public LimitSettings(int initialLimit, int minLimit, int maxLimit, int windowSize, double tolerance, double backoffRatio) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(String.format("invalid limit %d within [%d, %d]", initialLimit, minLimit, maxLimit));
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException(String.format("invalid latency tolerance %s, expected at least 1", tolerance));
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException(String.format("invalid backoff ratio %s", backoffRatio));
+        }
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowSize = Math.max(1, windowSize);
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Reads the limit settings from the environment, e.g. ADMISSION_READ_MAX_LIMIT for the "ADMISSION_READ" prefix.
+     *
+     * @param prefix the envvar prefix of the limited operations
+     * @return the resolved settings
+     */
+    public static LimitSettings fromEnv(String prefix) {
+        return new LimitSettings(
+                Env.getOrDefault(prefix + "_INITIAL_LIMIT", 20, Integer::parseInt),
+                Env.getOrDefault(prefix + "_MIN_LIMIT", 4, Integer::parseInt),
+                Env.getOrDefault(prefix + "_MAX_LIMIT", 500, Integer::parseInt),
+                Env.getOrDefault(prefix + "_WINDOW_SIZE", 50, Integer::parseInt),
+                Env.getOrDefault(prefix + "_LATENCY_TOLERANCE", 1.5, Double::parseDouble),
+                Env.getOrDefault(prefix + "_BACKOFF_RATIO", 0.9, Double::parseDouble)
+        );
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    // completed calls the limit is re-evaluated after
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    // how much slower than usual calls may get before the limit shrinks, e.g. 1.5 for 50% slower
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    // factor the limit is multiplied by after a window with failed calls
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+}
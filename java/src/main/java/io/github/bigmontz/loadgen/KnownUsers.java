@@ -0,0 +1,78 @@
+package io.github.bigmontz.loadgen;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * IDs of the users created so far, picked from with a Zipf-like popularity.
+ * Appends are serialized, picks are lock-free.
+ */
+public class KnownUsers {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // prime, so that the scattered ranks are a permutation of the preloaded range
+    private static final long SCATTER_MULTIPLIER = 2_654_435_761L;
+
+    private final double skew;
+    private volatile String[][] chunks = new String[0][];
+    private volatile int size;
+    private volatile int scatteredRange;
+
+    /**
+     * @param skew the Zipf exponent, 0 for a uniform pick
+     */
+    public KnownUsers(double skew) {
+        this.skew = skew;
+    }
+
+    public synchronized void add(String id) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            var grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = new String[CHUNK_SIZE];
+            chunks = grown;
+        }
+        chunks[chunk][index & (CHUNK_SIZE - 1)] = id;
+        // volatile write: publishes the ID to the readers of size
+        size = index + 1;
+    }
+
+    // the most popular users end up spread over the preloaded ones instead of being the first ones inserted
+    public synchronized void freezeScatteredRange() {
+        scatteredRange = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return an ID, or null if no user is known yet
+     */
+    public String pick() {
+        int count = size;
+        if (count == 0) {
+            return null;
+        }
+        long rank = rank(count, ThreadLocalRandom.current().nextDouble());
+        int range = scatteredRange;
+        if (rank < range) {
+            rank = rank * SCATTER_MULTIPLIER % range;
+        }
+        int index = (int) rank;
+        return chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+    }
+
+    // inverts the CDF of the continuous power law x^-skew over [1, count + 1), cheap enough to redo as users get added
+    private long rank(int count, double uniform) {
+        if (skew == 0) {
+            return (long) (uniform * count);
+        }
+        double x = skew == 1
+                ? Math.pow(count + 1, uniform)
+                : Math.pow(uniform * (Math.pow(count + 1, 1 - skew) - 1) + 1, 1 / (1 - skew));
+        return Math.min((long) x - 1, count - 1);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.bigmontz.loadgen;
+
+import io.github.bigmontz.metrics.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of one operation, in nanoseconds.
+ * Each response yields two samples: the response time, measured from the moment the schedule meant the request to be
+ * sent, and the service time, measured from the moment it was actually sent. They only differ when the generator falls
+ * behind its schedule, which is exactly when the service time alone would hide the queueing (coordinated omission).
+ */
+public class LatencyRecorder {
+
+    // status used for requests that did not get a response at all
+    public static final int TRANSPORT_ERROR = 0;
+
+    private final Histogram responseTimes = new Histogram();
+    private final Histogram serviceTimes = new Histogram();
+    private volatile Histogram intervalResponseTimes = new Histogram();
+    private final Map<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+
+    /**
+     * @param status   the response status, {@link #TRANSPORT_ERROR} if there was none
+     * @param measured false for warm-up requests, which only show up in progress reports
+     */
+    public void record(int status, long responseTimeNanos, long serviceTimeNanos, boolean measured) {
+        intervalResponseTimes.record(responseTimeNanos);
+        if (!measured) {
+            return;
+        }
+        responseTimes.record(responseTimeNanos);
+        serviceTimes.record(serviceTimeNanos);
+        if (status < 200 || status >= 300) {
+            errors.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+    }
+
+    public Histogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    public Histogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    // counts by status code, TRANSPORT_ERROR included
+    public Map<Integer, Long> getErrors() {
+        var result = new TreeMap<Integer, Long>();
+        errors.forEach((status, count) -> result.put(status, count.sum()));
+        return result;
+    }
+
+    public long getErrorCount() {
+        long total = 0;
+        for (LongAdder count : errors.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Starts a new reporting interval.
+     * Samples racing with the swap may land in either interval, which is fine for progress reports.
+     *
+     * @return the response times recorded since the previous call
+     */
+    public Histogram nextInterval() {
+        Histogram previous = intervalResponseTimes;
+        intervalResponseTimes = new Histogram();
+        return previous;
+    }
+}
@@ -0,0 +1,300 @@
+package io.github.bigmontz.loadgen;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.bigmontz.loadgen.OperationMix.Operation;
+import io.github.bigmontz.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Drives POST /user, GET /user/{id} and PUT /user/{id}/password against a running server and reports latency
+ * percentiles per operation. Configured through the LOADGEN_* variables of {@link LoadSettings}, e.g.:
+ * <pre>
+ * LOADGEN_RATE=2000 LOADGEN_CONCURRENCY=128 mvn -q compile exec:java -Dexec.mainClass=io.github.bigmontz.loadgen.LoadGenerator
+ * </pre>
+ * In open-loop mode (the default), requests are scheduled at a fixed rate whatever the response times, and latencies
+ * are measured from the scheduled send time, see {@link LatencyRecorder}.
+ */
+public class LoadGenerator {
+
+    private static final double[] REPORTED_QUANTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999, 1.0};
+    // the server rejects larger batches
+    private static final int PRELOAD_BATCH_SIZE = 1_000;
+    // every user keeps this password: updates set it again, so concurrent updates of a popular user never conflict
+    private static final String PASSWORD = "loadgen";
+
+    private final LoadSettings settings;
+    private final HttpClient client;
+    private final Gson gson = new Gson();
+    private final KnownUsers users;
+    private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+    // index of the next scheduled request, in open-loop mode
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong createdUsers = new AtomicLong();
+    private final String usernamePrefix;
+    private final byte[] passwordUpdate;
+
+    public LoadGenerator(LoadSettings settings) {
+        this.settings = settings;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.getRequestTimeout())
+                .build();
+        this.users = new KnownUsers(settings.getKeySkew());
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyRecorder());
+        }
+        this.usernamePrefix = String.format("loadgen-%x-", ThreadLocalRandom.current().nextInt());
+        this.passwordUpdate = gson.toJson(Map.of("password", PASSWORD, "newPassword", PASSWORD)).getBytes(UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(LoadSettings.fromEnv()).run(System.out);
+    }
+
+    public void run(PrintStream out) throws InterruptedException, IOException {
+        out.printf("target %s, %s, %d connections, mix %s, key skew %s%n",
+                settings.getBaseUri(),
+                settings.isOpenLoop() ? String.format("open loop at %s req/s", settings.getRate()) : "closed loop",
+                settings.getConcurrency(), settings.getMix(), settings.getKeySkew());
+        preload(out);
+
+        long start = System.nanoTime();
+        long measureStart = start + settings.getWarmup().toNanos();
+        long end = measureStart + settings.getDuration().toNanos();
+        var reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loadgen-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long reportInterval = settings.getReportInterval().toNanos();
+        reporter.scheduleAtFixedRate(() -> reportInterval(out, start, measureStart), reportInterval, reportInterval, TimeUnit.NANOSECONDS);
+
+        var workers = new ArrayList<Thread>();
+        for (int i = 0; i < settings.getConcurrency(); i++) {
+            Thread worker = new Thread(() -> work(start, measureStart, end), "loadgen-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        reporter.shutdownNow();
+        // requests scheduled before the end may complete well after it when the server falls behind
+        report(out, (System.nanoTime() - measureStart) / 1e9);
+    }
+
+    private void preload(PrintStream out) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (int created = 0; created < settings.getPreloadedUsers(); created += PRELOAD_BATCH_SIZE) {
+            var operations = new JsonArray();
+            for (int i = 0; i < Math.min(PRELOAD_BATCH_SIZE, settings.getPreloadedUsers() - created); i++) {
+                var operation = new JsonObject();
+                operation.addProperty("op", "create");
+                operation.add("user", gson.toJsonTree(newUser()));
+                operations.add(operation);
+            }
+            var response = client.send(post("/user/batch", gson.toJson(operations).getBytes(UTF_8)), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new RuntimeException(String.format("could not preload users, got %d: %s", response.statusCode(), response.body()));
+            }
+            for (JsonElement result : JsonParser.parseString(response.body()).getAsJsonArray()) {
+                var body = result.getAsJsonObject().get("body");
+                if (body != null) {
+                    users.add(body.getAsJsonObject().get("id").getAsString());
+                }
+            }
+        }
+        users.freezeScatteredRange();
+        if (users.size() > 0) {
+            out.printf("preloaded %d users in %.1fs%n", users.size(), (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    private void work(long start, long measureStart, long end) {
+        double interval = settings.isOpenLoop() ? 1e9 / settings.getRate() : 0;
+        try {
+            while (true) {
+                long intended;
+                if (settings.isOpenLoop()) {
+                    intended = start + (long) (sequence.getAndIncrement() * interval);
+                    if (intended >= end) {
+                        return;
+                    }
+                    sleepUntil(intended);
+                } else {
+                    intended = System.nanoTime();
+                    if (intended >= end) {
+                        return;
+                    }
+                }
+                execute(settings.getMix().next(), intended, intended >= measureStart);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Operation operation, long intended, boolean measured) throws InterruptedException {
+        String userId = null;
+        if (operation != Operation.CREATE) {
+            userId = users.pick();
+            if (userId == null) {
+                operation = Operation.CREATE;
+            }
+        }
+        long sent = System.nanoTime();
+        int status;
+        try {
+            status = switch (operation) {
+                case CREATE -> create();
+                case READ -> client.send(get("/user/" + userId), HttpResponse.BodyHandlers.discarding()).statusCode();
+                case UPDATE_PASSWORD -> client.send(put("/user/" + userId + "/password", passwordUpdate), HttpResponse.BodyHandlers.discarding()).statusCode();
+            };
+        } catch (IOException e) {
+            status = LatencyRecorder.TRANSPORT_ERROR;
+        }
+        long done = System.nanoTime();
+        recorders.get(operation).record(status, done - intended, done - sent, measured);
+    }
+
+    private int create() throws IOException, InterruptedException {
+        var response = client.send(post("/user", gson.toJson(newUser()).getBytes(UTF_8)), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 200) {
+            users.add(JsonParser.parseString(response.body()).getAsJsonObject().get("id").getAsString());
+        }
+        return response.statusCode();
+    }
+
+    private Map<String, Object> newUser() {
+        return Map.of(
+                "username", usernamePrefix + createdUsers.incrementAndGet(),
+                "name", "Load",
+                "surname", "Generator",
+                "age", ThreadLocalRandom.current().nextInt(18, 100),
+                "password", PASSWORD);
+    }
+
+    private void reportInterval(PrintStream out, long start, long measureStart) {
+        long now = System.nanoTime();
+        double seconds = settings.getReportInterval().toNanos() / 1e9;
+        String phase = now - settings.getReportInterval().toNanos() < measureStart ? "warmup" : "measure";
+        recorders.forEach((operation, recorder) -> {
+            Histogram interval = recorder.nextInterval();
+            if (interval.count() == 0 && !settings.getMix().includes(operation)) {
+                return;
+            }
+            long[] values = interval.valuesAt(0.5, 0.99);
+            out.printf("[%5ds] %-7s %-15s %9.1f req/s  p50 %9.3f ms  p99 %9.3f ms  max %9.3f ms%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), phase, operation.getLabel(),
+                    interval.count() / seconds, values[0] / 1e6, values[1] / 1e6, interval.max() / 1e6);
+        });
+    }
+
+    private void report(PrintStream out, double seconds) throws IOException {
+        long total = 0;
+        for (var entry : recorders.entrySet()) {
+            var recorder = entry.getValue();
+            Histogram responseTimes = recorder.getResponseTimes();
+            if (responseTimes.count() == 0) {
+                continue;
+            }
+            total += responseTimes.count();
+            out.printf("%n%s: %d requests, %.1f req/s, %d errors %s%n", entry.getKey().getLabel(),
+                    responseTimes.count(), responseTimes.count() / seconds, recorder.getErrorCount(),
+                    recorder.getErrorCount() > 0 ? recorder.getErrors() : "");
+            out.printf("  %10s %16s %16s%n", "percentile", "response (ms)", "service (ms)");
+            long[] response = responseTimes.valuesAt(REPORTED_QUANTILES);
+            long[] service = recorder.getServiceTimes().valuesAt(REPORTED_QUANTILES);
+            for (int i = 0; i < REPORTED_QUANTILES.length; i++) {
+                out.printf("  %10s %16.3f %16.3f%n", REPORTED_QUANTILES[i] == 1.0 ? "max" : String.format("%.2f", REPORTED_QUANTILES[i] * 100),
+                        response[i] / 1e6, service[i] / 1e6);
+            }
+            out.printf("  %10s %16.3f %16.3f%n", "mean", responseTimes.mean() / 1e6, recorder.getServiceTimes().mean() / 1e6);
+            if (settings.getReportDirectory() != null) {
+                writeDistribution(settings.getReportDirectory().resolve(entry.getKey().getLabel() + ".hgrm"), responseTimes);
+                writeDistribution(settings.getReportDirectory().resolve(entry.getKey().getLabel() + "-service.hgrm"), recorder.getServiceTimes());
+            }
+        }
+        double achieved = total / seconds;
+        out.printf("%ntotal: %d requests, %.1f req/s%n", total, achieved);
+        if (settings.isOpenLoop() && achieved < settings.getRate() * 0.95) {
+            out.printf("warning: the target rate of %s req/s was not sustained, response times include the time requests spent behind schedule%n",
+                    settings.getRate());
+        }
+    }
+
+    // percentile spectrum in the layout of HdrHistogram's outputPercentileDistribution, values in milliseconds
+    private static void writeDistribution(Path path, Histogram histogram) throws IOException {
+        Files.createDirectories(path.getParent());
+        long count = histogram.count();
+        var quantiles = new ArrayList<Double>();
+        // 5 ticks per halving of the distance to 100%, until that distance is below a single sample
+        for (double remaining = 1; remaining * count >= 1; remaining /= 2) {
+            for (int tick = 0; tick < 5; tick++) {
+                quantiles.add(1 - remaining + remaining / 2 * tick / 5);
+            }
+        }
+        quantiles.add(1.0);
+        long[] values = histogram.valuesAt(quantiles.stream().mapToDouble(Double::doubleValue).toArray());
+        try (var writer = new PrintWriter(Files.newBufferedWriter(path, UTF_8))) {
+            writer.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+            for (int i = 0; i < values.length; i++) {
+                double quantile = quantiles.get(i);
+                writer.printf("%12.3f %2.12f %10d %14.2f%n", values[i] / 1e6, quantile,
+                        (long) Math.ceil(quantile * count), quantile < 1 ? 1 / (1 - quantile) : Double.POSITIVE_INFINITY);
+            }
+            writer.printf("#[Mean    = %12.3f]%n", histogram.mean() / 1e6);
+            writer.printf("#[Max     = %12.3f, Total count    = %12d]%n", histogram.max() / 1e6, count);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return request(path).GET().build();
+    }
+
+    private HttpRequest post(String path, byte[] body) {
+        return request(path).header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    private HttpRequest put(String path, byte[] body) {
+        return request(path).header("Content-Type", "application/json").PUT(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(settings.getBaseUri().resolve(URI.create(path))).timeout(settings.getRequestTimeout());
+    }
+
+    // parking overshoots by up to a few tens of microseconds, which the response times account for
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
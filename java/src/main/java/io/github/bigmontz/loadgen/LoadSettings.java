@@ -0,0 +1,115 @@
+package io.github.bigmontz.loadgen;
+
+import io.github.bigmontz.config.Env;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class LoadSettings {
+
+    private final URI baseUri;
+    private final double rate;
+    private final int concurrency;
+    private final Duration warmup;
+    private final Duration duration;
+    private final OperationMix mix;
+    private final double keySkew;
+    private final int preloadedUsers;
+    private final Duration reportInterval;
+    private final Duration requestTimeout;
+    private final Path reportDirectory;
+
+    public LoadSettings(URI baseUri, double rate, int concurrency, Duration warmup, Duration duration, OperationMix mix, double keySkew, int preloadedUsers, Duration reportInterval, Duration requestTimeout, Path reportDirectory) {
+        if (rate < 0) {
+            throw new IllegalArgumentException(String.format("invalid rate %s", rate));
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException(String.format("invalid concurrency %d", concurrency));
+        }
+        if (keySkew < 0) {
+            throw new IllegalArgumentException(String.format("invalid key skew %s", keySkew));
+        }
+        this.baseUri = baseUri;
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.mix = mix;
+        this.keySkew = keySkew;
+        this.preloadedUsers = preloadedUsers;
+        this.reportInterval = reportInterval;
+        this.requestTimeout = requestTimeout;
+        this.reportDirectory = reportDirectory;
+    }
+
+    public static LoadSettings fromEnv() {
+        return new LoadSettings(
+                URI.create(Env.getOrDefault("LOADGEN_URL", "http://localhost:3003")),
+                Env.getOrDefault("LOADGEN_RATE", 1_000.0, Double::parseDouble),
+                Env.getOrDefault("LOADGEN_CONCURRENCY", 64, Integer::parseInt),
+                Duration.ofSeconds(Env.getOrDefault("LOADGEN_WARMUP_S", 10L, Long::parseLong)),
+                Duration.ofSeconds(Env.getOrDefault("LOADGEN_DURATION_S", 60L, Long::parseLong)),
+                OperationMix.parse(Env.getOrDefault("LOADGEN_MIX", "create=10,read=80,update_password=10")),
+                Env.getOrDefault("LOADGEN_KEY_SKEW", 0.99, Double::parseDouble),
+                Env.getOrDefault("LOADGEN_PRELOAD_USERS", 10_000, Integer::parseInt),
+                Duration.ofSeconds(Env.getOrDefault("LOADGEN_REPORT_INTERVAL_S", 5L, Long::parseLong)),
+                Duration.ofMillis(Env.getOrDefault("LOADGEN_REQUEST_TIMEOUT_MS", 10_000L, Long::parseLong)),
+                Env.getOrDefault("LOADGEN_REPORT_DIRECTORY", null, Path::of)
+        );
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    // requests per second, scheduled at fixed intervals regardless of response times; 0 runs a closed loop instead
+    public double getRate() {
+        return rate;
+    }
+
+    public boolean isOpenLoop() {
+        return rate > 0;
+    }
+
+    // maximum number of requests in flight
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    // load applied before measuring, so that JIT compilation, pools and caches settle
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public OperationMix getMix() {
+        return mix;
+    }
+
+    // Zipf exponent of the key popularity: 0 picks users uniformly, ~1 makes a small share of users receive most requests
+    public double getKeySkew() {
+        return keySkew;
+    }
+
+    // users created through /user/batch before the run, so that reads and updates have keys to pick from
+    public int getPreloadedUsers() {
+        return preloadedUsers;
+    }
+
+    public Duration getReportInterval() {
+        return reportInterval;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    // optional: where to write the percentile distributions, in the HdrHistogram .hgrm format
+    public Path getReportDirectory() {
+        return reportDirectory;
+    }
+}
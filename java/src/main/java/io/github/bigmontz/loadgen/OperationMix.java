@@ -0,0 +1,96 @@
+package io.github.bigmontz.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// weighted choice between the operations of a run, e.g. "create=10,read=80,update_password=10"
+public class OperationMix {
+
+    public enum Operation {
+        CREATE("create"),
+        READ("read"),
+        UPDATE_PASSWORD("update_password");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        static Operation fromLabel(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException(String.format("unsupported operation %s, expected one of create, read, update_password", label));
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Map<Operation, Integer> weights;
+    // cumulative weights, indexed by operation ordinal
+    private final int[] thresholds = new int[OPERATIONS.length];
+    private final int totalWeight;
+
+    public OperationMix(Map<Operation, Integer> weights) {
+        this.weights = new EnumMap<>(weights);
+        int total = 0;
+        for (Operation operation : OPERATIONS) {
+            int weight = this.weights.getOrDefault(operation, 0);
+            if (weight < 0) {
+                throw new IllegalArgumentException(String.format("negative weight for %s", operation.label));
+            }
+            total += weight;
+            thresholds[operation.ordinal()] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("at least one operation should have a positive weight");
+        }
+        this.totalWeight = total;
+    }
+
+    public static OperationMix parse(String mix) {
+        var weights = new EnumMap<Operation, Integer>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(String.format("invalid mix entry %s, expected operation=weight", entry));
+            }
+            weights.put(Operation.fromLabel(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        }
+        return new OperationMix(weights);
+    }
+
+    public Operation next() {
+        int draw = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Operation operation : OPERATIONS) {
+            if (draw < thresholds[operation.ordinal()]) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    public boolean includes(Operation operation) {
+        return weights.getOrDefault(operation, 0) > 0;
+    }
+
+    @Override
+    public String toString() {
+        var result = new StringBuilder();
+        weights.forEach((operation, weight) -> {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(operation.label).append('=').append(weight);
+        });
+        return result.toString();
+    }
+}
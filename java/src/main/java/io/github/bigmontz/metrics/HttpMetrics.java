@@ -0,0 +1,80 @@
+package io.github.bigmontz.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static io.github.bigmontz.metrics.PrometheusWriter.label;
+
+/**
+ * Latency of HTTP exchanges by endpoint, method and status.
+ * Every combination gets its own histogram, created the first time it is seen: after that, recording is a couple of
+ * array lookups and atomic increments.
+ *
+ * @param <E> the endpoints, exposed by their {@link Enum#toString()}
+ */
+public class HttpMetrics<E extends Enum<E>> implements MetricsRegistry.Collector {
+
+    private static final String NAME = "http_server_requests_seconds";
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS", "OTHER"};
+    private static final int STATUS_CODES = 600;
+
+    private final E[] endpoints;
+    private final AtomicReferenceArray<Histogram> latencies;
+
+    public HttpMetrics(Class<E> endpoints) {
+        this.endpoints = endpoints.getEnumConstants();
+        this.latencies = new AtomicReferenceArray<>(this.endpoints.length * METHODS.length * STATUS_CODES);
+    }
+
+    public void record(E endpoint, String method, int status, long nanos) {
+        int index = (endpoint.ordinal() * METHODS.length + methodIndex(method)) * STATUS_CODES
+                + (status >= 0 && status < STATUS_CODES ? status : 0);
+        Histogram histogram = latencies.get(index);
+        if (histogram == null) {
+            latencies.compareAndSet(index, null, new Histogram());
+            histogram = latencies.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    public void collect(PrometheusWriter writer) {
+        writer.family(NAME, "summary", "HTTP request latency by endpoint, method and status");
+        forEachSeries((labels, histogram) -> writer.summary(NAME, labels, histogram, 1e9));
+        writer.family(NAME + "_max", "gauge", "Maximum HTTP request latency by endpoint, method and status");
+        forEachSeries((labels, histogram) -> writer.sample(NAME + "_max", labels, histogram.max() / 1e9));
+    }
+
+    private void forEachSeries(SeriesConsumer consumer) {
+        for (int index = 0; index < latencies.length(); index++) {
+            Histogram histogram = latencies.get(index);
+            if (histogram == null) {
+                continue;
+            }
+            int status = index % STATUS_CODES;
+            int method = index / STATUS_CODES % METHODS.length;
+            int endpoint = index / STATUS_CODES / METHODS.length;
+            consumer.accept(String.join(",",
+                    label("endpoint", endpoints[endpoint].toString()),
+                    label("method", METHODS[method]),
+                    label("status", status == 0 ? "unknown" : Integer.toString(status))), histogram);
+        }
+    }
+
+    private static int methodIndex(String method) {
+        return switch (method) {
+            case "GET" -> 0;
+            case "POST" -> 1;
+            case "PUT" -> 2;
+            case "DELETE" -> 3;
+            case "PATCH" -> 4;
+            case "HEAD" -> 5;
+            case "OPTIONS" -> 6;
+            default -> 7;
+        };
+    }
+
+    @FunctionalInterface
+    private interface SeriesConsumer {
+        void accept(String labels, Histogram histogram);
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.bigmontz.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// collectors are registered at startup and only read at scrape time, recording never goes through the registry
+public class MetricsRegistry {
+
+    private final String constantLabels;
+    private final List<Collector> collectors;
+    private final String scopeLabels;
+
+    /**
+     * @param constantLabels labels added to every sample, e.g. db_type
+     */
+    public MetricsRegistry(Map<String, String> constantLabels) {
+        this(PrometheusWriter.labels(new TreeMap<>(constantLabels)), new CopyOnWriteArrayList<>(), "");
+    }
+
+    private MetricsRegistry(String constantLabels, List<Collector> collectors, String scopeLabels) {
+        this.constantLabels = constantLabels;
+        this.collectors = collectors;
+        this.scopeLabels = scopeLabels;
+    }
+
+    /**
+     * Returns a view of this registry adding the given labels to the samples of the collectors registered through it,
+     * e.g. to tell apart the components of each shard.
+     *
+     * @param name  the label name
+     * @param value the label value
+     * @return the scoped registry
+     */
+    public MetricsRegistry scoped(String name, String value) {
+        var label = PrometheusWriter.label(name, value);
+        return new MetricsRegistry(constantLabels, collectors, scopeLabels.isEmpty() ? label : scopeLabels + "," + label);
+    }
+
+    public void register(Collector collector) {
+        if (scopeLabels.isEmpty()) {
+            collectors.add(collector);
+            return;
+        }
+        collectors.add(writer -> collector.collect(writer.withLabels(scopeLabels)));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(writer -> {
+            writer.family(name, "gauge", help);
+            writer.sample(name, "", value.getAsDouble());
+        });
+    }
+
+    // name is expected to end with _total
+    public void counter(String name, String help, LongSupplier value) {
+        register(writer -> {
+            writer.family(name, "counter", help);
+            writer.sample(name, "", value.getAsLong());
+        });
+    }
+
+    // nanosecond histogram exposed as a summary in seconds, plus its max
+    public void timer(String name, String help, Histogram histogram) {
+        register(writer -> {
+            writer.family(name, "summary", help);
+            writer.summary(name, "", histogram, 1e9);
+            writer.family(name + "_max", "gauge", help + " (max)");
+            writer.sample(name + "_max", "", histogram.max() / 1e9);
+        });
+    }
+
+    public String scrape() {
+        var writer = new PrometheusWriter(constantLabels);
+        for (Collector collector : collectors) {
+            collector.collect(writer);
+        }
+        return writer.toString();
+    }
+
+    @FunctionalInterface
+    public interface Collector {
+        void collect(PrometheusWriter writer);
+    }
+}
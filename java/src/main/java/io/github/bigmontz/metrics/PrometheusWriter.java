@@ -0,0 +1,105 @@
+package io.github.bigmontz.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Prometheus text exposition format (version 0.0.4), see https://prometheus.io/docs/instrumenting/exposition_formats/
+public class PrometheusWriter {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"quantile=\"0.5\"", "quantile=\"0.99\"", "quantile=\"0.999\""};
+
+    // by name: collectors writing to the same family, e.g. one per shard, still get their samples grouped under it
+    private final Map<String, StringBuilder> families;
+    private final String constantLabels;
+    private StringBuilder out;
+
+    PrometheusWriter(String constantLabels) {
+        this(new LinkedHashMap<>(), constantLabels);
+    }
+
+    private PrometheusWriter(Map<String, StringBuilder> families, String constantLabels) {
+        this.families = families;
+        this.constantLabels = constantLabels;
+    }
+
+    /**
+     * Starts, or resumes, a metric family: the samples that follow are written to it.
+     *
+     * @param type one of counter, gauge, summary
+     */
+    public void family(String name, String type, String help) {
+        out = families.computeIfAbsent(name, ignored -> new StringBuilder()
+                .append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n'));
+    }
+
+    /**
+     * @param labels comma-separated labels added to every sample written through the returned writer
+     */
+    PrometheusWriter withLabels(String labels) {
+        return new PrometheusWriter(families, constantLabels.isEmpty() ? labels : constantLabels + "," + labels);
+    }
+
+    /**
+     * @param labels comma-separated labels built with {@link #label(String, String)}, may be empty
+     */
+    public void sample(String name, String labels, double value) {
+        startSample(name, labels);
+        out.append(value).append('\n');
+    }
+
+    public void sample(String name, String labels, long value) {
+        startSample(name, labels);
+        out.append(value).append('\n');
+    }
+
+    /**
+     * Writes the p50/p99/p999 quantiles, sum and count of a summary family.
+     *
+     * @param unit recorded units per exposed unit, e.g. 1e9 for nanoseconds exposed as seconds
+     */
+    public void summary(String name, String labels, Histogram histogram, double unit) {
+        long[] values = histogram.valuesAt(QUANTILES);
+        String separator = labels.isEmpty() ? "" : ",";
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sample(name, labels + separator + QUANTILE_LABELS[i], values[i] / unit);
+        }
+        sample(name + "_sum", labels, histogram.sum() / unit);
+        sample(name + "_count", labels, histogram.count());
+    }
+
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+    }
+
+    static String labels(Map<String, String> labels) {
+        var result = new StringBuilder();
+        labels.forEach((name, value) -> {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(label(name, value));
+        });
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        var result = new StringBuilder(8 * 1024);
+        families.values().forEach(result::append);
+        return result.toString();
+    }
+
+    private void startSample(String name, String labels) {
+        out.append(name);
+        if (!constantLabels.isEmpty() || !labels.isEmpty()) {
+            out.append('{').append(constantLabels);
+            if (!constantLabels.isEmpty() && !labels.isEmpty()) {
+                out.append(',');
+            }
+            out.append(labels).append('}');
+        }
+        out.append(' ');
+    }
+}
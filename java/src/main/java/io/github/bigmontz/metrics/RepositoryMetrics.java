@@ -0,0 +1,65 @@
+package io.github.bigmontz.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static io.github.bigmontz.metrics.PrometheusWriter.label;
+
+// latency and failures of repository calls by operation, the backend is identified by the registry's db_type label
+public class RepositoryMetrics implements MetricsRegistry.Collector {
+
+    private static final String LATENCY = "repository_operation_seconds";
+    private static final String ERRORS = "repository_operation_errors_total";
+
+    public enum Operation {
+        CREATE("create"),
+        CREATE_ALL("create_all"),
+        FIND_BY_ID("find_by_id"),
+        FIND_BY_ID_PROJECTED("find_by_id_projected"),
+        FIND_UPDATED_AT("find_updated_at"),
+        FIND_ALL_BY_ID("find_all_by_id"),
+        UPDATE_PASSWORD("update_password"),
+        UPDATE_PASSWORDS("update_passwords"),
+        EXPORT_ALL("export_all"),
+        LOAD_ALL("load_all");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Histogram[] latencies = new Histogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+
+    public RepositoryMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public void record(Operation operation, long nanos) {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    public void recordError(Operation operation) {
+        errors[operation.ordinal()].increment();
+    }
+
+    @Override
+    public void collect(PrometheusWriter writer) {
+        writer.family(LATENCY, "summary", "Repository call latency by operation, failed calls included");
+        for (Operation operation : Operation.values()) {
+            writer.summary(LATENCY, label("operation", operation.label), latencies[operation.ordinal()], 1e9);
+        }
+        writer.family(LATENCY + "_max", "gauge", "Maximum repository call latency by operation");
+        for (Operation operation : Operation.values()) {
+            writer.sample(LATENCY + "_max", label("operation", operation.label), latencies[operation.ordinal()].max() / 1e9);
+        }
+        writer.family(ERRORS, "counter", "Failed repository calls by operation");
+        for (Operation operation : Operation.values()) {
+            writer.sample(ERRORS, label("operation", operation.label), errors[operation.ordinal()].sum());
+        }
+    }
+}
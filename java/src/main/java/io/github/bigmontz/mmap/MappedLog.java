@@ -0,0 +1,268 @@
+package io.github.bigmontz.mmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// append-only file of fixed-size records, mapped in chunks so that it can grow past the 2GB limit of a single mapping
+// records never straddle chunks and the first record slot holds the file header
+public class MappedLog implements Closeable {
+
+    private static final long MAGIC = 0x3147_4F4C_5245_5355L; // "USERLOG1", little-endian
+    private static final int MAGIC_OFFSET = 0;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int GENERATION_OFFSET = 16;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ORDER);
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ORDER);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int recordSize;
+    private final int chunkSize;
+    private final long generation;
+    private final AtomicLong tail;
+    private volatile MappedByteBuffer[] chunks;
+
+    private MappedLog(Path path, FileChannel channel, int recordSize, int chunkSize, long generation, MappedByteBuffer[] chunks) {
+        this.path = path;
+        this.channel = channel;
+        this.recordSize = recordSize;
+        this.chunkSize = chunkSize;
+        this.generation = generation;
+        this.chunks = chunks;
+        this.tail = new AtomicLong(recordSize);
+    }
+
+    /**
+     * Opens the log at the given path, creating it if it does not exist yet.
+     * The tail is positioned right after the header: callers recovering an existing log are expected to scan it and
+     * {@link #resetTail(long)} accordingly.
+     *
+     * @param path       the log file
+     * @param recordSize the size of a record in bytes, a multiple of 8
+     * @param chunkSize  the size of a mapping in bytes, a multiple of the record size
+     * @return the opened log
+     */
+    public static MappedLog open(Path path, int recordSize, int chunkSize) throws IOException {
+        checkSizes(recordSize, chunkSize);
+        var channel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+            if (channel.size() == 0) {
+                return initialize(path, channel, recordSize, chunkSize);
+            }
+            int chunkCount = (int) ((channel.size() + chunkSize - 1) / chunkSize);
+            var chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i] = map(channel, i, chunkSize);
+            }
+            var header = chunks[0];
+            if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                throw new IOException(String.format("%s is not a user log", path));
+            }
+            if (header.getInt(RECORD_SIZE_OFFSET) != recordSize) {
+                throw new IOException(String.format("%s has %d-byte records, expected %d", path, header.getInt(RECORD_SIZE_OFFSET), recordSize));
+            }
+            return new MappedLog(path, channel, recordSize, chunkSize, header.getLong(GENERATION_OFFSET), chunks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an empty log at the given path, discarding any existing file.
+     */
+    public static MappedLog create(Path path, int recordSize, int chunkSize) throws IOException {
+        checkSizes(recordSize, chunkSize);
+        var channel = FileChannel.open(path, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        try {
+            return initialize(path, channel, recordSize, chunkSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    // random, changes whenever the log is recreated, e.g. by compaction
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long firstOffset() {
+        return recordSize;
+    }
+
+    // offset right after the last reserved record
+    public long tail() {
+        return tail.get();
+    }
+
+    // end of the mapped region, records past the tail are zeroed
+    public long mappedEnd() {
+        return (long) chunks.length * chunkSize;
+    }
+
+    public void resetTail(long offset) {
+        if (offset < recordSize || offset % recordSize != 0) {
+            throw new IllegalArgumentException(String.format("invalid tail offset %d", offset));
+        }
+        ensureMapped(offset);
+        tail.set(offset);
+    }
+
+    /**
+     * Reserves the next record slot, growing the file if needed.
+     * The slot is zeroed, it is up to the caller to mark it as written.
+     *
+     * @return the offset of the reserved record
+     */
+    public long append() {
+        long offset = tail.getAndAdd(recordSize);
+        ensureMapped(offset + recordSize);
+        return offset;
+    }
+
+    public int getInt(long offset) {
+        return chunk(offset).getInt(position(offset));
+    }
+
+    public int getIntAcquire(long offset) {
+        return (int) INTS.getAcquire(chunk(offset), position(offset));
+    }
+
+    public void putIntRelease(long offset, int value) {
+        INTS.setRelease(chunk(offset), position(offset), value);
+    }
+
+    public long getLong(long offset) {
+        return chunk(offset).getLong(position(offset));
+    }
+
+    public long getLongVolatile(long offset) {
+        return (long) LONGS.getVolatile(chunk(offset), position(offset));
+    }
+
+    public void putLongVolatile(long offset, long value) {
+        LONGS.setVolatile(chunk(offset), position(offset), value);
+    }
+
+    public boolean compareAndSetLong(long offset, long expected, long value) {
+        return LONGS.compareAndSet(chunk(offset), position(offset), expected, value);
+    }
+
+    public short getShort(long offset) {
+        return chunk(offset).getShort(position(offset));
+    }
+
+    public void putShort(long offset, short value) {
+        chunk(offset).putShort(position(offset), value);
+    }
+
+    public void putLong(long offset, long value) {
+        chunk(offset).putLong(position(offset), value);
+    }
+
+    public void get(long offset, byte[] destination, int length) {
+        chunk(offset).get(position(offset), destination, 0, length);
+    }
+
+    public void put(long offset, byte[] source, int sourceOffset, int length) {
+        chunk(offset).put(position(offset), source, sourceOffset, length);
+    }
+
+    // flushes the given range of a record to the storage device
+    public void force(long offset, int length) {
+        chunk(offset).force(position(offset), length);
+    }
+
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    public static ByteOrder order() {
+        return ORDER;
+    }
+
+    // mappings stay valid until they are garbage collected, so readers racing with close never fault
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer chunk(long offset) {
+        return chunks[(int) (offset / chunkSize)];
+    }
+
+    private int position(long offset) {
+        return (int) (offset % chunkSize);
+    }
+
+    private void ensureMapped(long end) {
+        if (end <= mappedEnd()) {
+            return;
+        }
+        synchronized (this) {
+            var current = chunks;
+            int required = (int) ((end + chunkSize - 1) / chunkSize);
+            if (required <= current.length) {
+                return;
+            }
+            var grown = Arrays.copyOf(current, required);
+            try {
+                for (int i = current.length; i < required; i++) {
+                    grown[i] = map(channel, i, chunkSize);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("could not grow %s", path), e);
+            }
+            chunks = grown;
+        }
+    }
+
+    private static MappedLog initialize(Path path, FileChannel channel, int recordSize, int chunkSize) throws IOException {
+        var header = map(channel, 0, chunkSize);
+        long generation = ThreadLocalRandom.current().nextLong();
+        header.putInt(RECORD_SIZE_OFFSET, recordSize);
+        header.putLong(GENERATION_OFFSET, generation);
+        header.putLong(MAGIC_OFFSET, MAGIC);
+        header.force(0, recordSize);
+        return new MappedLog(path, channel, recordSize, chunkSize, generation, new MappedByteBuffer[]{header});
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int chunkIndex, int chunkSize) throws IOException {
+        var chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * chunkSize, chunkSize);
+        chunk.order(ORDER);
+        return chunk;
+    }
+
+    private static void checkSizes(int recordSize, int chunkSize) {
+        if (recordSize <= 0 || recordSize % Long.BYTES != 0 || chunkSize < recordSize || chunkSize % recordSize != 0) {
+            throw new IllegalArgumentException(String.format("invalid record/chunk sizes %d/%d", recordSize, chunkSize));
+        }
+    }
+}
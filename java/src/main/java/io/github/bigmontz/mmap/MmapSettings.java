@@ -0,0 +1,81 @@
+package io.github.bigmontz.mmap;
+
+import io.github.bigmontz.config.Env;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class MmapSettings {
+
+    // chunks are mapped as a single buffer each, which int offsets bound to less than 2 GiB
+    private static final int MAX_CHUNK_SIZE_MIB = Integer.MAX_VALUE / (1024 * 1024);
+
+    private final Path directory;
+    private final int chunkSize;
+    private final boolean syncWrites;
+    private final Duration maintenanceInterval;
+    private final double compactionGarbageRatio;
+    private final int initialIndexCapacity;
+
+    /**
+     * @param chunkSizeMib the size of each file of the log, in MiB, from 1 to 2047
+     */
+    public MmapSettings(Path directory, int chunkSizeMib, boolean syncWrites, Duration maintenanceInterval, double compactionGarbageRatio, int initialIndexCapacity) {
+        if (chunkSizeMib < 1 || chunkSizeMib > MAX_CHUNK_SIZE_MIB) {
+            throw new IllegalArgumentException(String.format("invalid chunk size %d MiB, expected 1 to %d", chunkSizeMib, MAX_CHUNK_SIZE_MIB));
+        }
+        if (compactionGarbageRatio <= 0 || compactionGarbageRatio > 1) {
+            throw new IllegalArgumentException(String.format("invalid compaction garbage ratio %s", compactionGarbageRatio));
+        }
+        this.directory = directory;
+        this.chunkSize = chunkSizeMib * 1024 * 1024;
+        this.syncWrites = syncWrites;
+        this.maintenanceInterval = maintenanceInterval;
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.initialIndexCapacity = initialIndexCapacity;
+    }
+
+    public static MmapSettings fromEnv() {
+        return fromEnv(Path.of(Env.getOrDefault("MMAP_DIRECTORY", "data")));
+    }
+
+    // e.g. for each shard of a sharded store
+    public static MmapSettings fromEnv(Path directory) {
+        return new MmapSettings(
+                directory,
+                Env.getOrDefault("MMAP_CHUNK_SIZE_MIB", 64, Integer::parseInt),
+                Env.getOrDefault("MMAP_SYNC_WRITES", false, Boolean::parseBoolean),
+                Duration.ofMillis(Env.getOrDefault("MMAP_MAINTENANCE_INTERVAL_MS", 60_000L, Long::parseLong)),
+                Env.getOrDefault("MMAP_COMPACTION_GARBAGE_RATIO", 0.25, Double::parseDouble),
+                Env.getOrDefault("MMAP_INDEX_INITIAL_CAPACITY", 65_536, Integer::parseInt)
+        );
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // in bytes
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // forces every write to the storage device, otherwise writes survive process crashes but not power losses
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    // period of checkpoints and compaction checks
+    public Duration getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    // share of dead records past which the log gets compacted
+    public double getCompactionGarbageRatio() {
+        return compactionGarbageRatio;
+    }
+
+    public int getInitialIndexCapacity() {
+        return initialIndexCapacity;
+    }
+}
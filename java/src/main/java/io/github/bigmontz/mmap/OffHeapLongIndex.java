@@ -0,0 +1,174 @@
+package io.github.bigmontz.mmap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// open-addressing long -> long hash table living in a direct buffer: no boxing, no per-entry objects for the GC to trace
+// puts are serialized, gets are lock-free
+public class OffHeapLongIndex {
+
+    public static final long MISSING = -1L;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    private static final long EMPTY_KEY = 0L;
+    // a single direct buffer is capped at 2GB
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private volatile Table table;
+    private int size;
+
+    public OffHeapLongIndex(int expectedSize) {
+        this.table = new Table(capacityFor(Math.max(16, expectedSize)));
+    }
+
+    /**
+     * @param key any key, 0 is never mapped
+     * @return the value mapped to the key, {@link #MISSING} if there is none
+     */
+    public long get(long key) {
+        return table.get(key);
+    }
+
+    /**
+     * Maps the key to the given value, replacing any previous value.
+     * Concurrent readers either see the previous mapping or the new one, never a partially written entry.
+     *
+     * @param key   a non-zero key
+     * @param value a non-negative value
+     */
+    public synchronized void put(long key, long value) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("0 cannot be used as a key");
+        }
+        Table current = table;
+        if (current.put(key, value)) {
+            return;
+        }
+        if ((size + 1) * 4L > current.capacity() * 3L) {
+            current = resize(current);
+        }
+        current.insert(key, value);
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visits all the entries of the table as of the start of the call.
+     * Entries put concurrently may or may not be visited.
+     */
+    public void forEach(EntryConsumer consumer) {
+        Table current = table;
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            long key = current.keyAt(slot);
+            if (key != EMPTY_KEY) {
+                consumer.accept(key, current.valueAt(slot));
+            }
+        }
+    }
+
+    // the old table is left untouched, so that readers still holding it keep getting consistent answers
+    private Table resize(Table current) {
+        if (current.capacity() >= MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("index cannot hold more than %d entries", size));
+        }
+        Table resized = new Table(current.capacity() * 2);
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            long key = current.keyAt(slot);
+            if (key != EMPTY_KEY) {
+                resized.insert(key, current.valueAt(slot));
+            }
+        }
+        table = resized;
+        return resized;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(expectedSize * 4L / 3 + 1) << 1;
+        return (int) Math.min(capacity, MAX_CAPACITY);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private static final class Table {
+
+        private final ByteBuffer entries;
+        private final int mask;
+
+        Table(int capacity) {
+            this.entries = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE).order(ByteOrder.nativeOrder());
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        long get(long key) {
+            // would match the first empty slot
+            if (key == EMPTY_KEY) {
+                return MISSING;
+            }
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                long candidate = keyAt(slot);
+                if (candidate == key) {
+                    return valueAt(slot);
+                }
+                if (candidate == EMPTY_KEY) {
+                    return MISSING;
+                }
+            }
+        }
+
+        // replaces the value of an existing key, returns false if the key is absent
+        boolean put(long key, long value) {
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                long candidate = keyAt(slot);
+                if (candidate == key) {
+                    LONGS.setRelease(entries, slot * ENTRY_SIZE + Long.BYTES, value);
+                    return true;
+                }
+                if (candidate == EMPTY_KEY) {
+                    return false;
+                }
+            }
+        }
+
+        // the value is written before the key is published
+        void insert(long key, long value) {
+            int slot = slotOf(key);
+            while (keyAt(slot) != EMPTY_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            LONGS.set(entries, slot * ENTRY_SIZE + Long.BYTES, value);
+            LONGS.setRelease(entries, slot * ENTRY_SIZE, key);
+        }
+
+        long keyAt(int slot) {
+            return (long) LONGS.getAcquire(entries, slot * ENTRY_SIZE);
+        }
+
+        long valueAt(int slot) {
+            return (long) LONGS.getAcquire(entries, slot * ENTRY_SIZE + Long.BYTES);
+        }
+
+        private int slotOf(long key) {
+            // murmur3 finalizer, sequential IDs would otherwise cluster
+            long hash = key;
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return (int) hash & mask;
+        }
+    }
+}
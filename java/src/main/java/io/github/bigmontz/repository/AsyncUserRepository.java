@@ -0,0 +1,30 @@
+package io.github.bigmontz.repository;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+public interface AsyncUserRepository<ID> extends AutoCloseable {
+
+    ID parseId(String rawId);
+
+    String printId(ID id);
+
+    CompletionStage<User> createAsync(User user);
+
+    CompletionStage<Optional<User>> findByIdAsync(ID userId);
+
+    // same as UserRepository#findById(Object, Set)
+    CompletionStage<Optional<User>> findByIdAsync(ID userId, Set<UserField> fields);
+
+    // same as UserRepository#findUpdatedAt(Object)
+    CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(ID userId);
+
+    CompletionStage<Boolean> updatePasswordAsync(ID userId, PasswordUpdate passwordUpdate);
+
+    // implementations sharing their driver with a blocking repository leave closing it to that repository
+    @Override
+    default void close() {
+    }
+}
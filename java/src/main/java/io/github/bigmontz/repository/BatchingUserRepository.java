@@ -0,0 +1,226 @@
+package io.github.bigmontz.repository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Turns concurrent findById calls into a single findAllById, DataLoader-style: the first call of a batch waits up to
+ * the batching window for others to join, then looks them all up at once. A call filling the batch up looks it up
+ * right away instead. Either way, the lookup runs on the thread of one of the callers, no thread of its own.
+ * Calls that have to catch up with a consistency token go straight to the backend: a batch is read with a single
+ * consistency.
+ */
+public class BatchingUserRepository<ID> implements UserRepository<ID> {
+
+    private final UserRepository<ID> delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Object lock = new Object();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedCalls = new LongAdder();
+    // the batch calls join, null until the next call starts one
+    private Batch<ID> pending;
+
+    /**
+     * @param window       how long the first call of a batch waits for others, i.e. the latency added at low
+     *                     concurrency
+     * @param maxBatchSize the calls past which a batch is looked up without waiting for the window to end
+     */
+    public BatchingUserRepository(UserRepository<ID> delegate, Duration window, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(String.format("invalid max batch size %d", maxBatchSize));
+        }
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public User create(User user) {
+        return delegate.create(user);
+    }
+
+    @Override
+    public Optional<User> findById(ID userId) {
+        if (Consistency.current().getToken() != null) {
+            return delegate.findById(userId);
+        }
+        Batch<ID> batch;
+        boolean first;
+        boolean full = false;
+        CompletableFuture<Optional<User>> result;
+        synchronized (lock) {
+            first = pending == null;
+            if (first) {
+                pending = new Batch<>();
+            }
+            batch = pending;
+            result = batch.add(userId);
+            if (batch.callCount == maxBatchSize) {
+                pending = null;
+                full = true;
+            }
+        }
+        if (full) {
+            lookUp(batch);
+            return join(result);
+        }
+        if (!first) {
+            return join(result);
+        }
+        try {
+            // completes early when another call fills the batch up
+            return result.get(windowNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // the window is over, the batch is looked up below
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // however this call ends, the others joined its batch and wait for it to be looked up
+            lookUpIfPending(batch);
+        }
+        return join(result);
+    }
+
+    // projections and version checks read less than a full user, they are not batched
+    @Override
+    public Optional<User> findById(ID userId, Set<UserField> fields) {
+        return delegate.findById(userId, fields);
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(ID userId) {
+        return delegate.findUpdatedAt(userId);
+    }
+
+    @Override
+    public boolean updatePassword(ID userId, PasswordUpdate passwordUpdate) {
+        return delegate.updatePassword(userId, passwordUpdate);
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        return delegate.createAll(users);
+    }
+
+    @Override
+    public void loadAll(List<User> users) {
+        delegate.loadAll(users);
+    }
+
+    @Override
+    public Map<ID, User> findAllById(Collection<ID> userIds) {
+        return delegate.findAllById(userIds);
+    }
+
+    @Override
+    public Set<ID> updatePasswords(Map<ID, PasswordUpdate> passwordUpdates) {
+        return delegate.updatePasswords(passwordUpdates);
+    }
+
+    @Override
+    public void exportAll(ID afterId, Consumer<? super User> consumer) {
+        delegate.exportAll(afterId, consumer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public UserRepository<ID> getDelegate() {
+        return delegate;
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getBatchedCallCount() {
+        return batchedCalls.sum();
+    }
+
+    private void lookUpIfPending(Batch<ID> batch) {
+        synchronized (lock) {
+            if (pending != batch) {
+                return;
+            }
+            pending = null;
+        }
+        lookUp(batch);
+    }
+
+    // a batch of one is looked up alone, which some backends do with a cheaper query
+    private void lookUp(Batch<ID> batch) {
+        batches.increment();
+        batchedCalls.add(batch.callCount);
+        try {
+            if (batch.results.size() == 1) {
+                ID userId = batch.results.keySet().iterator().next();
+                batch.results.get(userId).complete(delegate.findById(userId));
+                return;
+            }
+            Map<ID, User> found = delegate.findAllById(batch.results.keySet());
+            batch.results.forEach((userId, result) -> result.complete(Optional.ofNullable(found.get(userId))));
+        } catch (Throwable e) {
+            // no waiter may be left hanging, whatever went wrong
+            batch.results.values().forEach(result -> result.completeExceptionally(e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new RuntimeException(cause);
+    }
+
+    // calls for the same user share its result
+    private static class Batch<ID> {
+        private final Map<ID, CompletableFuture<Optional<User>>> results = new HashMap<>();
+        private int callCount;
+
+        CompletableFuture<Optional<User>> add(ID userId) {
+            callCount++;
+            return results.computeIfAbsent(userId, ignored -> new CompletableFuture<>());
+        }
+    }
+}
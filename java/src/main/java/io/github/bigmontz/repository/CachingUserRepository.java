@@ -0,0 +1,330 @@
+package io.github.bigmontz.repository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// read-through cache in front of any backend, with approximate LRU (CLOCK) + TTL eviction
+public class CachingUserRepository<ID> implements UserRepository<ID> {
+
+    private final UserRepository<ID> delegate;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<ID, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ID, CompletableFuture<Optional<User>>> loads = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger clockLength = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingUserRepository(UserRepository<ID> delegate, int maxSize, Duration ttl) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public User create(User user) {
+        return delegate.create(user);
+    }
+
+    @Override
+    public Optional<User> findById(ID userId) {
+        return findEntry(userId).map(entry -> entry.user);
+    }
+
+    @Override
+    public <T> Optional<T> findById(ID userId, Function<User, T> mapper) {
+        return findEntry(userId).map(entry -> entry.mapped(mapper));
+    }
+
+    @Override
+    public Optional<User> findById(ID userId, Set<UserField> fields) {
+        Entry entry = entries.get(userId);
+        if (entry != null && !entry.isExpired(System.nanoTime())) {
+            hits.increment();
+            entry.referenced = true;
+            return Optional.of(entry.user);
+        }
+        // partial users are not cached, the backend projection is cheaper than loading the full user
+        misses.increment();
+        return delegate.findById(userId, fields);
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(ID userId) {
+        Entry entry = entries.get(userId);
+        if (entry != null && !entry.isExpired(System.nanoTime())) {
+            hits.increment();
+            entry.referenced = true;
+            return Optional.ofNullable(entry.user.getUpdatedAt());
+        }
+        misses.increment();
+        return delegate.findUpdatedAt(userId);
+    }
+
+    @Override
+    public boolean updatePassword(ID userId, PasswordUpdate passwordUpdate) {
+        boolean updated = delegate.updatePassword(userId, passwordUpdate);
+        if (updated) {
+            invalidate(userId);
+        }
+        return updated;
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        return delegate.createAll(users);
+    }
+
+    @Override
+    public void loadAll(List<User> users) {
+        delegate.loadAll(users);
+    }
+
+    @Override
+    public Map<ID, User> findAllById(Collection<ID> userIds) {
+        var result = new HashMap<ID, User>();
+        var missingIds = new ArrayList<ID>();
+        long now = System.nanoTime();
+        for (ID userId : userIds) {
+            Entry entry = entries.get(userId);
+            if (entry != null && !entry.isExpired(now)) {
+                hits.increment();
+                entry.referenced = true;
+                result.put(userId, entry.user);
+            } else {
+                misses.increment();
+                missingIds.add(userId);
+            }
+        }
+        // batch results are not cached: they would bypass the single-flight loads guarding against stale writes
+        if (!missingIds.isEmpty()) {
+            result.putAll(delegate.findAllById(missingIds));
+        }
+        return result;
+    }
+
+    @Override
+    public Set<ID> updatePasswords(Map<ID, PasswordUpdate> passwordUpdates) {
+        Set<ID> updated = delegate.updatePasswords(passwordUpdates);
+        updated.forEach(this::invalidate);
+        return updated;
+    }
+
+    // straight from the backend: a full scan would flush the working set out of the cache
+    @Override
+    public void exportAll(ID afterId, Consumer<? super User> consumer) {
+        delegate.exportAll(afterId, consumer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public void invalidate(ID userId) {
+        var removed = new AtomicBoolean();
+        // under the lock of the key, as the publication of loads: a load started before the update either got
+        // published already, and is removed here, or finds itself cancelled and does not publish what it read
+        entries.compute(userId, (id, current) -> {
+            loads.remove(id);
+            removed.set(current != null);
+            return null;
+        });
+        if (removed.get()) {
+            size.decrementAndGet();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return size.get();
+    }
+
+    public UserRepository<ID> getDelegate() {
+        return delegate;
+    }
+
+    private Optional<Entry> findEntry(ID userId) {
+        Entry entry = entries.get(userId);
+        if (entry != null) {
+            if (!entry.isExpired(System.nanoTime())) {
+                hits.increment();
+                entry.referenced = true;
+                return Optional.of(entry);
+            }
+            if (entries.remove(userId, entry)) {
+                size.decrementAndGet();
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return load(userId).map(user -> new Entry(userId, user, System.nanoTime() + ttlNanos));
+    }
+
+    private Optional<User> load(ID userId) {
+        var load = new CompletableFuture<Optional<User>>();
+        var concurrentLoad = loads.putIfAbsent(userId, load);
+        if (concurrentLoad != null) {
+            return await(concurrentLoad);
+        }
+        try {
+            Optional<User> user = delegate.findById(userId);
+            load.complete(user);
+            if (user.isPresent()) {
+                publish(userId, user.get(), load);
+            } else {
+                loads.remove(userId, load);
+            }
+            return user;
+        } catch (RuntimeException e) {
+            loads.remove(userId, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // only caches what was read if no update invalidated the load in the meantime
+    private void publish(ID userId, User user, CompletableFuture<Optional<User>> load) {
+        var entry = new Entry(userId, user, System.nanoTime() + ttlNanos);
+        var added = new AtomicBoolean();
+        Entry published = entries.compute(userId, (id, current) -> {
+            if (!loads.remove(id, load)) {
+                return current;
+            }
+            added.set(current == null);
+            return entry;
+        });
+        if (published != entry) {
+            return;
+        }
+        if (added.get()) {
+            size.incrementAndGet();
+        }
+        clock.offer(entry);
+        clockLength.incrementAndGet();
+        // invalidated entries stay queued until polled, so the queue is also trimmed when it outgrows the cache
+        while (size.get() > maxSize || clockLength.get() > 2 * maxSize) {
+            if (!evictOne()) {
+                return;
+            }
+        }
+    }
+
+    private boolean evictOne() {
+        // CLOCK: recently read entries get a second chance and go back to the end of the queue
+        Entry candidate;
+        while ((candidate = clock.poll()) != null) {
+            clockLength.decrementAndGet();
+            if (entries.get(candidate.userId) != candidate) {
+                continue;
+            }
+            if (candidate.referenced && !candidate.isExpired(System.nanoTime())) {
+                candidate.referenced = false;
+                clock.offer(candidate);
+                clockLength.incrementAndGet();
+                if (clockLength.get() <= 2 * maxSize) {
+                    continue;
+                }
+                return true;
+            }
+            if (entries.remove(candidate.userId, candidate)) {
+                size.decrementAndGet();
+                evictions.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Optional<User> await(CompletableFuture<Optional<User>> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private class Entry {
+        private final ID userId;
+        private final User user;
+        private final long expiresAt;
+        private volatile boolean referenced;
+        private volatile Memo memo;
+
+        Entry(ID userId, User user, long expiresAt) {
+            this.userId = userId;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T mapped(Function<User, T> mapper) {
+            Memo current = this.memo;
+            if (current != null && current.mapper == mapper) {
+                return (T) current.value;
+            }
+            T result = mapper.apply(user);
+            // benign race: concurrent readers may each compute the same value once
+            this.memo = new Memo(mapper, result);
+            return result;
+        }
+    }
+
+    private static class Memo {
+        private final Function<User, ?> mapper;
+        private final Object value;
+
+        Memo(Function<User, ?> mapper, Object value) {
+            this.mapper = mapper;
+            this.value = value;
+        }
+    }
+}
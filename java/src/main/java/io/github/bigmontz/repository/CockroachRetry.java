@@ -1,53 +1,229 @@
 package io.github.bigmontz.repository;
 
 import io.github.bigmontz.JdbcFunction;
+import io.github.bigmontz.config.Env;
+import io.github.bigmontz.metrics.Histogram;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CockroachRetry {
 
-    private static final int MAX_RETRY_COUNT = 3;
     private static final String RETRY_SQL_STATE = "40001";
+    private static final String SAVEPOINT = "cockroach_restart";
+
+    // retries of all repositories draw from the same budget, so that they cannot amplify an overload
+    private static final RetryBudget BUDGET = new RetryBudget(
+            Env.getOrDefault("COCKROACH_RETRY_BUDGET_RATIO", 0.2, Double::parseDouble),
+            Env.getOrDefault("COCKROACH_RETRY_BUDGET_MIN_PER_SECOND", 10, Integer::parseInt));
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean useSavepoint;
+    private final RetryBudget budget;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder contentions = new LongAdder();
+    private final LongAdder exhaustedAttempts = new LongAdder();
+    private final LongAdder exhaustedBudget = new LongAdder();
+    private final LongAdder[] successesByAttempt;
+    private final Histogram[] attemptLatencyNanos;
+
+    public CockroachRetry(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis, boolean useSavepoint) {
+        this(maxAttempts, baseBackoffMillis, maxBackoffMillis, useSavepoint, BUDGET);
+    }
+
+    CockroachRetry(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis, boolean useSavepoint, RetryBudget budget) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("at least 1 attempt is required");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.useSavepoint = useSavepoint;
+        this.budget = budget;
+        this.successesByAttempt = new LongAdder[maxAttempts];
+        this.attemptLatencyNanos = new Histogram[maxAttempts];
+        for (int i = 0; i < maxAttempts; i++) {
+            successesByAttempt[i] = new LongAdder();
+            attemptLatencyNanos[i] = new Histogram();
+        }
+    }
+
+    public static CockroachRetry fromEnv() {
+        return new CockroachRetry(
+                Env.getOrDefault("COCKROACH_RETRY_MAX_ATTEMPTS", 3, Integer::parseInt),
+                Env.getOrDefault("COCKROACH_RETRY_BASE_MS", 100L, Long::parseLong),
+                Env.getOrDefault("COCKROACH_RETRY_CAP_MS", 2_000L, Long::parseLong),
+                Env.getOrDefault("COCKROACH_RETRY_SAVEPOINT", false, Boolean::parseBoolean));
+    }
 
     // adapted from https://www.cockroachlabs.com/docs/stable/build-a-java-app-with-cockroachdb.html
-    public static <T> T retrySql(DataSource dataSource, JdbcFunction<Connection, T> work) {
+    // and https://www.cockroachlabs.com/docs/stable/advanced-client-side-transaction-retries.html
+    public <T> T retrySql(DataSource dataSource, JdbcFunction<Connection, T> work) {
+        calls.increment();
+        budget.deposit();
         try (Connection connection = dataSource.getConnection()) {
             connection.setAutoCommit(false);
-            int retryCount = 0;
-            while (retryCount <= MAX_RETRY_COUNT) {
-                if (retryCount == MAX_RETRY_COUNT) {
-                    throw new RuntimeException(String.format("hit max of %s retries, aborting", MAX_RETRY_COUNT));
-                }
+            if (useSavepoint) {
+                // keeps the same transaction (and its accumulated priority) across attempts
+                execute(connection, "SAVEPOINT " + SAVEPOINT);
+            }
+            for (int attempt = 1; ; attempt++) {
+                long start = System.nanoTime();
                 try {
                     T result = work.apply(connection);
+                    if (useSavepoint) {
+                        execute(connection, "RELEASE SAVEPOINT " + SAVEPOINT);
+                    }
                     connection.commit();
+                    attemptLatencyNanos[attempt - 1].record(System.nanoTime() - start);
+                    successesByAttempt[attempt - 1].increment();
                     return result;
                 } catch (SQLException e) {
-                    if (!RETRY_SQL_STATE.equals(e.getSQLState())) {
+                    attemptLatencyNanos[attempt - 1].record(System.nanoTime() - start);
+                    if (!isRetryable(e)) {
+                        connection.rollback();
                         throw e;
                     }
-                    // Since this is a transaction retry error, we
-                    // roll back the transaction and sleep a
-                    // little before trying again.  Each time
-                    // through the loop we sleep for a little
-                    // longer than the last time
-                    // (A.K.A. exponential backoff).
-                    connection.rollback();
-                    retryCount++;
-                    int sleepMillis = (int) (Math.pow(2, retryCount) * 100); // except we removed the random addendum
-                    try {
-                        Thread.sleep(sleepMillis);
-                    } catch (InterruptedException ignored) {
-                        // Necessary to allow the Thread.sleep()
-                        // above so the retry loop can continue.
+                    contentions.increment();
+                    if (attempt == maxAttempts) {
+                        exhaustedAttempts.increment();
+                        connection.rollback();
+                        throw new RuntimeException(String.format("hit max of %s attempts, aborting", maxAttempts), e);
+                    }
+                    if (!budget.tryWithdraw()) {
+                        exhaustedBudget.increment();
+                        connection.rollback();
+                        throw new RuntimeException("retry budget exhausted, aborting", e);
                     }
+                    if (useSavepoint) {
+                        execute(connection, "ROLLBACK TO SAVEPOINT " + SAVEPOINT);
+                    } else {
+                        connection.rollback();
+                    }
+                    backOff(attempt);
                 }
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        throw new RuntimeException("unreachable 🤷‍");
+    }
+
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    public long getContentionCount() {
+        return contentions.sum();
+    }
+
+    public long getExhaustedAttemptsCount() {
+        return exhaustedAttempts.sum();
+    }
+
+    public long getExhaustedBudgetCount() {
+        return exhaustedBudget.sum();
+    }
+
+    /**
+     * @param attempt the attempt number, starting at 1
+     * @return the number of calls that succeeded at that attempt
+     */
+    public long getSuccessCount(int attempt) {
+        return successesByAttempt[attempt - 1].sum();
+    }
+
+    /**
+     * @param attempt the attempt number, starting at 1
+     * @return the latency of that attempt, whatever its outcome
+     */
+    public Histogram getAttemptLatencyNanos(int attempt) {
+        return attemptLatencyNanos[attempt - 1];
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private void backOff(int attempt) {
+        // "full jitter": contending transactions spread out instead of retrying in lockstep
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 30));
+        long sleepMillis = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting to retry", e);
+        }
+    }
+
+    private static boolean isRetryable(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (RETRY_SQL_STATE.equals(current.getSQLState())) {
+                return true;
+            }
+            if (current.getCause() instanceof SQLException cause && RETRY_SQL_STATE.equals(cause.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    // every call earns a fraction of a retry, with a minimum allowance per second so that low traffic can still retry
+    static class RetryBudget {
+        private static final long TOKEN = 1_000;
+
+        private final long depositPerCall;
+        private final long maxBalance;
+        private final int minRetriesPerSecond;
+        private final AtomicLong balance = new AtomicLong();
+        private final AtomicLong reserveWindow = new AtomicLong();
+
+        RetryBudget(double ratio, int minRetriesPerSecond) {
+            this.depositPerCall = (long) (ratio * TOKEN);
+            this.maxBalance = Math.max(TOKEN, (long) (ratio * TOKEN * 1_000));
+            this.minRetriesPerSecond = minRetriesPerSecond;
+        }
+
+        void deposit() {
+            balance.accumulateAndGet(depositPerCall, (current, deposit) -> Math.min(maxBalance, current + deposit));
+        }
+
+        boolean tryWithdraw() {
+            long current;
+            while ((current = balance.get()) >= TOKEN) {
+                if (balance.compareAndSet(current, current - TOKEN)) {
+                    return true;
+                }
+            }
+            return tryWithdrawReserve();
+        }
+
+        // the window packs the current second in the high bits and the retries spent during it in the low 20 bits
+        private boolean tryWithdrawReserve() {
+            long second = System.nanoTime() / 1_000_000_000L;
+            while (true) {
+                long window = reserveWindow.get();
+                long spent = (window >>> 20) == second ? window & 0xFFFFF : 0;
+                if (spent >= minRetriesPerSecond) {
+                    return false;
+                }
+                if (reserveWindow.compareAndSet(window, (second << 20) | (spent + 1))) {
+                    return true;
+                }
+            }
+        }
     }
 }
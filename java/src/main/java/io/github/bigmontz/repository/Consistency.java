@@ -0,0 +1,85 @@
+package io.github.bigmontz.repository;
+
+/**
+ * Consistency token of the request being served, for reads to observe the client's own writes when they are routed
+ * to replicas.
+ * The client sends back the token of its last write, backends make their reads catch up with it and hand out the
+ * token of each write they perform. Tokens are opaque outside of the backend issuing them: a Neo4j bookmark, a
+ * MongoDB operation time or a PostgreSQL WAL position.
+ */
+public final class Consistency {
+
+    private static final ThreadLocal<Consistency> CURRENT = new ThreadLocal<>();
+
+    // outside of any request: nothing to catch up with, written tokens are dropped
+    private static final Consistency NONE = new Consistency(null);
+
+    private final String required;
+    private volatile String observed;
+
+    private Consistency(String required) {
+        this.required = required;
+    }
+
+    /**
+     * @param required the token sent by the client, null if none
+     */
+    public static Consistency of(String required) {
+        return new Consistency(required == null || required.isBlank() ? null : required.trim());
+    }
+
+    public static Consistency current() {
+        Consistency current = CURRENT.get();
+        return current == null ? NONE : current;
+    }
+
+    /**
+     * Makes this the current consistency of the calling thread, until the returned scope is closed.
+     * Async callers enter it again from the thread that carries on the work.
+     */
+    public Scope enter() {
+        Consistency previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    // false outside of a request, where fetching a token after writes is wasted
+    public boolean isTracked() {
+        return this != NONE;
+    }
+
+    /**
+     * @return the token reads have to catch up with: the one of the latest write of this request, else the client's
+     */
+    public String getToken() {
+        String latest = observed;
+        return latest != null ? latest : required;
+    }
+
+    /**
+     * @return the token of the latest write of this request, null if it did not write
+     */
+    public String getObserved() {
+        return observed;
+    }
+
+    // tokens only move forward within a request: writes run one after the other
+    public void observe(String token) {
+        if (isTracked() && token != null) {
+            observed = token;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
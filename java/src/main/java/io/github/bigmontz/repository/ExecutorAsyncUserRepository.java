@@ -0,0 +1,77 @@
+package io.github.bigmontz.repository;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+// for backends without an async driver (JDBC): blocking calls run on a dedicated, bounded executor
+public class ExecutorAsyncUserRepository<ID> implements AsyncUserRepository<ID> {
+
+    private final UserRepository<ID> delegate;
+    private final ExecutorService executor;
+
+    public ExecutorAsyncUserRepository(UserRepository<ID> delegate, ExecutorService executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public CompletionStage<User> createAsync(User user) {
+        return supplyAsync(() -> delegate.create(user));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId) {
+        return supplyAsync(() -> delegate.findById(userId));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId, Set<UserField> fields) {
+        return supplyAsync(() -> delegate.findById(userId, fields));
+    }
+
+    @Override
+    public CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(ID userId) {
+        return supplyAsync(() -> delegate.findUpdatedAt(userId));
+    }
+
+    @Override
+    public CompletionStage<Boolean> updatePasswordAsync(ID userId, PasswordUpdate passwordUpdate) {
+        return supplyAsync(() -> delegate.updatePassword(userId, passwordUpdate));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // the call runs with the caller's consistency token
+    private <T> CompletionStage<T> supplyAsync(Supplier<T> call) {
+        Consistency consistency = Consistency.current();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try (var ignored = consistency.enter()) {
+                    return call.get();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated: fail the stage rather than the caller
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
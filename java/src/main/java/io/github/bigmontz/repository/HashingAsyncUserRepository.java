@@ -0,0 +1,85 @@
+package io.github.bigmontz.repository;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+// async flavour of HashingUserRepository: the backend calls chain on the hashes, nothing blocks on them
+public class HashingAsyncUserRepository<ID> implements AsyncUserRepository<ID> {
+
+    private final AsyncUserRepository<ID> delegate;
+    private final HashingUserRepository<ID> hashing;
+    private final boolean ownsDelegate;
+
+    /**
+     * @param ownsDelegate false if the delegate is closed along with the blocking repository, e.g. a backend
+     *                     implementing both flavours
+     */
+    public HashingAsyncUserRepository(AsyncUserRepository<ID> delegate, HashingUserRepository<ID> hashing, boolean ownsDelegate) {
+        this.delegate = delegate;
+        this.hashing = hashing;
+        this.ownsDelegate = ownsDelegate;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public CompletionStage<User> createAsync(User user) {
+        Consistency consistency = Consistency.current();
+        return hashing.getHasher().hashAsync(user.getPassword())
+                .thenCompose(hash -> within(consistency, () -> delegate.createAsync(HashingUserRepository.withPassword(user, hash))));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId) {
+        return delegate.findByIdAsync(userId);
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId, Set<UserField> fields) {
+        return delegate.findByIdAsync(userId, fields);
+    }
+
+    @Override
+    public CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(ID userId) {
+        return delegate.findUpdatedAtAsync(userId);
+    }
+
+    @Override
+    public CompletionStage<Boolean> updatePasswordAsync(ID userId, PasswordUpdate passwordUpdate) {
+        Consistency consistency = Consistency.current();
+        return delegate.findByIdAsync(userId).thenCompose(stored -> {
+            if (stored.isEmpty()) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return hashing.hashedUpdate(stored.get().getPassword(), passwordUpdate).thenCompose(hashedUpdate -> hashedUpdate == null
+                    ? CompletableFuture.completedFuture(false)
+                    : within(consistency, () -> delegate.updatePasswordAsync(userId, hashedUpdate)));
+        });
+    }
+
+    @Override
+    public void close() {
+        if (ownsDelegate) {
+            delegate.close();
+        }
+    }
+
+    // the backend call starts from a hashing thread, with the consistency of the request
+    private static <T> CompletionStage<T> within(Consistency consistency, Supplier<CompletionStage<T>> call) {
+        try (var ignored = consistency.enter()) {
+            return call.get();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.bigmontz.repository;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Stores password hashes rather than passwords, see {@link PasswordHasher}.
+ * Backends still compare the current password before updating it, which turns the update into a compare-and-set on
+ * the stored hash: an update racing with another one fails instead of overwriting it. Legacy plain-text passwords
+ * are replaced by a hash on their next update.
+ */
+public class HashingUserRepository<ID> implements UserRepository<ID> {
+
+    private static final Set<UserField> PASSWORD_ONLY = EnumSet.of(UserField.PASSWORD);
+
+    private final UserRepository<ID> delegate;
+    private final PasswordHasher hasher;
+    private final LongAdder loadHashingNanos = new LongAdder();
+
+    public HashingUserRepository(UserRepository<ID> delegate, PasswordHasher hasher) {
+        this.delegate = delegate;
+        this.hasher = hasher;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public User create(User user) {
+        return delegate.create(withPassword(user, hasher.hashNow(user.getPassword())));
+    }
+
+    @Override
+    public Optional<User> findById(ID userId) {
+        return delegate.findById(userId);
+    }
+
+    @Override
+    public <T> Optional<T> findById(ID userId, Function<User, T> mapper) {
+        return delegate.findById(userId, mapper);
+    }
+
+    @Override
+    public Optional<User> findById(ID userId, Set<UserField> fields) {
+        return delegate.findById(userId, fields);
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(ID userId) {
+        return delegate.findUpdatedAt(userId);
+    }
+
+    @Override
+    public boolean updatePassword(ID userId, PasswordUpdate passwordUpdate) {
+        Optional<User> stored = delegate.findById(userId, PASSWORD_ONLY);
+        if (stored.isEmpty()) {
+            return false;
+        }
+        String storedPassword = stored.get().getPassword();
+        PasswordUpdate hashedUpdate = PasswordHasher.join(hashedUpdate(storedPassword, passwordUpdate));
+        return hashedUpdate != null && delegate.updatePassword(userId, hashedUpdate);
+    }
+
+    // all passwords are hashed concurrently, as far as the hashing pool allows
+    @Override
+    public List<User> createAll(List<User> users) {
+        var hashes = new ArrayList<CompletableFuture<String>>(users.size());
+        for (User user : users) {
+            hashes.add(hasher.hashAsync(user.getPassword()));
+        }
+        var hashedUsers = new ArrayList<User>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            hashedUsers.add(withPassword(users.get(i), PasswordHasher.join(hashes.get(i))));
+        }
+        return delegate.createAll(hashedUsers);
+    }
+
+    // passwords already hashed, e.g. in an export, are kept as they are. The others are hashed as many at a time as
+    // the pool has threads: loads come in large batches from several threads, which would overflow the hashing queue
+    // all at once
+    @Override
+    public void loadAll(List<User> users) {
+        var hashedUsers = new ArrayList<User>(users);
+        int window = hasher.getThreads();
+        var hashes = new ArrayList<CompletableFuture<String>>(window);
+        for (int from = 0; from < users.size(); from += window) {
+            long start = System.nanoTime();
+            int to = Math.min(users.size(), from + window);
+            hashes.clear();
+            for (int i = from; i < to; i++) {
+                String password = users.get(i).getPassword();
+                hashes.add(PasswordHasher.isHash(password) ? null : hasher.hashAsync(password));
+            }
+            for (int i = from; i < to; i++) {
+                CompletableFuture<String> hash = hashes.get(i - from);
+                if (hash != null) {
+                    hashedUsers.set(i, withPassword(users.get(i), PasswordHasher.join(hash)));
+                }
+            }
+            loadHashingNanos.add(System.nanoTime() - start);
+        }
+        delegate.loadAll(hashedUsers);
+    }
+
+    @Override
+    public Map<ID, User> findAllById(Collection<ID> userIds) {
+        return delegate.findAllById(userIds);
+    }
+
+    @Override
+    public Set<ID> updatePasswords(Map<ID, PasswordUpdate> passwordUpdates) {
+        Map<ID, User> stored = delegate.findAllById(passwordUpdates.keySet());
+        var pending = new HashMap<ID, CompletableFuture<PasswordUpdate>>();
+        stored.forEach((userId, user) -> pending.put(userId, hashedUpdate(user.getPassword(), passwordUpdates.get(userId))));
+        var hashedUpdates = new HashMap<ID, PasswordUpdate>();
+        pending.forEach((userId, hashedUpdate) -> {
+            PasswordUpdate update = PasswordHasher.join(hashedUpdate);
+            if (update != null) {
+                hashedUpdates.put(userId, update);
+            }
+        });
+        return hashedUpdates.isEmpty() ? Set.of() : delegate.updatePasswords(hashedUpdates);
+    }
+
+    @Override
+    public void exportAll(ID afterId, Consumer<? super User> consumer) {
+        delegate.exportAll(afterId, consumer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            hasher.close();
+        }
+    }
+
+    public UserRepository<ID> getDelegate() {
+        return delegate;
+    }
+
+    public PasswordHasher getHasher() {
+        return hasher;
+    }
+
+    // time callers of loadAll spent waiting for their passwords to be hashed, summed over the callers
+    public long getLoadHashingNanos() {
+        return loadHashingNanos.sum();
+    }
+
+    /**
+     * Verifies the current password against the stored one, then hashes the new one: wrong passwords cost a single
+     * hash.
+     *
+     * @return the update of the stored value to the new hash, null if the current password is wrong
+     */
+    CompletableFuture<PasswordUpdate> hashedUpdate(String storedPassword, PasswordUpdate passwordUpdate) {
+        return hasher.verifyAsync(passwordUpdate.getPassword(), storedPassword).thenCompose(verified -> verified
+                ? hasher.hashAsync(passwordUpdate.getNewPassword()).thenApply(hash -> new PasswordUpdate(storedPassword, hash))
+                : CompletableFuture.completedFuture(null));
+    }
+
+    static User withPassword(User user, String password) {
+        return new User(
+                user.getId(),
+                user.getUsername(),
+                user.getName(),
+                user.getAge(),
+                user.getSurname(),
+                password,
+                user.getCreatedAt(),
+                user.getUpdatedAt()
+        );
+    }
+}
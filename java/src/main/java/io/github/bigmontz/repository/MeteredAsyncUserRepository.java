@@ -0,0 +1,80 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.metrics.RepositoryMetrics;
+import io.github.bigmontz.metrics.RepositoryMetrics.Operation;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+// same as MeteredUserRepository, a call is timed until its stage completes
+public class MeteredAsyncUserRepository<ID> implements AsyncUserRepository<ID> {
+
+    private final AsyncUserRepository<ID> delegate;
+    private final RepositoryMetrics metrics;
+    // false when the delegate is also the blocking repository, which closes it
+    private final boolean ownsDelegate;
+
+    public MeteredAsyncUserRepository(AsyncUserRepository<ID> delegate, RepositoryMetrics metrics, boolean ownsDelegate) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.ownsDelegate = ownsDelegate;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public CompletionStage<User> createAsync(User user) {
+        long start = System.nanoTime();
+        return timed(Operation.CREATE, delegate.createAsync(user), start);
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId) {
+        long start = System.nanoTime();
+        return timed(Operation.FIND_BY_ID, delegate.findByIdAsync(userId), start);
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(ID userId, Set<UserField> fields) {
+        long start = System.nanoTime();
+        return timed(Operation.FIND_BY_ID_PROJECTED, delegate.findByIdAsync(userId, fields), start);
+    }
+
+    @Override
+    public CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(ID userId) {
+        long start = System.nanoTime();
+        return timed(Operation.FIND_UPDATED_AT, delegate.findUpdatedAtAsync(userId), start);
+    }
+
+    @Override
+    public CompletionStage<Boolean> updatePasswordAsync(ID userId, PasswordUpdate passwordUpdate) {
+        long start = System.nanoTime();
+        return timed(Operation.UPDATE_PASSWORD, delegate.updatePasswordAsync(userId, passwordUpdate), start);
+    }
+
+    @Override
+    public void close() {
+        if (ownsDelegate) {
+            delegate.close();
+        }
+    }
+
+    private <T> CompletionStage<T> timed(Operation operation, CompletionStage<T> stage, long start) {
+        return stage.whenComplete((value, error) -> {
+            if (error != null) {
+                metrics.recordError(operation);
+            }
+            metrics.record(operation, System.nanoTime() - start);
+        });
+    }
+}
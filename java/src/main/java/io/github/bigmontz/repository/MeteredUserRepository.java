@@ -0,0 +1,192 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.metrics.RepositoryMetrics;
+import io.github.bigmontz.metrics.RepositoryMetrics.Operation;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// times every call of the decorated repository, meant to be the outermost decorator so that cache hits are measured too
+public class MeteredUserRepository<ID> implements UserRepository<ID> {
+
+    private final UserRepository<ID> delegate;
+    private final RepositoryMetrics metrics;
+
+    public MeteredUserRepository(UserRepository<ID> delegate, RepositoryMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public UserRepository<ID> getDelegate() {
+        return delegate;
+    }
+
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public ID parseId(String rawId) {
+        return delegate.parseId(rawId);
+    }
+
+    @Override
+    public String printId(ID id) {
+        return delegate.printId(id);
+    }
+
+    @Override
+    public User create(User user) {
+        long start = System.nanoTime();
+        try {
+            return delegate.create(user);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.CREATE);
+            throw e;
+        } finally {
+            metrics.record(Operation.CREATE, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Optional<User> findById(ID userId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findById(userId);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.FIND_BY_ID);
+            throw e;
+        } finally {
+            metrics.record(Operation.FIND_BY_ID, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public <T> Optional<T> findById(ID userId, Function<User, T> mapper) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findById(userId, mapper);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.FIND_BY_ID);
+            throw e;
+        } finally {
+            metrics.record(Operation.FIND_BY_ID, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Optional<User> findById(ID userId, Set<UserField> fields) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findById(userId, fields);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.FIND_BY_ID_PROJECTED);
+            throw e;
+        } finally {
+            metrics.record(Operation.FIND_BY_ID_PROJECTED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(ID userId) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findUpdatedAt(userId);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.FIND_UPDATED_AT);
+            throw e;
+        } finally {
+            metrics.record(Operation.FIND_UPDATED_AT, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean updatePassword(ID userId, PasswordUpdate passwordUpdate) {
+        long start = System.nanoTime();
+        try {
+            return delegate.updatePassword(userId, passwordUpdate);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.UPDATE_PASSWORD);
+            throw e;
+        } finally {
+            metrics.record(Operation.UPDATE_PASSWORD, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        long start = System.nanoTime();
+        try {
+            return delegate.createAll(users);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.CREATE_ALL);
+            throw e;
+        } finally {
+            metrics.record(Operation.CREATE_ALL, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Map<ID, User> findAllById(Collection<ID> userIds) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findAllById(userIds);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.FIND_ALL_BY_ID);
+            throw e;
+        } finally {
+            metrics.record(Operation.FIND_ALL_BY_ID, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Set<ID> updatePasswords(Map<ID, PasswordUpdate> passwordUpdates) {
+        long start = System.nanoTime();
+        try {
+            return delegate.updatePasswords(passwordUpdates);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.UPDATE_PASSWORDS);
+            throw e;
+        } finally {
+            metrics.record(Operation.UPDATE_PASSWORDS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void loadAll(List<User> users) {
+        long start = System.nanoTime();
+        try {
+            delegate.loadAll(users);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.LOAD_ALL);
+            throw e;
+        } finally {
+            metrics.record(Operation.LOAD_ALL, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void exportAll(ID afterId, Consumer<? super User> consumer) {
+        long start = System.nanoTime();
+        try {
+            delegate.exportAll(afterId, consumer);
+        } catch (RuntimeException e) {
+            metrics.recordError(Operation.EXPORT_ALL);
+            throw e;
+        } finally {
+            metrics.record(Operation.EXPORT_ALL, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,224 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.config.Env;
+import io.github.bigmontz.metrics.Histogram;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Salted PBKDF2 password hashes, computed on a dedicated bounded pool so that hashing cannot starve the threads
+ * serving requests.
+ * Hashes read "pbkdf2-sha256$iterations$salt$key", salt and key in unpadded base64. Stored values without that
+ * prefix are plain-text passwords from before hashing, which still verify until their next update.
+ */
+public class PasswordHasher implements AutoCloseable {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    private static final int CALIBRATION_ITERATIONS = 10_000;
+    private static final int CALIBRATION_RUNS = 5;
+
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+    private final Histogram latencyNanos = new Histogram();
+    private final LongAdder legacyVerifications = new LongAdder();
+
+    /**
+     * @param iterations the work factor of new hashes
+     * @param threads    the hashing threads, more than the CPU count only adds contention
+     * @param queueSize  the hashes waiting for a thread past which hashing fails fast
+     */
+    public PasswordHasher(int iterations, int threads, int queueSize) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException(String.format("invalid iteration count %d", iterations));
+        }
+        this.iterations = iterations;
+        var threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * The work factor is PASSWORD_HASH_ITERATIONS when set, otherwise calibrated so that a hash takes about
+     * PASSWORD_HASH_TARGET_MS on this machine, with PASSWORD_HASH_MIN_ITERATIONS as a floor.
+     */
+    public static PasswordHasher fromEnv() {
+        int iterations = Env.getOrDefault("PASSWORD_HASH_ITERATIONS", 0, Integer::parseInt);
+        if (iterations <= 0) {
+            iterations = calibrate(
+                    Duration.ofMillis(Env.getOrDefault("PASSWORD_HASH_TARGET_MS", 20L, Long::parseLong)),
+                    Env.getOrDefault("PASSWORD_HASH_MIN_ITERATIONS", 10_000, Integer::parseInt));
+        }
+        return new PasswordHasher(
+                iterations,
+                Env.getOrDefault("PASSWORD_HASH_THREADS", Runtime.getRuntime().availableProcessors(), Integer::parseInt),
+                Env.getOrDefault("PASSWORD_HASH_QUEUE_SIZE", 1_000, Integer::parseInt));
+    }
+
+    /**
+     * @return the iteration count for a hash to take about the target duration, rounded to the thousand
+     */
+    public static int calibrate(Duration target, int minIterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        long best = Long.MAX_VALUE;
+        // the first runs include JIT compilation, the fastest run is the closest to the steady state
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            derive("calibration", salt, CALIBRATION_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double iterations = (double) CALIBRATION_ITERATIONS * target.toNanos() / Math.max(1, best);
+        long rounded = Math.round(iterations / 1_000) * 1_000;
+        return (int) Math.max(minIterations, Math.min(Integer.MAX_VALUE, rounded));
+    }
+
+    public CompletableFuture<String> hashAsync(String password) {
+        return submit(() -> hash(password));
+    }
+
+    /**
+     * @param stored the stored hash, or plain-text password of a legacy user
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String stored) {
+        if (password == null || stored == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!stored.startsWith(PREFIX)) {
+            legacyVerifications.increment();
+            return CompletableFuture.completedFuture(MessageDigest.isEqual(password.getBytes(UTF_8), stored.getBytes(UTF_8)));
+        }
+        return submit(() -> verify(password, stored));
+    }
+
+    // whether the given value is a hash rather than a plain-text password
+    public static boolean isHash(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    // blocking flavours, for callers without a pipeline of their own
+    public String hashNow(String password) {
+        return join(hashAsync(password));
+    }
+
+    public boolean verifyNow(String password, String stored) {
+        return join(verifyAsync(password, stored));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public Histogram getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    // plain-text passwords checked, each of which gets hashed on a successful update
+    public long getLegacyVerificationCount() {
+        return legacyVerifications.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return work.get();
+                } finally {
+                    latencyNanos.record(System.nanoTime() - start);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // the queue is full: fail the future rather than the caller, for async pipelines to see it too
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private String hash(String password) {
+        if (password == null) {
+            throw new IllegalArgumentException("missing password");
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] key = derive(password, salt, iterations);
+        return PREFIX + iterations + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(key);
+    }
+
+    // verified with the iteration count of the stored hash, which the next update brings to the current one
+    private static boolean verify(String password, String stored) {
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            byte[] expected = DECODER.decode(parts[2]);
+            byte[] actual = derive(password, DECODER.decode(parts[1]), Integer.parseInt(parts[0]));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException e) {
+            // corrupted hash
+            return false;
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        var spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
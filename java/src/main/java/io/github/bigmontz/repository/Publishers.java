@@ -0,0 +1,50 @@
+package io.github.bigmontz.repository;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+class Publishers {
+
+    /**
+     * Subscribes to the given publisher and completes with its first element, cancelling the subscription afterwards.
+     *
+     * @param publisher the publisher to consume
+     * @param <T>       the element type
+     * @return the first element, empty if the publisher completes without emitting any
+     */
+    static <T> CompletionStage<Optional<T>> first(Publisher<T> publisher) {
+        var result = new CompletableFuture<Optional<T>>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T element) {
+                if (result.complete(Optional.of(element))) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                result.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(Optional.empty());
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,376 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.metrics.Histogram;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Spreads users over several backends of the same type.
+ * The shard is part of the external ID ("2-42" is user 42 of shard 2), so that reads and updates go straight to the
+ * owning shard. New users are placed by consistent hashing of their username, skipping shards that keep failing.
+ * Shards are identified by their position: new ones have to be appended for existing IDs to keep resolving.
+ * Consistency tokens only make sense to the shard that issued them, they are kept per shard: "0:token0 2:token2".
+ */
+public class ShardedUserRepository<ID> implements UserRepository<ShardedUserRepository.ShardedId<ID>> {
+
+    // points per shard on the hash ring, enough for an even spread with a handful of shards
+    private static final int VIRTUAL_NODES = 128;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long RETRY_DELAY_NANOS = Duration.ofSeconds(5).toNanos();
+
+    private final List<Shard<ID>> shards;
+    private final long[] ringPoints;
+    private final int[] ringShards;
+
+    public ShardedUserRepository(List<UserRepository<ID>> repositories) {
+        if (repositories.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is required");
+        }
+        var shards = new ArrayList<Shard<ID>>(repositories.size());
+        for (int i = 0; i < repositories.size(); i++) {
+            shards.add(new Shard<>(i, repositories.get(i)));
+        }
+        this.shards = List.copyOf(shards);
+        int size = repositories.size() * VIRTUAL_NODES;
+        var points = new long[size];
+        var owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            owners[i] = i / VIRTUAL_NODES;
+            points[i] = hash(owners[i] + "#" + i % VIRTUAL_NODES);
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> Long.compare(points[left], points[right]));
+        this.ringPoints = new long[size];
+        this.ringShards = new int[size];
+        for (int i = 0; i < size; i++) {
+            ringPoints[i] = points[order[i]];
+            ringShards[i] = owners[order[i]];
+        }
+    }
+
+    public record ShardedId<ID>(int shard, ID id) {
+    }
+
+    @Override
+    public ShardedId<ID> parseId(String rawId) {
+        int separator = rawId.indexOf('-');
+        if (separator <= 0) {
+            throw new IllegalArgumentException(String.format("invalid user ID %s, expected <shard>-<id>", rawId));
+        }
+        int shard = Integer.parseInt(rawId, 0, separator, 10);
+        return new ShardedId<>(shard, shard(shard).repository.parseId(rawId.substring(separator + 1)));
+    }
+
+    @Override
+    public String printId(ShardedId<ID> id) {
+        return id.shard() + "-" + shard(id.shard()).repository.printId(id.id());
+    }
+
+    @Override
+    public User create(User user) {
+        Shard<ID> shard = placementOf(user);
+        User created = shard.call(() -> shard.repository.create(user));
+        shard.created.increment();
+        return withShard(shard, created);
+    }
+
+    @Override
+    public Optional<User> findById(ShardedId<ID> userId) {
+        Shard<ID> shard = shard(userId.shard());
+        return shard.call(() -> shard.repository.findById(userId.id())).map(user -> withShard(shard, user));
+    }
+
+    @Override
+    public Optional<User> findById(ShardedId<ID> userId, Set<UserField> fields) {
+        Shard<ID> shard = shard(userId.shard());
+        Optional<User> result = shard.call(() -> shard.repository.findById(userId.id(), fields));
+        return fields.contains(UserField.ID) ? result.map(user -> withShard(shard, user)) : result;
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(ShardedId<ID> userId) {
+        Shard<ID> shard = shard(userId.shard());
+        return shard.call(() -> shard.repository.findUpdatedAt(userId.id()));
+    }
+
+    @Override
+    public boolean updatePassword(ShardedId<ID> userId, PasswordUpdate passwordUpdate) {
+        Shard<ID> shard = shard(userId.shard());
+        return shard.call(() -> shard.repository.updatePassword(userId.id(), passwordUpdate));
+    }
+
+    // one call per shard involved, shards are called one after the other
+    @Override
+    public List<User> createAll(List<User> users) {
+        var usersByShard = new LinkedHashMap<Shard<ID>, List<Integer>>();
+        for (int i = 0; i < users.size(); i++) {
+            usersByShard.computeIfAbsent(placementOf(users.get(i)), ignored -> new ArrayList<>()).add(i);
+        }
+        var result = new ArrayList<User>(Arrays.asList(new User[users.size()]));
+        usersByShard.forEach((shard, indexes) -> {
+            var shardUsers = new ArrayList<User>(indexes.size());
+            for (int index : indexes) {
+                shardUsers.add(users.get(index));
+            }
+            List<User> created = shard.call(() -> shard.repository.createAll(shardUsers));
+            shard.created.add(created.size());
+            for (int i = 0; i < created.size(); i++) {
+                result.set(indexes.get(i), withShard(shard, created.get(i)));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void loadAll(List<User> users) {
+        var usersByShard = new LinkedHashMap<Shard<ID>, List<User>>();
+        for (User user : users) {
+            usersByShard.computeIfAbsent(placementOf(user), ignored -> new ArrayList<>()).add(user);
+        }
+        usersByShard.forEach((shard, shardUsers) -> {
+            shard.call(() -> {
+                shard.repository.loadAll(shardUsers);
+                return null;
+            });
+            shard.created.add(shardUsers.size());
+        });
+    }
+
+    @Override
+    public Map<ShardedId<ID>, User> findAllById(Collection<ShardedId<ID>> userIds) {
+        var idsByShard = new LinkedHashMap<Shard<ID>, List<ID>>();
+        for (ShardedId<ID> userId : userIds) {
+            idsByShard.computeIfAbsent(shard(userId.shard()), ignored -> new ArrayList<>()).add(userId.id());
+        }
+        var result = new HashMap<ShardedId<ID>, User>();
+        idsByShard.forEach((shard, ids) -> shard.call(() -> shard.repository.findAllById(ids))
+                .forEach((id, user) -> result.put(new ShardedId<>(shard.index, id), withShard(shard, user))));
+        return result;
+    }
+
+    @Override
+    public Set<ShardedId<ID>> updatePasswords(Map<ShardedId<ID>, PasswordUpdate> passwordUpdates) {
+        var updatesByShard = new LinkedHashMap<Shard<ID>, Map<ID, PasswordUpdate>>();
+        passwordUpdates.forEach((userId, passwordUpdate) -> updatesByShard
+                .computeIfAbsent(shard(userId.shard()), ignored -> new HashMap<>())
+                .put(userId.id(), passwordUpdate));
+        var result = new HashSet<ShardedId<ID>>();
+        updatesByShard.forEach((shard, updates) -> shard.call(() -> shard.repository.updatePasswords(updates))
+                .forEach(id -> result.add(new ShardedId<>(shard.index, id))));
+        return result;
+    }
+
+    // shard after shard, in ID order within each. Not timed nor counted against the shard: an export lasts long and
+    // mostly fails because its client went away
+    @Override
+    public void exportAll(ShardedId<ID> afterId, Consumer<? super User> consumer) {
+        int first = afterId == null ? 0 : shard(afterId.shard()).index;
+        for (int i = first; i < shards.size(); i++) {
+            Shard<ID> shard = shards.get(i);
+            ID shardAfterId = afterId != null && i == afterId.shard() ? afterId.id() : null;
+            shard.repository.exportAll(shardAfterId, user -> consumer.accept(withShard(shard, user)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Shard<ID> shard : shards) {
+            try {
+                shard.repository.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public List<Shard<ID>> getShards() {
+        return shards;
+    }
+
+    private Shard<ID> shard(int index) {
+        if (index < 0 || index >= shards.size()) {
+            throw new IllegalArgumentException(String.format("unknown shard %d", index));
+        }
+        return shards.get(index);
+    }
+
+    // owner of the username on the ring, or the next shard clockwise that is not failing
+    private Shard<ID> placementOf(User user) {
+        long hash = hash(user.getUsername() == null ? "" : user.getUsername());
+        int position = Arrays.binarySearch(ringPoints, hash);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < ringPoints.length; i++) {
+            Shard<ID> candidate = shards.get(ringShards[(position + i) % ringPoints.length]);
+            if (candidate.isAvailable(now)) {
+                return candidate;
+            }
+        }
+        // all failing: let the owner report its error
+        return shards.get(ringShards[position % ringPoints.length]);
+    }
+
+    private static User withShard(Shard<?> shard, User user) {
+        return new User(
+                user.getId() == null ? null : shard.index + "-" + user.getId(),
+                user.getUsername(),
+                user.getName(),
+                user.getAge(),
+                user.getSurname(),
+                user.getPassword(),
+                user.getCreatedAt(),
+                user.getUpdatedAt()
+        );
+    }
+
+    // ignores the malformed entries, e.g. a token issued before sharding
+    private static Map<Integer, String> parseTokens(String token) {
+        var tokens = new TreeMap<Integer, String>();
+        if (token == null) {
+            return tokens;
+        }
+        for (String entry : token.split(" ")) {
+            int separator = entry.indexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                tokens.put(Integer.parseInt(entry, 0, separator, 10), entry.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        return tokens;
+    }
+
+    private static String printTokens(Map<Integer, String> tokens) {
+        var result = new StringBuilder();
+        tokens.forEach((shard, token) -> result.append(result.length() == 0 ? "" : " ").append(shard).append(':').append(token));
+        return result.toString();
+    }
+
+    // 64-bit FNV-1a followed by the MurmurHash3 finalizer, which spreads the close inputs of the virtual nodes
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public static final class Shard<ID> {
+
+        private final int index;
+        private final UserRepository<ID> repository;
+        private final Histogram latencyNanos = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder created = new LongAdder();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long retryAt;
+
+        private Shard(int index, UserRepository<ID> repository) {
+            this.index = index;
+            this.repository = repository;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * A shard is down after {@value #FAILURE_THRESHOLD} failed calls in a row, until a call succeeds.
+         * New users are placed elsewhere meanwhile, but for a retry every few seconds.
+         */
+        public boolean isUp() {
+            return consecutiveFailures.get() < FAILURE_THRESHOLD;
+        }
+
+        public Histogram getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        public long getCreatedCount() {
+            return created.sum();
+        }
+
+        private boolean isAvailable(long now) {
+            return isUp() || now - retryAt >= 0;
+        }
+
+        private <T> T call(Supplier<T> work) {
+            Consistency consistency = Consistency.current();
+            if (!consistency.isTracked()) {
+                return timed(work);
+            }
+            Map<Integer, String> tokens = parseTokens(consistency.getToken());
+            Consistency shardConsistency = Consistency.of(tokens.get(index));
+            try (var ignored = shardConsistency.enter()) {
+                return timed(work);
+            } finally {
+                if (shardConsistency.getObserved() != null) {
+                    tokens.put(index, shardConsistency.getObserved());
+                    consistency.observe(printTokens(tokens));
+                }
+            }
+        }
+
+        private <T> T timed(Supplier<T> work) {
+            long start = System.nanoTime();
+            try {
+                T result = work.get();
+                consecutiveFailures.set(0);
+                return result;
+            } catch (RuntimeException e) {
+                errors.increment();
+                if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+                    retryAt = System.nanoTime() + RETRY_DELAY_NANOS;
+                }
+                throw e;
+            } finally {
+                latencyNanos.record(System.nanoTime() - start);
+            }
+        }
+    }
+}
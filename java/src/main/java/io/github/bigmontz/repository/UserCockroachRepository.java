@@ -1,24 +1,34 @@
 package io.github.bigmontz.repository;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
-// same as UserPostgresRepository except for updatePassword
+// same as UserPostgresRepository except for the transactional writes, which are retried
 public class UserCockroachRepository implements UserRepository<Long> {
 
     private static final ZoneId UTC = ZoneId.of("UTC");
 
     private final DataSource dataSource;
     private final UserPostgresRepository delegate;
+    private final CockroachRetry retry;
 
-    public UserCockroachRepository(DataSource dataSource) {
+    public UserCockroachRepository(DataSource dataSource, CockroachRetry retry) {
         this.dataSource = dataSource;
-        this.delegate = new UserPostgresRepository(dataSource);
+        // SERIAL columns default to unique_rowid() rather than to a sequence
+        this.delegate = new UserPostgresRepository(dataSource, List.of(), "unique_rowid()");
+        this.retry = retry;
     }
 
     @Override
@@ -41,15 +51,56 @@ public class UserCockroachRepository implements UserRepository<Long> {
         return delegate.findById(userId);
     }
 
+    @Override
+    public Optional<User> findById(Long userId, Set<UserField> fields) {
+        return delegate.findById(userId, fields);
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(Long userId) {
+        return delegate.findUpdatedAt(userId);
+    }
+
     @Override
     public boolean updatePassword(Long userId, PasswordUpdate passwordUpdate) {
-        return CockroachRetry.retrySql(dataSource,
+        return retry.retrySql(dataSource,
                 connection -> delegate.doUpdatePassword(connection, userId, passwordUpdate));
     }
 
     @Override
-    public void close() {
+    public List<User> createAll(List<User> users) {
+        return retry.retrySql(dataSource, connection -> delegate.doCreateAll(connection, users));
+    }
+
+    // not retried: CockroachDB may commit a COPY in several batches, a retry could load part of the users twice
+    @Override
+    public void loadAll(List<User> users) {
+        delegate.loadAll(users);
+    }
+
+    @Override
+    public Map<Long, User> findAllById(Collection<Long> userIds) {
+        return delegate.findAllById(userIds);
+    }
+
+    @Override
+    public Set<Long> updatePasswords(Map<Long, PasswordUpdate> passwordUpdates) {
+        return retry.retrySql(dataSource,
+                connection -> delegate.doUpdatePasswords(connection, passwordUpdates));
+    }
 
+    @Override
+    public void exportAll(Long afterId, Consumer<? super User> consumer) {
+        delegate.exportAll(afterId, consumer);
+    }
+
+    public CockroachRetry getRetry() {
+        return retry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
     }
 
 }
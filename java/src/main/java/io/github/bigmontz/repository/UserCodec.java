@@ -0,0 +1,68 @@
+package io.github.bigmontz.repository;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+// decodes BSON straight into User, without going through an intermediate Document
+class UserCodec implements Codec<User> {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    @Override
+    public User decode(BsonReader reader, DecoderContext decoderContext) {
+        String id = null;
+        String username = null;
+        String name = null;
+        int age = 0;
+        String surname = null;
+        String password = null;
+        ZonedDateTime createdAt = null;
+        ZonedDateTime updatedAt = null;
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id" -> id = reader.readObjectId().toHexString();
+                case "username" -> username = reader.readString();
+                case "name" -> name = reader.readString();
+                case "age" -> age = reader.readInt32();
+                case "surname" -> surname = reader.readString();
+                case "password" -> password = reader.readString();
+                case "created_at" -> createdAt = Instant.ofEpochMilli(reader.readDateTime()).atZone(UTC);
+                case "updated_at" -> updatedAt = Instant.ofEpochMilli(reader.readDateTime()).atZone(UTC);
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return new User(id, username, name, age, surname, password, createdAt, updatedAt);
+    }
+
+    @Override
+    public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (user.getId() != null) {
+            writer.writeObjectId("_id", new ObjectId(user.getId().toString()));
+        }
+        writer.writeString("username", user.getUsername());
+        writer.writeString("name", user.getName());
+        writer.writeInt32("age", user.getAge());
+        writer.writeString("surname", user.getSurname());
+        writer.writeString("password", user.getPassword());
+        writer.writeDateTime("created_at", user.getCreatedAt().toInstant().toEpochMilli());
+        writer.writeDateTime("updated_at", user.getUpdatedAt().toInstant().toEpochMilli());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<User> getEncoderClass() {
+        return User.class;
+    }
+}
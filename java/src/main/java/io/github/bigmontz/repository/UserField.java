@@ -0,0 +1,70 @@
+package io.github.bigmontz.repository;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+
+public enum UserField {
+    ID("id", "id", User::getId),
+    USERNAME("username", "username", User::getUsername),
+    NAME("name", "name", User::getName),
+    AGE("age", "age", User::getAge),
+    SURNAME("surname", "surname", User::getSurname),
+    PASSWORD("password", "password", User::getPassword),
+    CREATED_AT("created_at", "createdAt", User::getCreatedAt),
+    UPDATED_AT("updated_at", "updatedAt", User::getUpdatedAt);
+
+    // JSON field, SQL column and Mongo document field all share the same snake case name
+    private final String name;
+    private final String neo4jProperty;
+    private final Function<User, Object> accessor;
+
+    UserField(String name, String neo4jProperty, Function<User, Object> accessor) {
+        this.name = name;
+        this.neo4jProperty = neo4jProperty;
+        this.accessor = accessor;
+    }
+
+    /**
+     * Parses a comma-separated list of field names, e.g. "username,age".
+     *
+     * @param rawFields the field names as exposed in JSON
+     * @return the matching fields
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public static Set<UserField> parse(String rawFields) {
+        var fields = EnumSet.noneOf(UserField.class);
+        for (String rawField : rawFields.split(",")) {
+            var trimmed = rawField.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            fields.add(byName(trimmed));
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("at least one field should be selected");
+        }
+        return fields;
+    }
+
+    private static UserField byName(String name) {
+        for (UserField field : values()) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException(String.format("unknown user field %s", name));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getNeo4jProperty() {
+        return neo4jProperty;
+    }
+
+    public Object valueOf(User user) {
+        return accessor.apply(user);
+    }
+}
@@ -0,0 +1,655 @@
+package io.github.bigmontz.repository;
+
+import io.github.bigmontz.mmap.MappedLog;
+import io.github.bigmontz.mmap.MmapSettings;
+import io.github.bigmontz.mmap.OffHeapLongIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Single-node store keeping users in an append-only, memory-mapped log of fixed-size records, indexed by an off-heap
+ * ID to offset hash table.
+ * Each record holds two password slots: a password update fills the inactive one and then flips the record state with
+ * a compare-and-set, so readers never block and a crash mid-update leaves the previous password in place.
+ * The index is checkpointed periodically, so that recovery only has to replay the log past the last checkpoint, and
+ * the log is compacted in the background once too many records are dead (e.g. torn by a crash).
+ */
+public class UserMmapRepository implements UserRepository<Long> {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final String LOG_FILE = "users.log";
+    private static final String COMPACTION_FILE = "users.log.compacting";
+    private static final String CHECKPOINT_FILE = "users.idx";
+    private static final String CHECKPOINT_TEMPORARY_FILE = "users.idx.tmp";
+    private static final long CHECKPOINT_MAGIC = 0x3158_4449_5245_5355L; // "USERIDX1", little-endian
+
+    // record layout, all offsets are relative to the start of the record
+    private static final int RECORD_SIZE = 1024;
+    private static final int MARKER = 0;
+    private static final int CHECKSUM = 4; // CRC32C of [ID, IMMUTABLE_END)
+    private static final int STATE = 8; // version << 2 | WRITING | active password slot, outside of the checksum
+    private static final int ID = 16;
+    private static final int CREATED_AT = 24; // nanoseconds since the epoch
+    private static final int AGE = 32;
+    private static final int USERNAME = 40;
+    private static final int NAME = 168;
+    private static final int SURNAME = 296;
+    private static final int IMMUTABLE_END = 424;
+    private static final int STRING_CAPACITY = 126; // 2 bytes of length, then UTF-8 bytes
+    private static final int PASSWORD_SLOTS = IMMUTABLE_END;
+    private static final int PASSWORD_SLOT_SIZE = 256;
+    private static final int SLOT_UPDATED_AT = 0;
+    private static final int SLOT_CHECKSUM = 8; // CRC32C of [SLOT_UPDATED_AT, SLOT_CHECKSUM) and [SLOT_LENGTH, end of the password)
+    private static final int SLOT_LENGTH = 12;
+    private static final int SLOT_PASSWORD = 14;
+    private static final int PASSWORD_CAPACITY = PASSWORD_SLOT_SIZE - SLOT_PASSWORD;
+
+    private static final int COMMITTED = 0x4D4D_4F43; // "COMM"
+    private static final int ABANDONED = 0x4E42_4241; // "ABBN"
+
+    private static final long WRITING = 0b10;
+    private static final long SLOT_MASK = 0b01;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final MmapSettings settings;
+    private final Path logPath;
+    private final AtomicLong lastId = new AtomicLong();
+    private final AtomicLong garbageCount = new AtomicLong();
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong failedMaintenanceCount = new AtomicLong();
+    // creations and updates share the read side, checkpoints and compactions take the write side to see a quiescent log
+    private final ReentrantReadWriteLock writes = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService maintenance;
+    private volatile Store store;
+    private volatile long checkpointedTail;
+
+    public UserMmapRepository(MmapSettings settings) {
+        this.settings = settings;
+        this.logPath = settings.getDirectory().resolve(LOG_FILE);
+        try {
+            Files.createDirectories(settings.getDirectory());
+            Files.deleteIfExists(settings.getDirectory().resolve(COMPACTION_FILE));
+            this.store = recover();
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("could not open the user log in %s", settings.getDirectory()), e);
+        }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mmap-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = settings.getMaintenanceInterval().toMillis();
+        this.maintenance.scheduleWithFixedDelay(this::maintain, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Long parseId(String rawId) {
+        return Long.parseLong(rawId);
+    }
+
+    @Override
+    public String printId(Long value) {
+        return value.toString();
+    }
+
+    @Override
+    public User create(User user) {
+        var username = encode("username", user.getUsername(), STRING_CAPACITY);
+        var name = encode("name", user.getName(), STRING_CAPACITY);
+        var surname = encode("surname", user.getSurname(), STRING_CAPACITY);
+        var password = encode("password", user.getPassword(), PASSWORD_CAPACITY);
+        var now = Instant.now();
+        long nowNanos = toEpochNanos(now);
+
+        Scratch scratch = SCRATCH.get();
+        ByteBuffer record = scratch.clear();
+        record.putLong(STATE, 0L);
+        record.putInt(AGE, user.getAge());
+        record.putLong(CREATED_AT, nowNanos);
+        putString(record, USERNAME, username);
+        putString(record, NAME, name);
+        putString(record, SURNAME, surname);
+        putPasswordSlot(scratch, PASSWORD_SLOTS, nowNanos, password);
+
+        writes.readLock().lock();
+        try {
+            Store current = store;
+            MappedLog log = current.log;
+            long id = lastId.incrementAndGet();
+            record.putLong(ID, id);
+            record.putInt(CHECKSUM, checksum(scratch, ID, IMMUTABLE_END - ID));
+            long offset = log.append();
+            try {
+                log.put(offset + CHECKSUM, scratch.bytes, CHECKSUM, RECORD_SIZE - CHECKSUM);
+                log.putIntRelease(offset + MARKER, COMMITTED);
+                if (settings.isSyncWrites()) {
+                    log.force(offset, RECORD_SIZE);
+                }
+            } catch (RuntimeException e) {
+                log.putIntRelease(offset + MARKER, ABANDONED);
+                garbageCount.incrementAndGet();
+                throw e;
+            }
+            current.index.put(id, offset);
+            var timestamp = now.atZone(UTC);
+            return new User(id, user.getUsername(), user.getName(), user.getAge(), user.getSurname(), user.getPassword(), timestamp, timestamp);
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> findById(Long userId) {
+        if (userId <= 0) {
+            return Optional.empty();
+        }
+        Store current = store;
+        long offset = current.index.get(userId);
+        if (offset == OffHeapLongIndex.MISSING) {
+            return Optional.empty();
+        }
+        Scratch scratch = SCRATCH.get();
+        long state = readConsistently(current.log, offset, scratch);
+        ByteBuffer record = scratch.buffer;
+        int slot = PASSWORD_SLOTS + (int) (state & SLOT_MASK) * PASSWORD_SLOT_SIZE;
+        return Optional.of(new User(
+                record.getLong(ID),
+                getString(scratch, USERNAME),
+                getString(scratch, NAME),
+                record.getInt(AGE),
+                getString(scratch, SURNAME),
+                getString(scratch, slot + SLOT_LENGTH),
+                toZonedDateTime(record.getLong(CREATED_AT)),
+                toZonedDateTime(record.getLong(slot + SLOT_UPDATED_AT))
+        ));
+    }
+
+    // only reads the active password slot's timestamp, with the same retry as readConsistently
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(Long userId) {
+        if (userId <= 0) {
+            return Optional.empty();
+        }
+        Store current = store;
+        long offset = current.index.get(userId);
+        if (offset == OffHeapLongIndex.MISSING) {
+            return Optional.empty();
+        }
+        MappedLog log = current.log;
+        while (true) {
+            long state = log.getLongVolatile(offset + STATE);
+            int slot = PASSWORD_SLOTS + (int) (state & SLOT_MASK) * PASSWORD_SLOT_SIZE;
+            long updatedAt = log.getLong(offset + slot + SLOT_UPDATED_AT);
+            VarHandle.acquireFence();
+            if (((log.getLongVolatile(offset + STATE) ^ state) & ~WRITING) == 0) {
+                return Optional.of(toZonedDateTime(updatedAt));
+            }
+        }
+    }
+
+    @Override
+    public boolean updatePassword(Long userId, PasswordUpdate passwordUpdate) {
+        // IDs start at 1, offset 0 is the header of the log
+        if (userId <= 0 || passwordUpdate.getPassword() == null) {
+            return false;
+        }
+        var expected = passwordUpdate.getPassword().getBytes(UTF_8);
+        var newPassword = encode("new password", passwordUpdate.getNewPassword(), PASSWORD_CAPACITY);
+        writes.readLock().lock();
+        try {
+            Store current = store;
+            long offset = current.index.get(userId);
+            if (offset == OffHeapLongIndex.MISSING) {
+                return false;
+            }
+            return compareAndSetPassword(current.log, offset, expected, newPassword);
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    // IDs are allocated in sequence: walking them through the index reads the log in order, compactions included
+    @Override
+    public void exportAll(Long afterId, Consumer<? super User> consumer) {
+        long last = lastId.get();
+        // afterId + 1 overflows past the last possible ID
+        for (long id = afterId == null || afterId < 1 ? 1 : afterId + 1; id > 0 && id <= last; id++) {
+            findById(id).ifPresent(consumer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+        store.log.close();
+    }
+
+    public int getUserCount() {
+        return store.index.size();
+    }
+
+    // dead records waiting for the next compaction
+    public long getGarbageCount() {
+        return garbageCount.get();
+    }
+
+    public long getLogSize() {
+        return store.log.tail();
+    }
+
+    public long getCompactionCount() {
+        return compactionCount.get();
+    }
+
+    public long getFailedMaintenanceCount() {
+        return failedMaintenanceCount.get();
+    }
+
+    private boolean compareAndSetPassword(MappedLog log, long offset, byte[] expected, byte[] newPassword) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            long state = log.getLongVolatile(offset + STATE);
+            if ((state & WRITING) != 0) {
+                // another update of the same user is in flight
+                Thread.onSpinWait();
+                continue;
+            }
+            int activeSlot = PASSWORD_SLOTS + (int) (state & SLOT_MASK) * PASSWORD_SLOT_SIZE;
+            int length = log.getShort(offset + activeSlot + SLOT_LENGTH);
+            boolean matches = length == expected.length;
+            if (matches) {
+                log.get(offset + activeSlot + SLOT_PASSWORD, scratch.bytes, length);
+                matches = Arrays.equals(scratch.bytes, 0, length, expected, 0, expected.length);
+            }
+            if (!matches) {
+                VarHandle.acquireFence();
+                if (log.getLongVolatile(offset + STATE) == state) {
+                    return false;
+                }
+                // the active slot changed while it was being compared
+                continue;
+            }
+            if (!log.compareAndSetLong(offset + STATE, state, state | WRITING)) {
+                continue;
+            }
+            int inactiveSlot = PASSWORD_SLOTS + (int) (~state & SLOT_MASK) * PASSWORD_SLOT_SIZE;
+            long nextState = (((state >>> 2) + 1) << 2) | (~state & SLOT_MASK);
+            try {
+                scratch.clear();
+                putPasswordSlot(scratch, 0, toEpochNanos(Instant.now()), newPassword);
+                log.put(offset + inactiveSlot, scratch.bytes, 0, PASSWORD_SLOT_SIZE);
+                if (settings.isSyncWrites()) {
+                    log.force(offset + inactiveSlot, PASSWORD_SLOT_SIZE);
+                }
+            } catch (RuntimeException e) {
+                log.putLongVolatile(offset + STATE, state);
+                throw e;
+            }
+            log.putLongVolatile(offset + STATE, nextState);
+            if (settings.isSyncWrites()) {
+                log.force(offset + STATE, Long.BYTES);
+            }
+            return true;
+        }
+    }
+
+    // seqlock-style read: copy the record, retry if its password slot flipped meanwhile
+    private static long readConsistently(MappedLog log, long offset, Scratch scratch) {
+        while (true) {
+            long state = log.getLongVolatile(offset + STATE);
+            log.get(offset, scratch.bytes, RECORD_SIZE);
+            VarHandle.acquireFence();
+            if (((log.getLongVolatile(offset + STATE) ^ state) & ~WRITING) == 0) {
+                return state;
+            }
+        }
+    }
+
+    private Store recover() throws IOException {
+        var log = MappedLog.open(logPath, RECORD_SIZE, settings.getChunkSize());
+        var index = new OffHeapLongIndex(settings.getInitialIndexCapacity());
+        long replayFrom = loadCheckpoint(log, index);
+        checkpointedTail = replayFrom;
+        Scratch scratch = SCRATCH.get();
+        // updates the crash cut short on records the checkpoint covers, which the replay below does not visit: left
+        // marked as writing, the next update of their user would wait for them forever
+        index.forEach((id, offset) -> {
+            long state = log.getLongVolatile(offset + STATE);
+            if ((state & WRITING) != 0 && !repair(log, offset, scratch)) {
+                // damaged beyond the update, which is cancelled all the same
+                log.putLongVolatile(offset + STATE, state & ~WRITING);
+            }
+        });
+        long tail = replayFrom;
+        long holes = 0;
+        for (long offset = replayFrom; offset < log.mappedEnd(); offset += RECORD_SIZE) {
+            int marker = log.getInt(offset + MARKER);
+            if (marker == 0) {
+                // either past the end of the log, or reserved by a creation that never completed
+                holes++;
+                continue;
+            }
+            garbageCount.addAndGet(holes);
+            holes = 0;
+            tail = offset + RECORD_SIZE;
+            if (marker == COMMITTED && repair(log, offset, scratch)) {
+                long id = log.getLong(offset + ID);
+                index.put(id, offset);
+                lastId.accumulateAndGet(id, Math::max);
+            } else {
+                garbageCount.incrementAndGet();
+            }
+        }
+        log.resetTail(tail);
+        return new Store(log, index);
+    }
+
+    /**
+     * Checks the record survived the crash, rolling its password back to the other slot if the active one is torn.
+     *
+     * @return false if the record is beyond repair
+     */
+    private static boolean repair(MappedLog log, long offset, Scratch scratch) {
+        log.get(offset, scratch.bytes, RECORD_SIZE);
+        if (scratch.buffer.getInt(CHECKSUM) != checksum(scratch, ID, IMMUTABLE_END - ID)) {
+            return false;
+        }
+        long state = scratch.buffer.getLong(STATE) & ~WRITING;
+        if (!isValidSlot(scratch, PASSWORD_SLOTS + (int) (state & SLOT_MASK) * PASSWORD_SLOT_SIZE)) {
+            if (!isValidSlot(scratch, PASSWORD_SLOTS + (int) (~state & SLOT_MASK) * PASSWORD_SLOT_SIZE)) {
+                return false;
+            }
+            state = (((state >>> 2) + 1) << 2) | (~state & SLOT_MASK);
+        }
+        log.putLongVolatile(offset + STATE, state);
+        return true;
+    }
+
+    private void maintain() {
+        try {
+            Store current = store;
+            long records = (current.log.tail() - current.log.firstOffset()) / RECORD_SIZE;
+            if (garbageCount.get() > 0 && garbageCount.get() >= records * settings.getCompactionGarbageRatio()) {
+                compact();
+            } else if (current.log.tail() != checkpointedTail) {
+                checkpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            // left as is until the next run
+            failedMaintenanceCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Rewrites the live records into a new log.
+     * The bulk of the copy runs concurrently with writes, which are only paused to catch up with what changed
+     * meanwhile and to swap the logs.
+     */
+    private void compact() throws IOException {
+        Store source = store;
+        var compactionPath = settings.getDirectory().resolve(COMPACTION_FILE);
+        var target = new Store(
+                MappedLog.create(compactionPath, RECORD_SIZE, settings.getChunkSize()),
+                new OffHeapLongIndex(Math.max(source.index.size(), settings.getInitialIndexCapacity())));
+        Scratch scratch = new Scratch();
+        try {
+            long copiedUntil = source.log.tail();
+            var pending = new ArrayList<Long>();
+            copyRecords(source.log, source.log.firstOffset(), copiedUntil, target, pending, scratch);
+
+            writes.writeLock().lock();
+            try {
+                // password updates that happened during the copy
+                target.index.forEach((id, targetOffset) -> {
+                    long sourceOffset = source.index.get(id);
+                    if (source.log.getLong(sourceOffset + STATE) != target.log.getLong(targetOffset + STATE)) {
+                        source.log.get(sourceOffset, scratch.bytes, RECORD_SIZE);
+                        target.log.put(targetOffset + STATE, scratch.bytes, STATE, RECORD_SIZE - STATE);
+                    }
+                });
+                // creations that were still in flight, then everything appended since the copy started
+                for (long offset : pending) {
+                    copyRecords(source.log, offset, offset + RECORD_SIZE, target, new ArrayList<>(), scratch);
+                }
+                copyRecords(source.log, copiedUntil, source.log.tail(), target, new ArrayList<>(), scratch);
+                target.log.force();
+                Files.move(compactionPath, logPath, ATOMIC_MOVE, REPLACE_EXISTING);
+                store = target;
+                garbageCount.set(0);
+                compactionCount.incrementAndGet();
+            } finally {
+                writes.writeLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (store != target) {
+                target.log.close();
+                Files.deleteIfExists(compactionPath);
+            }
+            throw e;
+        }
+        source.log.close();
+        checkpoint();
+    }
+
+    private static void copyRecords(MappedLog source, long from, long to, Store target, List<Long> pending, Scratch scratch) {
+        for (long offset = from; offset < to; offset += RECORD_SIZE) {
+            int marker = source.getIntAcquire(offset + MARKER);
+            if (marker == 0) {
+                pending.add(offset);
+                continue;
+            }
+            if (marker != COMMITTED) {
+                continue;
+            }
+            source.get(offset, scratch.bytes, RECORD_SIZE);
+            if (scratch.buffer.getInt(CHECKSUM) != checksum(scratch, ID, IMMUTABLE_END - ID)) {
+                continue;
+            }
+            long targetOffset = target.log.append();
+            target.log.put(targetOffset + CHECKSUM, scratch.bytes, CHECKSUM, RECORD_SIZE - CHECKSUM);
+            target.log.putIntRelease(targetOffset + MARKER, COMMITTED);
+            target.index.put(scratch.buffer.getLong(ID), targetOffset);
+        }
+    }
+
+    /**
+     * Persists the index up to the current tail, so that the next recovery only replays what comes after.
+     * The log is forced first: the checkpoint must never reference records the storage device has not seen.
+     */
+    private synchronized void checkpoint() throws IOException {
+        Store current;
+        long tail;
+        long maxId;
+        long garbage;
+        writes.writeLock().lock();
+        try {
+            current = store;
+            tail = current.log.tail();
+            maxId = lastId.get();
+            garbage = garbageCount.get();
+        } finally {
+            writes.writeLock().unlock();
+        }
+        current.log.force();
+        var temporaryPath = settings.getDirectory().resolve(CHECKPOINT_TEMPORARY_FILE);
+        try (var file = new FileOutputStream(temporaryPath.toFile());
+             var checked = new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), new CRC32C());
+             var out = new DataOutputStream(checked)) {
+            out.writeLong(CHECKPOINT_MAGIC);
+            out.writeLong(current.log.getGeneration());
+            out.writeLong(tail);
+            out.writeLong(maxId);
+            out.writeLong(garbage);
+            var failure = new IOException[1];
+            current.index.forEach((id, offset) -> {
+                // entries past the tail belong to the next checkpoint
+                if (offset < tail && failure[0] == null) {
+                    try {
+                        out.writeLong(id);
+                        out.writeLong(offset);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            out.writeLong(0L);
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temporaryPath, settings.getDirectory().resolve(CHECKPOINT_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+        checkpointedTail = tail;
+    }
+
+    // returns the offset to replay the log from
+    private long loadCheckpoint(MappedLog log, OffHeapLongIndex index) throws IOException {
+        var checksum = new CRC32C();
+        try (var in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(settings.getDirectory().resolve(CHECKPOINT_FILE)), 64 * 1024), checksum))) {
+            if (in.readLong() != CHECKPOINT_MAGIC || in.readLong() != log.getGeneration()) {
+                // written for a log that has been compacted since
+                return log.firstOffset();
+            }
+            long tail = in.readLong();
+            long maxId = in.readLong();
+            long garbage = in.readLong();
+            var entries = new OffHeapLongIndex(settings.getInitialIndexCapacity());
+            for (long id = in.readLong(); id != 0L; id = in.readLong()) {
+                entries.put(id, in.readLong());
+            }
+            int expectedChecksum = (int) checksum.getValue();
+            if (in.readInt() != expectedChecksum || tail > log.mappedEnd()) {
+                return log.firstOffset();
+            }
+            entries.forEach(index::put);
+            lastId.set(maxId);
+            garbageCount.set(garbage);
+            return tail;
+        } catch (IOException e) {
+            // missing, or truncated by a crash while it was written: replay the whole log
+            return log.firstOffset();
+        }
+    }
+
+    private static byte[] encode(String field, String value, int capacity) {
+        if (value == null) {
+            throw new IllegalArgumentException(String.format("missing %s", field));
+        }
+        var bytes = value.getBytes(UTF_8);
+        if (bytes.length > capacity) {
+            throw new IllegalArgumentException(String.format("%s exceeds %d bytes", field, capacity));
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer record, int offset, byte[] value) {
+        record.putShort(offset, (short) value.length);
+        record.put(offset + 2, value);
+    }
+
+    private static String getString(Scratch scratch, int offset) {
+        int length = scratch.buffer.getShort(offset);
+        return new String(scratch.bytes, offset + 2, length, UTF_8);
+    }
+
+    private static void putPasswordSlot(Scratch scratch, int slot, long updatedAtNanos, byte[] password) {
+        ByteBuffer buffer = scratch.buffer;
+        buffer.putLong(slot + SLOT_UPDATED_AT, updatedAtNanos);
+        putString(buffer, slot + SLOT_LENGTH, password);
+        buffer.putInt(slot + SLOT_CHECKSUM, slotChecksum(scratch, slot, password.length));
+    }
+
+    private static boolean isValidSlot(Scratch scratch, int slot) {
+        int length = scratch.buffer.getShort(slot + SLOT_LENGTH);
+        return length >= 0 && length <= PASSWORD_CAPACITY
+                && scratch.buffer.getInt(slot + SLOT_CHECKSUM) == slotChecksum(scratch, slot, length);
+    }
+
+    private static int slotChecksum(Scratch scratch, int slot, int length) {
+        var crc = scratch.crc;
+        crc.reset();
+        crc.update(scratch.bytes, slot + SLOT_UPDATED_AT, SLOT_CHECKSUM - SLOT_UPDATED_AT);
+        crc.update(scratch.bytes, slot + SLOT_LENGTH, SLOT_PASSWORD - SLOT_LENGTH + length);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(Scratch scratch, int offset, int length) {
+        var crc = scratch.crc;
+        crc.reset();
+        crc.update(scratch.bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static long toEpochNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    private static ZonedDateTime toZonedDateTime(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos).atZone(UTC);
+    }
+
+    // the log and its index, swapped together by compactions
+    private static final class Store {
+
+        private final MappedLog log;
+        private final OffHeapLongIndex index;
+
+        Store(MappedLog log, OffHeapLongIndex index) {
+            this.log = log;
+            this.index = index;
+        }
+    }
+
+    // per-thread copy of a record, decoded and encoded off the mapped file
+    private static final class Scratch {
+
+        private final byte[] bytes = new byte[RECORD_SIZE];
+        private final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(MappedLog.order());
+        private final CRC32C crc = new CRC32C();
+
+        ByteBuffer clear() {
+            Arrays.fill(bytes, (byte) 0);
+            return buffer;
+        }
+    }
+}
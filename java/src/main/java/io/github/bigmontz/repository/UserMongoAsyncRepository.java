@@ -0,0 +1,151 @@
+package io.github.bigmontz.repository;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.ClientSession;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonObjectId;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static com.mongodb.client.model.Filters.and;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+// same storage layout, sessions and modes as UserMongoRepository, on top of the reactive streams driver
+public class UserMongoAsyncRepository implements AsyncUserRepository<BsonObjectId> {
+
+    private final MongoClient mongoClient;
+    private final boolean highThroughput;
+    private final MongoCollection<Document> collection;
+    private final MongoCollection<User> typedCollection;
+
+    /**
+     * @param highThroughput same as for {@link UserMongoRepository#UserMongoRepository(com.mongodb.client.MongoClient, boolean, WriteConcern, ReadPreference)}
+     */
+    public UserMongoAsyncRepository(MongoClient mongoClient, boolean highThroughput, WriteConcern writeConcern, ReadPreference readPreference) {
+        this.mongoClient = mongoClient;
+        this.highThroughput = highThroughput;
+        this.collection = mongoClient.getDatabase("admin")
+                .getCollection("users")
+                .withWriteConcern(writeConcern)
+                .withReadPreference(readPreference);
+        this.typedCollection = collection
+                .withDocumentClass(User.class)
+                .withCodecRegistry(fromRegistries(fromCodecs(new UserCodec()), collection.getCodecRegistry()));
+    }
+
+    @Override
+    public BsonObjectId parseId(String rawId) {
+        return new BsonObjectId(new ObjectId(rawId));
+    }
+
+    @Override
+    public String printId(BsonObjectId bsonObjectId) {
+        return bsonObjectId.getValue().toHexString();
+    }
+
+    @Override
+    public CompletionStage<User> createAsync(User user) {
+        var now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        return inSession(true, session -> Publishers.first(collection.insertOne(session, UserMongoRepository.toDocument(user, now))).thenCompose(result -> {
+            var insertedId = result.orElseThrow(() -> new RuntimeException("user creation failed")).getInsertedId().asObjectId();
+            if (highThroughput) {
+                return CompletableFuture.completedFuture(UserMongoRepository.created(insertedId, user, now));
+            }
+            // read back in the same session, which sees the insertion whatever the read preference
+            return Publishers.first(collection.find(session, byObjectId(insertedId)).first())
+                    .thenApply(document -> UserMongoRepository.fromDocument(document.orElseThrow(() -> new RuntimeException("user creation failed"))));
+        }));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(BsonObjectId userId) {
+        if (highThroughput) {
+            return findFirst(typedCollection, byObjectId(userId), null);
+        }
+        return findFirst(collection, byObjectId(userId), null).thenApply(document -> document.map(UserMongoRepository::fromDocument));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(BsonObjectId userId, Set<UserField> fields) {
+        Bson projection = UserMongoRepository.projection(fields);
+        if (highThroughput) {
+            return findFirst(typedCollection, byObjectId(userId), projection);
+        }
+        return findFirst(collection, byObjectId(userId), projection).thenApply(document -> document.map(UserMongoRepository::fromPartialDocument));
+    }
+
+    @Override
+    public CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(BsonObjectId userId) {
+        return findFirst(collection, byObjectId(userId), UserMongoRepository.UPDATED_AT_PROJECTION)
+                .thenApply(document -> document.map(UserMongoRepository::updatedAt));
+    }
+
+    @Override
+    public CompletionStage<Boolean> updatePasswordAsync(BsonObjectId userId, PasswordUpdate passwordUpdate) {
+        Bson filter = and(byObjectId(userId), Filters.eq("password", passwordUpdate.getPassword()));
+        Bson update = UserMongoRepository.passwordSet(passwordUpdate.getNewPassword());
+        if (highThroughput) {
+            // single-document updates are atomic already
+            return inSession(true, session -> Publishers.first(collection.updateOne(session, filter, update)))
+                    .thenApply(result -> result.map(r -> r.getMatchedCount() == 1).orElse(false));
+        }
+        return inSession(true, session -> {
+            session.startTransaction();
+            // a failed transaction is aborted as the session closes. Unlike the blocking driver's withTransaction,
+            // transient errors are reported rather than retried
+            return Publishers.first(collection.findOneAndUpdate(session, filter, update))
+                    .thenCompose(result -> Publishers.first(session.commitTransaction()).thenApply(ignored -> result.isPresent()));
+        });
+    }
+
+    @Override
+    public void close() {
+        mongoClient.close();
+    }
+
+    // the session starts at the request's consistency token, writes hand out the operation time they end at
+    private <T> CompletionStage<T> inSession(boolean write, Function<ClientSession, CompletionStage<T>> work) {
+        // captured here, the work completes on the driver's threads
+        Consistency consistency = Consistency.current();
+        BsonTimestamp operationTime = UserMongoRepository.operationTime(consistency.getToken());
+        return Publishers.first(mongoClient.startSession(UserMongoRepository.CAUSALLY_CONSISTENT)).thenCompose(started -> {
+            ClientSession session = started.orElseThrow(() -> new RuntimeException("could not start a session"));
+            if (operationTime != null) {
+                session.advanceOperationTime(operationTime);
+            }
+            return work.apply(session).whenComplete((result, error) -> {
+                if (error == null && write) {
+                    consistency.observe(UserMongoRepository.token(session.getOperationTime()));
+                }
+                session.close();
+            });
+        });
+    }
+
+    // in a session only when catching up with a consistency token, reads have nothing to observe otherwise
+    private <T> CompletionStage<Optional<T>> findFirst(MongoCollection<T> from, Bson filter, Bson projection) {
+        if (UserMongoRepository.operationTime(Consistency.current().getToken()) == null) {
+            return Publishers.first(from.find(filter).projection(projection).first());
+        }
+        return inSession(false, session -> Publishers.first(from.find(session, filter).projection(projection).first()));
+    }
+
+    private static Bson byObjectId(BsonObjectId id) {
+        return Filters.eq("_id", id);
+    }
+}
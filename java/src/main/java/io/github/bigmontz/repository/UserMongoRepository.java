@@ -1,30 +1,89 @@
 package io.github.bigmontz.repository;
 
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.ClientSession;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
 import org.bson.BsonObjectId;
+import org.bson.BsonTimestamp;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Updates.combine;
 import static com.mongodb.client.model.Updates.set;
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
+/**
+ * Writes run in causally consistent sessions, whose operation time is handed out as consistency token. Reads of a
+ * request carrying a token run in such a session too, advanced to that time, so that secondaries only answer once
+ * they have caught up with it.
+ */
 public class UserMongoRepository implements UserRepository<BsonObjectId> {
 
     private static final ZoneId UTC = ZoneId.of("UTC");
 
+    static final Bson UPDATED_AT_PROJECTION = Projections.fields(Projections.include("updated_at"), Projections.excludeId());
+
+    static final ClientSessionOptions CAUSALLY_CONSISTENT = ClientSessionOptions.builder().causallyConsistent(true).build();
+
+    // documents an export holds in memory at once
+    private static final int EXPORT_BATCH_SIZE = 1_000;
+
     private final MongoClient mongoClient;
+    private final boolean highThroughput;
+    private final MongoCollection<Document> collection;
+    private final MongoCollection<User> typedCollection;
 
     public UserMongoRepository(MongoClient mongoClient) {
+        this(mongoClient, false, WriteConcern.ACKNOWLEDGED, ReadPreference.primary());
+    }
+
+    /**
+     * @param highThroughput whether to echo created users without reading them back, update passwords without
+     *                       a transaction and decode users straight from BSON
+     */
+    public UserMongoRepository(MongoClient mongoClient, boolean highThroughput, WriteConcern writeConcern, ReadPreference readPreference) {
         this.mongoClient = mongoClient;
+        this.highThroughput = highThroughput;
+        this.collection = mongoClient.getDatabase("admin")
+                .getCollection("users")
+                .withWriteConcern(writeConcern)
+                .withReadPreference(readPreference);
+        this.typedCollection = collection
+                .withDocumentClass(User.class)
+                .withCodecRegistry(fromRegistries(fromCodecs(new UserCodec()), collection.getCodecRegistry()));
+    }
+
+    public boolean isHighThroughput() {
+        return highThroughput;
     }
 
     @Override
@@ -39,28 +98,187 @@ public class UserMongoRepository implements UserRepository<BsonObjectId> {
 
     @Override
     public User create(User user) {
-        var result = userCollection().insertOne(toDocument(user));
-        return findById(result.getInsertedId().asObjectId())
-                .orElseThrow(() -> new RuntimeException("user creation failed"));
+        // BSON dates only keep milliseconds, truncating keeps the echoed user identical to what is stored
+        var now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        try (ClientSession session = writeSession()) {
+            var result = userCollection().insertOne(session, toDocument(user, now));
+            observe(session);
+            if (highThroughput) {
+                return created(result.getInsertedId().asObjectId(), user, now);
+            }
+            // read back in the same session, which sees the insertion whatever the read preference
+            return findById(session, result.getInsertedId().asObjectId())
+                    .orElseThrow(() -> new RuntimeException("user creation failed"));
+        }
     }
 
     @Override
     public Optional<User> findById(BsonObjectId userId) {
-        var document = userCollection().find(byObjectId(userId)).first();
-        return Optional.ofNullable(document).map(UserMongoRepository::fromDocument);
+        try (ClientSession session = readSession()) {
+            return findById(session, userId);
+        }
+    }
+
+    @Override
+    public Optional<User> findById(BsonObjectId userId, Set<UserField> fields) {
+        Bson projection = projection(fields);
+        try (ClientSession session = readSession()) {
+            if (highThroughput) {
+                return Optional.ofNullable(find(typedCollection, session, byObjectId(userId)).projection(projection).first());
+            }
+            var document = find(userCollection(), session, byObjectId(userId)).projection(projection).first();
+            return Optional.ofNullable(document).map(UserMongoRepository::fromPartialDocument);
+        }
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(BsonObjectId userId) {
+        try (ClientSession session = readSession()) {
+            var document = find(userCollection(), session, byObjectId(userId)).projection(UPDATED_AT_PROJECTION).first();
+            return Optional.ofNullable(document).map(UserMongoRepository::updatedAt);
+        }
     }
 
     @Override
     public boolean updatePassword(BsonObjectId userId, PasswordUpdate passwordUpdate) {
-        try (ClientSession clientSession = mongoClient.startSession()) {
-            return clientSession.withTransaction(() -> {
-                Document result = userCollection()
-                        .findOneAndUpdate(
-                                and(byObjectId(userId), byPassword(passwordUpdate.getPassword())),
-                                set("password", passwordUpdate.getNewPassword())
-                        );
-                return result != null;
+        try (ClientSession session = writeSession()) {
+            boolean updated;
+            if (highThroughput) {
+                // single-document updates are atomic already
+                var result = userCollection().updateOne(
+                        session,
+                        and(byObjectId(userId), byPassword(passwordUpdate.getPassword())),
+                        passwordSet(passwordUpdate.getNewPassword()));
+                updated = result.getMatchedCount() == 1;
+            } else {
+                updated = session.withTransaction(() -> {
+                    Document result = userCollection()
+                            .findOneAndUpdate(
+                                    session,
+                                    and(byObjectId(userId), byPassword(passwordUpdate.getPassword())),
+                                    passwordSet(passwordUpdate.getNewPassword())
+                            );
+                    return result != null;
+                });
+            }
+            observe(session);
+            return updated;
+        }
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        if (users.isEmpty()) {
+            return List.of();
+        }
+        var now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        var documents = new ArrayList<Document>(users.size());
+        for (User user : users) {
+            documents.add(toDocument(user, now));
+        }
+        try (ClientSession session = writeSession()) {
+            var insertedIds = userCollection().insertMany(session, documents).getInsertedIds();
+            observe(session);
+            var idsInOrder = new ArrayList<BsonObjectId>(users.size());
+            for (int i = 0; i < users.size(); i++) {
+                idsInOrder.add(insertedIds.get(i).asObjectId());
+            }
+            if (highThroughput) {
+                var result = new ArrayList<User>(users.size());
+                for (int i = 0; i < users.size(); i++) {
+                    result.add(created(idsInOrder.get(i), users.get(i), now));
+                }
+                return result;
+            }
+            var created = findAllById(session, idsInOrder);
+            var result = new ArrayList<User>(users.size());
+            for (BsonObjectId id : idsInOrder) {
+                User user = created.get(id);
+                if (user == null) {
+                    throw new RuntimeException("user creation failed");
+                }
+                result.add(user);
+            }
+            return result;
+        }
+    }
+
+    // unordered: a failed insert does not hold back the ones behind it
+    @Override
+    public void loadAll(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        var now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        var inserts = new ArrayList<InsertOneModel<Document>>(users.size());
+        for (User user : users) {
+            Document document = toDocument(user, now);
+            if (user.getCreatedAt() != null) {
+                document.put("created_at", user.getCreatedAt().toInstant());
+            }
+            if (user.getUpdatedAt() != null) {
+                document.put("updated_at", user.getUpdatedAt().toInstant());
+            }
+            inserts.add(new InsertOneModel<>(document));
+        }
+        // failed inserts are reported together, once all the others went through
+        userCollection().bulkWrite(inserts, new BulkWriteOptions().ordered(false));
+    }
+
+    @Override
+    public Map<BsonObjectId, User> findAllById(Collection<BsonObjectId> userIds) {
+        if (userIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        try (ClientSession session = readSession()) {
+            return findAllById(session, userIds);
+        }
+    }
+
+    @Override
+    public Set<BsonObjectId> updatePasswords(Map<BsonObjectId, PasswordUpdate> passwordUpdates) {
+        if (passwordUpdates.isEmpty()) {
+            return Set.of();
+        }
+        var updates = new ArrayList<UpdateOneModel<Document>>(passwordUpdates.size());
+        passwordUpdates.forEach((userId, passwordUpdate) -> updates.add(new UpdateOneModel<>(
+                and(byObjectId(userId), byPassword(passwordUpdate.getPassword())),
+                passwordSet(passwordUpdate.getNewPassword()))));
+        try (ClientSession session = writeSession()) {
+            var bulkResult = userCollection().bulkWrite(session, updates, new BulkWriteOptions().ordered(false));
+            observe(session);
+            if (bulkResult.getMatchedCount() == passwordUpdates.size()) {
+                return passwordUpdates.keySet();
+            }
+            if (bulkResult.getMatchedCount() == 0) {
+                return Set.of();
+            }
+            // bulk writes only report totals: the updated users are the ones now holding their requested password
+            var result = new HashSet<BsonObjectId>();
+            findAllById(session, passwordUpdates.keySet()).forEach((userId, user) -> {
+                if (user.getPassword().equals(passwordUpdates.get(userId).getNewPassword())) {
+                    result.add(userId);
+                }
             });
+            return result;
+        }
+    }
+
+    @Override
+    public void exportAll(BsonObjectId afterId, Consumer<? super User> consumer) {
+        Bson filter = afterId == null ? new Document() : Filters.gt("_id", afterId);
+        try (ClientSession session = readSession()) {
+            if (highThroughput) {
+                try (MongoCursor<User> cursor = find(typedCollection, session, filter).sort(Sorts.ascending("_id")).batchSize(EXPORT_BATCH_SIZE).cursor()) {
+                    cursor.forEachRemaining(consumer);
+                }
+                return;
+            }
+            try (MongoCursor<Document> cursor = find(userCollection(), session, filter).sort(Sorts.ascending("_id")).batchSize(EXPORT_BATCH_SIZE).cursor()) {
+                while (cursor.hasNext()) {
+                    consumer.accept(fromDocument(cursor.next()));
+                }
+            }
         }
     }
 
@@ -69,8 +287,80 @@ public class UserMongoRepository implements UserRepository<BsonObjectId> {
         mongoClient.close();
     }
 
-    private static Document toDocument(User user) {
-        var now = Instant.now();
+    private Optional<User> findById(ClientSession session, BsonObjectId userId) {
+        if (highThroughput) {
+            return Optional.ofNullable(find(typedCollection, session, byObjectId(userId)).first());
+        }
+        var document = find(userCollection(), session, byObjectId(userId)).first();
+        return Optional.ofNullable(document).map(UserMongoRepository::fromDocument);
+    }
+
+    private Map<BsonObjectId, User> findAllById(ClientSession session, Collection<BsonObjectId> userIds) {
+        var result = new HashMap<BsonObjectId, User>();
+        if (highThroughput) {
+            for (User user : find(typedCollection, session, Filters.in("_id", userIds))) {
+                result.put(parseId((String) user.getId()), user);
+            }
+            return result;
+        }
+        for (Document document : find(userCollection(), session, Filters.in("_id", userIds))) {
+            result.put(new BsonObjectId(document.getObjectId("_id")), fromDocument(document));
+        }
+        return result;
+    }
+
+    // null when the request has no token to catch up with: reads then go without an explicit session
+    private ClientSession readSession() {
+        BsonTimestamp operationTime = operationTime(Consistency.current().getToken());
+        if (operationTime == null) {
+            return null;
+        }
+        ClientSession session = mongoClient.startSession(CAUSALLY_CONSISTENT);
+        session.advanceOperationTime(operationTime);
+        return session;
+    }
+
+    private ClientSession writeSession() {
+        ClientSession session = mongoClient.startSession(CAUSALLY_CONSISTENT);
+        BsonTimestamp operationTime = operationTime(Consistency.current().getToken());
+        if (operationTime != null) {
+            session.advanceOperationTime(operationTime);
+        }
+        return session;
+    }
+
+    private static void observe(ClientSession session) {
+        Consistency.current().observe(token(session.getOperationTime()));
+    }
+
+    private static <T> FindIterable<T> find(MongoCollection<T> collection, ClientSession session, Bson filter) {
+        return session == null ? collection.find(filter) : collection.find(session, filter);
+    }
+
+    // e.g. "1700000000.3", the seconds and increment of the cluster time
+    static String token(BsonTimestamp operationTime) {
+        if (operationTime == null) {
+            return null;
+        }
+        return Integer.toUnsignedString(operationTime.getTime()) + "." + Integer.toUnsignedString(operationTime.getInc());
+    }
+
+    // tokens of other backends, or forged ones, are ignored
+    static BsonTimestamp operationTime(String token) {
+        if (token == null) {
+            return null;
+        }
+        int separator = token.indexOf('.');
+        try {
+            return separator < 0 ? null : new BsonTimestamp(
+                    Integer.parseUnsignedInt(token, 0, separator, 10),
+                    Integer.parseUnsignedInt(token, separator + 1, token.length(), 10));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static Document toDocument(User user, Instant now) {
         var document = new Document();
         document.put("username", user.getUsername());
         document.put("name", user.getName());
@@ -82,7 +372,21 @@ public class UserMongoRepository implements UserRepository<BsonObjectId> {
         return document;
     }
 
-    private static User fromDocument(Document document) {
+    static User created(BsonObjectId id, User user, Instant now) {
+        var timestamp = now.atZone(UTC);
+        return new User(
+                id.getValue().toHexString(),
+                user.getUsername(),
+                user.getName(),
+                user.getAge(),
+                user.getSurname(),
+                user.getPassword(),
+                timestamp,
+                timestamp
+        );
+    }
+
+    static User fromDocument(Document document) {
         return new User(
                 document.get("_id", ObjectId.class).toHexString(),
                 document.get("username", String.class),
@@ -95,8 +399,41 @@ public class UserMongoRepository implements UserRepository<BsonObjectId> {
         );
     }
 
+    static User fromPartialDocument(Document document) {
+        ObjectId id = document.getObjectId("_id");
+        Integer age = document.get("age", Integer.class);
+        Date createdAt = document.get("created_at", Date.class);
+        Date updatedAt = document.get("updated_at", Date.class);
+        return new User(
+                id == null ? null : id.toHexString(),
+                document.get("username", String.class),
+                document.get("name", String.class),
+                age == null ? 0 : age,
+                document.get("surname", String.class),
+                document.get("password", String.class),
+                createdAt == null ? null : createdAt.toInstant().atZone(UTC),
+                updatedAt == null ? null : updatedAt.toInstant().atZone(UTC)
+        );
+    }
+
     private MongoCollection<Document> userCollection() {
-        return mongoClient.getDatabase("admin").getCollection("users");
+        return collection;
+    }
+
+    static Bson projection(Set<UserField> fields) {
+        var included = new ArrayList<String>(fields.size());
+        for (UserField field : fields) {
+            if (field != UserField.ID) {
+                included.add(field.getName());
+            }
+        }
+        return fields.contains(UserField.ID)
+                ? Projections.include(included)
+                : Projections.fields(Projections.include(included), Projections.excludeId());
+    }
+
+    static ZonedDateTime updatedAt(Document document) {
+        return document.get("updated_at", Date.class).toInstant().atZone(UTC);
     }
 
     private static Bson byObjectId(BsonObjectId id) {
@@ -106,4 +443,9 @@ public class UserMongoRepository implements UserRepository<BsonObjectId> {
     private static Bson byPassword(String password) {
         return Filters.eq("password", password);
     }
+
+    // truncated like on creation, BSON dates only keep milliseconds
+    static Bson passwordSet(String newPassword) {
+        return combine(set("password", newPassword), set("updated_at", Instant.now().truncatedTo(ChronoUnit.MILLIS)));
+    }
 }
@@ -1,18 +1,86 @@
 package io.github.bigmontz.repository;
 
+import org.neo4j.driver.AccessMode;
+import org.neo4j.driver.Bookmark;
 import org.neo4j.driver.Driver;
 import org.neo4j.driver.Record;
 import org.neo4j.driver.Result;
 import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
 import org.neo4j.driver.TransactionWork;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.ResultCursor;
 import org.neo4j.driver.types.Node;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-public class UserNeo4jRepository implements UserRepository<Long> {
+/**
+ * Reads run in READ sessions, which the routing driver sends to followers and read replicas. Sessions start from the
+ * bookmark of the request's consistency token, and writes hand out the bookmark they end with.
+ */
+public class UserNeo4jRepository implements UserRepository<Long>, AsyncUserRepository<Long> {
+
+    private static final String USER_INSERTION = """               
+            CREATE (user:User {
+            	username: $username,
+            	name: $name,
+            	surname: $surname,
+            	age: $age,
+            	password: $password,
+            	createdAt: $createdAt,
+            	updatedAt: $updatedAt })
+            RETURN user""";
+
+    private static final String USER_RETRIEVAL = """               
+            MATCH (user:User) WHERE ID(user) = $id
+            RETURN user""";
+
+    private static final String USER_UPDATED_AT_RETRIEVAL = """               
+            MATCH (user:User) WHERE ID(user) = $id
+            RETURN user.updatedAt AS updatedAt""";
+
+    private static final String USERS_EXPORT = """
+            MATCH (user:User) WHERE ID(user) > $after
+            RETURN user ORDER BY ID(user)""";
+
+    // records an export holds in memory at once, the driver pulls the next batch as they are consumed
+    private static final long EXPORT_FETCH_SIZE = 1_000;
+
+    // nothing returned: the server does not have to stream the created nodes back
+    private static final String USERS_LOAD = """
+            UNWIND $users AS params
+            CREATE (user:User {
+            	username: params.username,
+            	name: params.name,
+            	surname: params.surname,
+            	age: params.age,
+            	password: params.password,
+            	createdAt: params.createdAt,
+            	updatedAt: params.updatedAt })""";
+
+    private static final String USER_PASSWORD_UPDATE = """               
+                    MATCH (user:User)
+                    WHERE ID(user) = $id AND user.password = $old
+                    SET user.password = $new, user.updatedAt = $updatedAt
+                    RETURN COUNT(user) = 1 AS successfulUpdate
+            """;
 
     private final Driver driver;
 
@@ -32,22 +100,130 @@ public class UserNeo4jRepository implements UserRepository<Long> {
 
     @Override
     public User create(User user) {
-        try (Session session = driver.session()) {
-            return session.writeTransaction(userInsertion(user));
-        }
+        return write(userInsertion(user));
     }
 
     @Override
     public Optional<User> findById(Long userId) {
-        try (Session session = driver.session()) {
-            return session.readTransaction(userRetrieval(userId));
-        }
+        return read(userRetrieval(userId));
+    }
+
+    @Override
+    public Optional<User> findById(Long userId, Set<UserField> fields) {
+        return read(partialUserRetrieval(userId, fields));
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(Long userId) {
+        return read(tx -> {
+            Result result = tx.run(USER_UPDATED_AT_RETRIEVAL, Map.of("id", userId));
+            if (!result.hasNext()) {
+                return Optional.empty();
+            }
+            return Optional.of(result.single().get("updatedAt").asZonedDateTime());
+        });
     }
 
     @Override
     public boolean updatePassword(Long userId, PasswordUpdate passwordUpdate) {
-        try (Session session = driver.session()) {
-            return session.writeTransaction(userPasswordUpdate(userId, passwordUpdate));
+        return write(userPasswordUpdate(userId, passwordUpdate));
+    }
+
+    @Override
+    public CompletionStage<User> createAsync(User user) {
+        return inAsyncSession(AccessMode.WRITE, session -> session.writeTransactionAsync(tx -> tx
+                .runAsync(USER_INSERTION, asParams(user))
+                .thenCompose(ResultCursor::singleAsync)
+                .thenApply(UserNeo4jRepository::fromRecord)));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(Long userId) {
+        return inAsyncSession(AccessMode.READ, session -> session.readTransactionAsync(tx -> tx
+                .runAsync(USER_RETRIEVAL, Map.of("id", userId))
+                .thenCompose(ResultCursor::nextAsync)
+                .thenApply(record -> Optional.ofNullable(record).map(UserNeo4jRepository::fromRecord))));
+    }
+
+    @Override
+    public CompletionStage<Optional<User>> findByIdAsync(Long userId, Set<UserField> fields) {
+        return inAsyncSession(AccessMode.READ, session -> session.readTransactionAsync(tx -> tx
+                .runAsync(partialUserRetrievalQuery(fields), Map.of("id", userId))
+                .thenCompose(ResultCursor::nextAsync)
+                .thenApply(record -> Optional.ofNullable(record).map(found -> fromPartialRecord(found, fields)))));
+    }
+
+    @Override
+    public CompletionStage<Optional<ZonedDateTime>> findUpdatedAtAsync(Long userId) {
+        return inAsyncSession(AccessMode.READ, session -> session.readTransactionAsync(tx -> tx
+                .runAsync(USER_UPDATED_AT_RETRIEVAL, Map.of("id", userId))
+                .thenCompose(ResultCursor::nextAsync)
+                .thenApply(record -> Optional.ofNullable(record).map(found -> found.get("updatedAt").asZonedDateTime()))));
+    }
+
+    @Override
+    public CompletionStage<Boolean> updatePasswordAsync(Long userId, PasswordUpdate passwordUpdate) {
+        return inAsyncSession(AccessMode.WRITE, session -> session.writeTransactionAsync(tx -> tx
+                .runAsync(USER_PASSWORD_UPDATE, passwordUpdateParams(userId, passwordUpdate))
+                .thenCompose(ResultCursor::singleAsync)
+                .thenApply(record -> record.get("successfulUpdate").asBoolean())));
+    }
+
+    @Override
+    public List<User> createAll(List<User> users) {
+        if (users.isEmpty()) {
+            return List.of();
+        }
+        return write(usersInsertion(users));
+    }
+
+    // one transaction per call, the caller sizes the batches
+    @Override
+    public void loadAll(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        ZonedDateTime now = ZonedDateTime.now(ZoneId.of("UTC"));
+        var params = new ArrayList<Map<String, Object>>(users.size());
+        for (User user : users) {
+            params.add(Map.of(
+                    "username", user.getUsername(),
+                    "name", user.getName(),
+                    "surname", user.getSurname(),
+                    "age", user.getAge(),
+                    "password", user.getPassword(),
+                    "createdAt", user.getCreatedAt() == null ? now : user.getCreatedAt(),
+                    "updatedAt", user.getUpdatedAt() == null ? now : user.getUpdatedAt()
+            ));
+        }
+        write(tx -> tx.run(USERS_LOAD, Map.of("users", params)).consume());
+    }
+
+    @Override
+    public Map<Long, User> findAllById(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        return read(usersRetrieval(userIds));
+    }
+
+    @Override
+    public Set<Long> updatePasswords(Map<Long, PasswordUpdate> passwordUpdates) {
+        if (passwordUpdates.isEmpty()) {
+            return Set.of();
+        }
+        return write(usersPasswordUpdate(passwordUpdates));
+    }
+
+    @Override
+    public void exportAll(Long afterId, Consumer<? super User> consumer) {
+        var config = sessionConfigBuilder(AccessMode.READ, Consistency.current()).withFetchSize(EXPORT_FETCH_SIZE).build();
+        try (Session session = driver.session(config)) {
+            // auto-commit rather than a transaction function, whose retries would export the same users again
+            Result result = session.run(USERS_EXPORT, Map.of("after", afterId == null ? -1L : afterId));
+            while (result.hasNext()) {
+                consumer.accept(fromRecord(result.next()));
+            }
         }
     }
 
@@ -56,27 +232,31 @@ public class UserNeo4jRepository implements UserRepository<Long> {
         driver.close();
     }
 
+    private <T> T read(TransactionWork<T> work) {
+        try (Session session = driver.session(sessionConfig(AccessMode.READ, Consistency.current()))) {
+            return session.readTransaction(work);
+        }
+    }
+
+    private <T> T write(TransactionWork<T> work) {
+        Consistency consistency = Consistency.current();
+        try (Session session = driver.session(sessionConfig(AccessMode.WRITE, consistency))) {
+            T result = session.writeTransaction(work);
+            consistency.observe(token(session.lastBookmark()));
+            return result;
+        }
+    }
+
     private TransactionWork<User> userInsertion(User user) {
         return tx -> {
-            Result result = tx.run("""               
-                    CREATE (user:User {
-                    	username: $username,
-                    	name: $name,
-                    	surname: $surname,
-                    	age: $age,
-                    	password: $password,
-                    	createdAt: $createdAt,
-                    	updatedAt: $updatedAt })
-                    RETURN user""", asParams(user));
+            Result result = tx.run(USER_INSERTION, asParams(user));
             return fromRecord(result.single());
         };
     }
 
     private TransactionWork<Optional<User>> userRetrieval(long userId) {
         return tx -> {
-            Result result = tx.run("""               
-                    MATCH (user:User) WHERE ID(user) = $id
-                    RETURN user""", Map.of("id", userId));
+            Result result = tx.run(USER_RETRIEVAL, Map.of("id", userId));
 
             if (!result.hasNext()) {
                 return Optional.empty();
@@ -85,19 +265,138 @@ public class UserNeo4jRepository implements UserRepository<Long> {
         };
     }
 
+    private TransactionWork<Optional<User>> partialUserRetrieval(long userId, Set<UserField> fields) {
+        String query = partialUserRetrievalQuery(fields);
+        return tx -> {
+            Result result = tx.run(query, Map.of("id", userId));
+
+            if (!result.hasNext()) {
+                return Optional.empty();
+            }
+            return Optional.of(fromPartialRecord(result.single(), fields));
+        };
+    }
+
     private TransactionWork<Boolean> userPasswordUpdate(long userId, PasswordUpdate passwordUpdate) {
         return tx -> {
-            Result result = tx.run("""               
-                            MATCH (user:User)
-                            WHERE ID(user) = $id AND user.password = $old
-                            SET user.password = $new
-                            RETURN COUNT(user) = 1 AS successfulUpdate
-                    """, Map.of("id", userId, "old", passwordUpdate.getPassword(), "new", passwordUpdate.getNewPassword()));
+            Result result = tx.run(USER_PASSWORD_UPDATE, passwordUpdateParams(userId, passwordUpdate));
 
             return result.single().get("successfulUpdate").asBoolean();
         };
     }
 
+    private TransactionWork<List<User>> usersInsertion(List<User> users) {
+        var params = new ArrayList<Map<String, Object>>(users.size());
+        for (User user : users) {
+            params.add(asParams(user));
+        }
+        return tx -> {
+            Result result = tx.run("""
+                    UNWIND $users AS params
+                    CREATE (user:User {
+                    	username: params.username,
+                    	name: params.name,
+                    	surname: params.surname,
+                    	age: params.age,
+                    	password: params.password,
+                    	createdAt: params.createdAt,
+                    	updatedAt: params.updatedAt })
+                    RETURN user""", Map.of("users", params));
+            return result.list(UserNeo4jRepository::fromRecord);
+        };
+    }
+
+    private TransactionWork<Map<Long, User>> usersRetrieval(Collection<Long> userIds) {
+        return tx -> {
+            Result result = tx.run("""
+                    MATCH (user:User) WHERE ID(user) IN $ids
+                    RETURN user""", Map.of("ids", List.copyOf(userIds)));
+            var users = new HashMap<Long, User>();
+            result.forEachRemaining(record -> {
+                User user = fromRecord(record);
+                users.put((Long) user.getId(), user);
+            });
+            return users;
+        };
+    }
+
+    private TransactionWork<Set<Long>> usersPasswordUpdate(Map<Long, PasswordUpdate> passwordUpdates) {
+        var params = new ArrayList<Map<String, Object>>(passwordUpdates.size());
+        passwordUpdates.forEach((userId, passwordUpdate) -> params.add(Map.of(
+                "id", userId, "old", passwordUpdate.getPassword(), "new", passwordUpdate.getNewPassword())));
+        return tx -> {
+            Result result = tx.run("""
+                            UNWIND $updates AS update
+                            MATCH (user:User)
+                            WHERE ID(user) = update.id AND user.password = update.old
+                            SET user.password = update.new, user.updatedAt = $updatedAt
+                            RETURN update.id AS id
+                    """, Map.of("updates", params, "updatedAt", ZonedDateTime.now(ZoneId.of("UTC"))));
+            return new HashSet<>(result.list(record -> record.get("id").asLong()));
+        };
+    }
+
+    private static String partialUserRetrievalQuery(Set<UserField> fields) {
+        var properties = new StringJoiner(", ", "{", "}");
+        for (UserField field : fields) {
+            if (field != UserField.ID) {
+                properties.add("." + field.getNeo4jProperty());
+            }
+        }
+        return String.format("""
+                MATCH (user:User) WHERE ID(user) = $id
+                RETURN ID(user) AS id, user%s AS user""", properties);
+    }
+
+    private <T> CompletionStage<T> inAsyncSession(AccessMode mode, Function<AsyncSession, CompletionStage<T>> work) {
+        // captured here, the work completes on the driver's threads
+        Consistency consistency = Consistency.current();
+        AsyncSession session = driver.asyncSession(sessionConfig(mode, consistency));
+        return work.apply(session)
+                .handle((result, error) -> {
+                    if (error == null && mode == AccessMode.WRITE) {
+                        consistency.observe(token(session.lastBookmark()));
+                    }
+                    return session.closeAsync().thenApply(ignored -> {
+                        if (error != null) {
+                            throw error instanceof CompletionException completionError ? completionError : new CompletionException(error);
+                        }
+                        return result;
+                    });
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private static SessionConfig sessionConfig(AccessMode mode, Consistency consistency) {
+        return sessionConfigBuilder(mode, consistency).build();
+    }
+
+    private static SessionConfig.Builder sessionConfigBuilder(AccessMode mode, Consistency consistency) {
+        var config = SessionConfig.builder().withDefaultAccessMode(mode);
+        String token = consistency.getToken();
+        if (token != null) {
+            config.withBookmarks(Bookmark.from(new TreeSet<>(Arrays.asList(token.split(",")))));
+        }
+        return config;
+    }
+
+    // a bookmark is a set of opaque values, none of which contain a comma
+    private static String token(Bookmark bookmark) {
+        if (bookmark == null || bookmark.isEmpty()) {
+            return null;
+        }
+        return String.join(",", new TreeSet<>(bookmark.values()));
+    }
+
+    private static Map<String, Object> passwordUpdateParams(long userId, PasswordUpdate passwordUpdate) {
+        return Map.of(
+                "id", userId,
+                "old", passwordUpdate.getPassword(),
+                "new", passwordUpdate.getNewPassword(),
+                "updatedAt", ZonedDateTime.now(ZoneId.of("UTC"))
+        );
+    }
+
     private Map<String, Object> asParams(User user) {
         ZonedDateTime now = ZonedDateTime.now(ZoneId.of("UTC"));
         return Map.of(
@@ -111,7 +410,21 @@ public class UserNeo4jRepository implements UserRepository<Long> {
         );
     }
 
-    private User fromRecord(Record record) {
+    private static User fromPartialRecord(Record record, Set<UserField> fields) {
+        Value user = record.get("user");
+        return new User(
+                fields.contains(UserField.ID) ? record.get("id").asLong() : null,
+                user.get("username").asString(null),
+                user.get("name").asString(null),
+                user.get("age").asInt(0),
+                user.get("surname").asString(null),
+                user.get("password").asString(null),
+                user.get("createdAt").asZonedDateTime(null),
+                user.get("updatedAt").asZonedDateTime(null)
+        );
+    }
+
+    static User fromRecord(Record record) {
         Node userNode = record.get("user").asNode();
         return new User(
                 userNode.id(),
@@ -1,22 +1,83 @@
 package io.github.bigmontz.repository;
 
+import io.github.bigmontz.JdbcFunction;
+import org.postgresql.PGConnection;
+
 import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Reads go to the replicas, when there are any, in turn. The consistency token is the primary's WAL position after a
+ * write: reads carrying one go to a replica that has replayed up to it, or to the primary.
+ */
 public class UserPostgresRepository implements UserRepository<Long> {
 
     private static final ZoneId UTC = ZoneId.of("UTC");
 
+    // explicit and in a fixed order: rows are mapped by column index and statement texts stay stable,
+    // so that pgjdbc's per-connection cache keeps reusing the same named server-side prepared statements
+    private static final String COLUMNS = "id, username, name, age, surname, password, created_at, updated_at";
+
+    // rows are sent as CSV, timestamps written the way pgjdbc binds them: in the JVM's time zone
+    private static final String USERS_COPY = "COPY users (username, name, age, surname, password, created_at, updated_at) FROM STDIN (FORMAT csv)";
+
+    // rows sent as arrays and held by the server for RETURNING at once
+    private static final int MAX_ROWS_PER_STATEMENT = 1_000;
+
+    // rows an export holds in memory at once
+    private static final int EXPORT_FETCH_SIZE = 1_000;
+
+    // pg_lsn text form, e.g. 16/B374D848
+    private static final Pattern LSN = Pattern.compile("[0-9A-Fa-f]{1,8}/[0-9A-Fa-f]{1,8}");
+
+    // the default of the id column: nextval of its sequence
+    private static final String NEXT_ID = "nextval(pg_get_serial_sequence('users', 'id'))";
+
     private final DataSource dataSource;
+    private final List<DataSource> replicas;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final String multiRowInsert;
 
     public UserPostgresRepository(DataSource dataSource) {
+        this(dataSource, List.of());
+    }
+
+    /**
+     * @param dataSource the primary
+     * @param replicas   the streaming replicas of the primary, reads stay on the primary if empty
+     */
+    public UserPostgresRepository(DataSource dataSource, List<DataSource> replicas) {
+        this(dataSource, replicas, NEXT_ID);
+    }
+
+    /**
+     * @param nextId SQL expression generating the ID of a new user, as the default of the id column does
+     */
+    UserPostgresRepository(DataSource dataSource, List<DataSource> replicas, String nextId) {
         this.dataSource = dataSource;
+        this.replicas = List.copyOf(replicas);
+        this.multiRowInsert = multiRowInsert(nextId);
     }
 
     @Override
@@ -32,7 +93,7 @@ public class UserPostgresRepository implements UserRepository<Long> {
     @Override
     public User create(User user) {
         try (Connection connection = dataSource.getConnection();
-             var preparedStatement = connection.prepareStatement("INSERT INTO users (username, name, age, surname, password, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING *")) {
+             var preparedStatement = connection.prepareStatement("INSERT INTO users (username, name, age, surname, password, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING " + COLUMNS)) {
             var now = now();
             preparedStatement.setString(1, user.getUsername());
             preparedStatement.setString(2, user.getName());
@@ -42,7 +103,9 @@ public class UserPostgresRepository implements UserRepository<Long> {
             preparedStatement.setTimestamp(6, now);
             preparedStatement.setTimestamp(7, now);
             ResultSet resultSet = preparedStatement.executeQuery();
-            return map(resultSet).orElseThrow(() -> new RuntimeException("could not create user"));
+            User created = map(resultSet).orElseThrow(() -> new RuntimeException("could not create user"));
+            observeWalPosition(connection);
+            return created;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
@@ -50,8 +113,8 @@ public class UserPostgresRepository implements UserRepository<Long> {
 
     @Override
     public Optional<User> findById(Long userId) {
-        try (var connection = dataSource.getConnection();
-             var statement = connection.prepareStatement("SELECT * FROM users WHERE id = ?")) {
+        try (var connection = readConnection();
+             var statement = connection.prepareStatement("SELECT " + COLUMNS + " FROM users WHERE id = ?")) {
             statement.setLong(1, userId);
             return map(statement.executeQuery());
         } catch (SQLException e) {
@@ -59,40 +122,305 @@ public class UserPostgresRepository implements UserRepository<Long> {
         }
     }
 
+    @Override
+    public Optional<User> findById(Long userId, Set<UserField> fields) {
+        var columns = fields.stream().map(UserField::getName).collect(Collectors.joining(", "));
+        try (var connection = readConnection();
+             var statement = connection.prepareStatement("SELECT " + columns + " FROM users WHERE id = ?")) {
+            statement.setLong(1, userId);
+            ResultSet resultSet = statement.executeQuery();
+            if (!hasNext(resultSet)) {
+                return Optional.empty();
+            }
+            // columns come back in the iteration order of the fields
+            Long id = null;
+            String username = null, name = null, surname = null, password = null;
+            int age = 0;
+            ZonedDateTime createdAt = null, updatedAt = null;
+            int index = 1;
+            for (UserField field : fields) {
+                switch (field) {
+                    case ID -> id = resultSet.getLong(index++);
+                    case USERNAME -> username = resultSet.getString(index++);
+                    case NAME -> name = resultSet.getString(index++);
+                    case AGE -> age = resultSet.getInt(index++);
+                    case SURNAME -> surname = resultSet.getString(index++);
+                    case PASSWORD -> password = resultSet.getString(index++);
+                    case CREATED_AT -> createdAt = resultSet.getTimestamp(index++).toInstant().atZone(UTC);
+                    case UPDATED_AT -> updatedAt = resultSet.getTimestamp(index++).toInstant().atZone(UTC);
+                }
+            }
+            return Optional.of(new User(id, username, name, age, surname, password, createdAt, updatedAt));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Optional<ZonedDateTime> findUpdatedAt(Long userId) {
+        try (var connection = readConnection();
+             var statement = connection.prepareStatement("SELECT updated_at FROM users WHERE id = ?")) {
+            statement.setLong(1, userId);
+            ResultSet resultSet = statement.executeQuery();
+            if (!hasNext(resultSet)) {
+                return Optional.empty();
+            }
+            return Optional.of(resultSet.getTimestamp(1).toInstant().atZone(UTC));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public boolean updatePassword(Long userId, PasswordUpdate passwordUpdate) {
         // JDBC => no tx function / no retry 😢
         try (var connection = dataSource.getConnection()) {
+            boolean updated = inTransaction(connection, tx -> doUpdatePassword(tx, userId, passwordUpdate));
+            observeWalPosition(connection);
+            return updated;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // all or nothing, in a single transaction
+    @Override
+    public List<User> createAll(List<User> users) {
+        try (Connection connection = dataSource.getConnection()) {
+            List<User> created = inTransaction(connection, tx -> doCreateAll(tx, users));
+            observeWalPosition(connection);
+            return created;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // a single COPY, which the server ingests without planning or returning anything per row
+    @Override
+    public void loadAll(List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        var now = now();
+        var csv = new StringBuilder(users.size() * 192);
+        for (User user : users) {
+            appendCsv(csv, user.getUsername()).append(',');
+            appendCsv(csv, user.getName()).append(',');
+            csv.append(user.getAge()).append(',');
+            appendCsv(csv, user.getSurname()).append(',');
+            appendCsv(csv, user.getPassword()).append(',');
+            csv.append(timestampOr(user.getCreatedAt(), now)).append(',');
+            csv.append(timestampOr(user.getUpdatedAt(), now)).append('\n');
+        }
+        long copied;
+        try (Connection connection = dataSource.getConnection()) {
+            copied = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(USERS_COPY, new StringReader(csv.toString()));
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (copied != users.size()) {
+            throw new RuntimeException(String.format("copied %d users out of %d", copied, users.size()));
+        }
+    }
+
+    @Override
+    public Map<Long, User> findAllById(Collection<Long> userIds) {
+        var result = new HashMap<Long, User>();
+        if (userIds.isEmpty()) {
+            return result;
+        }
+        try (var connection = readConnection();
+             var statement = connection.prepareStatement("SELECT " + COLUMNS + " FROM users WHERE id = ANY(?)")) {
+            statement.setArray(1, connection.createArrayOf("bigint", userIds.toArray()));
+            ResultSet resultSet = statement.executeQuery();
+            Optional<User> user;
+            while ((user = map(resultSet)).isPresent()) {
+                result.put((Long) user.get().getId(), user.get());
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Set<Long> updatePasswords(Map<Long, PasswordUpdate> passwordUpdates) {
+        try (var connection = dataSource.getConnection()) {
+            Set<Long> updated = inTransaction(connection, tx -> doUpdatePasswords(tx, passwordUpdates));
+            observeWalPosition(connection);
+            return updated;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void exportAll(Long afterId, Consumer<? super User> consumer) {
+        try (var connection = readConnection()) {
+            // pgjdbc only fetches rows in batches within a transaction, it reads the whole result otherwise
             connection.setAutoCommit(false);
-            return doUpdatePassword(connection, userId, passwordUpdate);
+            try (var statement = connection.prepareStatement("SELECT " + COLUMNS + " FROM users WHERE id > ? ORDER BY id")) {
+                statement.setFetchSize(EXPORT_FETCH_SIZE);
+                statement.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+                ResultSet resultSet = statement.executeQuery();
+                Optional<User> user;
+                while ((user = map(resultSet)).isPresent()) {
+                    consumer.accept(user.get());
+                }
+            }
+            connection.commit();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public void close() {
+    public void close() throws IOException {
+        for (DataSource replica : replicas) {
+            if (replica instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+        if (dataSource instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
 
+    private Connection readConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            return dataSource.getConnection();
+        }
+        DataSource replica = replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+        String token = Consistency.current().getToken();
+        if (token == null) {
+            return replica.getConnection();
+        }
+        if (!LSN.matcher(token).matches()) {
+            // not ours: the primary is always consistent
+            return dataSource.getConnection();
+        }
+        Connection connection = replica.getConnection();
+        try (var statement = connection.prepareStatement("SELECT pg_last_wal_replay_lsn() >= ?::pg_lsn")) {
+            statement.setString(1, token);
+            ResultSet resultSet = statement.executeQuery();
+            // null, hence false, if the replica has been promoted
+            if (resultSet.next() && resultSet.getBoolean(1)) {
+                return connection;
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        connection.close();
+        return dataSource.getConnection();
+    }
+
+    // after commit, the current position is at or past the write's commit record
+    private void observeWalPosition(Connection connection) throws SQLException {
+        Consistency consistency = Consistency.current();
+        if (replicas.isEmpty() || !consistency.isTracked()) {
+            return;
+        }
+        try (var statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT pg_current_wal_lsn()");
+            if (resultSet.next()) {
+                consistency.observe(resultSet.getString(1));
+            }
+        }
     }
 
+    // the do* methods run within the caller's transaction: committing or rolling back is up to the caller
     boolean doUpdatePassword(Connection connection, Long userId, PasswordUpdate passwordUpdate) throws SQLException {
         try (var statement = connection.prepareStatement("UPDATE users SET password = ?, updated_at = ? WHERE id = ? AND password = ?")) {
             statement.setString(1, passwordUpdate.getNewPassword());
             statement.setTimestamp(2, now());
             statement.setLong(3, userId);
             statement.setString(4, passwordUpdate.getPassword());
-            if (statement.executeUpdate() == 1) {
-                connection.commit();
-                return true;
+            int updateCount = statement.executeUpdate();
+            if (updateCount > 1) {
+                // the impossible case of matching more than 1 row (here be 🐉), the caller rolls back
+                throw new SQLException(String.format("password update matched %d users", updateCount));
             }
-            connection.rollback(); // covers the impossible case of matching more than 1 row (here be 🐉)
-            return false;
-        } catch (SQLException e) {
+            return updateCount == 1;
+        }
+    }
+
+    // the users created come back in the order of the given ones
+    List<User> doCreateAll(Connection connection, List<User> users) throws SQLException {
+        var result = new ArrayList<User>(users.size());
+        for (int start = 0; start < users.size(); start += MAX_ROWS_PER_STATEMENT) {
+            var chunk = users.subList(start, Math.min(users.size(), start + MAX_ROWS_PER_STATEMENT));
+            try (var statement = connection.prepareStatement(multiRowInsert)) {
+                var now = now();
+                statement.setArray(1, connection.createArrayOf("text", chunk.stream().map(User::getUsername).toArray()));
+                statement.setArray(2, connection.createArrayOf("text", chunk.stream().map(User::getName).toArray()));
+                statement.setArray(3, connection.createArrayOf("int4", chunk.stream().map(User::getAge).toArray()));
+                statement.setArray(4, connection.createArrayOf("text", chunk.stream().map(User::getSurname).toArray()));
+                statement.setArray(5, connection.createArrayOf("text", chunk.stream().map(User::getPassword).toArray()));
+                statement.setTimestamp(6, now);
+                statement.setTimestamp(7, now);
+                ResultSet resultSet = statement.executeQuery();
+                Optional<User> user;
+                while ((user = map(resultSet)).isPresent()) {
+                    result.add(user.get());
+                }
+            }
+        }
+        if (result.size() != users.size()) {
+            // the caller rolls back
+            throw new SQLException(String.format("created %d users out of %d", result.size(), users.size()));
+        }
+        return result;
+    }
+
+    Set<Long> doUpdatePasswords(Connection connection, Map<Long, PasswordUpdate> passwordUpdates) throws SQLException {
+        var userIds = new ArrayList<>(passwordUpdates.keySet());
+        try (var statement = connection.prepareStatement("UPDATE users SET password = ?, updated_at = ? WHERE id = ? AND password = ?")) {
+            var now = now();
+            for (Long userId : userIds) {
+                PasswordUpdate passwordUpdate = passwordUpdates.get(userId);
+                statement.setString(1, passwordUpdate.getNewPassword());
+                statement.setTimestamp(2, now);
+                statement.setLong(3, userId);
+                statement.setString(4, passwordUpdate.getPassword());
+                statement.addBatch();
+            }
+            int[] updateCounts = statement.executeBatch();
+            var result = new HashSet<Long>();
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == 1) {
+                    result.add(userIds.get(i));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static <T> T inTransaction(Connection connection, JdbcFunction<Connection, T> work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            T result = work.apply(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
             connection.rollback();
-            throw new RuntimeException(e);
+            throw e;
         }
     }
 
+    /**
+     * RETURNING makes no promise about the order of the rows, so each row gets its ID up front, along with its
+     * position in the input, and the rows created are joined back to their position.
+     * A single statement text whatever the row count, which keeps the server-side prepared statement reused.
+     */
+    private static String multiRowInsert(String nextId) {
+        return "WITH input AS (SELECT " + nextId + " AS id, username, name, age, surname, password, ordinal"
+                + " FROM unnest(?::text[], ?::text[], ?::int[], ?::text[], ?::text[]) WITH ORDINALITY AS u(username, name, age, surname, password, ordinal)),"
+                + " created AS (INSERT INTO users (id, username, name, age, surname, password, created_at, updated_at)"
+                + " SELECT id, username, name, age, surname, password, ?::timestamp, ?::timestamp FROM input RETURNING " + COLUMNS + ")"
+                + " SELECT created.* FROM created JOIN input ON input.id = created.id ORDER BY input.ordinal";
+    }
+
     private static boolean hasNext(ResultSet resultSet) {
         try {
             return resultSet.next();
@@ -101,26 +429,38 @@ public class UserPostgresRepository implements UserRepository<Long> {
         }
     }
 
-    private Optional<User> map(ResultSet resultSet) {
+    static Optional<User> map(ResultSet resultSet) {
         if (!hasNext(resultSet)) {
             return Optional.empty();
         }
         try {
             return Optional.of(new User(
-                    resultSet.getLong("id"),
-                    resultSet.getString("username"),
-                    resultSet.getString("name"),
-                    resultSet.getInt("age"),
-                    resultSet.getString("surname"),
-                    resultSet.getString("password"),
-                    resultSet.getTimestamp("created_at").toInstant().atZone(UTC),
-                    resultSet.getTimestamp("updated_at").toInstant().atZone(UTC)
+                    resultSet.getLong(1),
+                    resultSet.getString(2),
+                    resultSet.getString(3),
+                    resultSet.getInt(4),
+                    resultSet.getString(5),
+                    resultSet.getString(6),
+                    resultSet.getTimestamp(7).toInstant().atZone(UTC),
+                    resultSet.getTimestamp(8).toInstant().atZone(UTC)
             ));
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // quoted, so that empty strings are not read as NULL
+    private static StringBuilder appendCsv(StringBuilder csv, String value) {
+        if (value == null) {
+            return csv;
+        }
+        return csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static Timestamp timestampOr(ZonedDateTime value, Timestamp defaultValue) {
+        return value == null ? defaultValue : Timestamp.from(value.toInstant());
+    }
+
     private static Timestamp now() {
         return new Timestamp(Instant.now().toEpochMilli());
     }
@@ -1,7 +1,18 @@
 package io.github.bigmontz.repository;
 
 import java.io.Closeable;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public interface UserRepository<ID> extends Closeable {
 
@@ -13,5 +24,108 @@ public interface UserRepository<ID> extends Closeable {
 
     Optional<User> findById(ID userId);
 
+    /**
+     * Finds a user and maps it, e.g. to its serialized form.
+     * Decorators such as {@link CachingUserRepository} may memoize the mapped value, so the mapper must be a pure
+     * function and callers should reuse the same mapper instance.
+     *
+     * @param userId the ID of the user
+     * @param mapper the mapping to apply to the found user
+     * @param <T>    the mapped type
+     * @return the mapped user, empty if not found
+     */
+    default <T> Optional<T> findById(ID userId, Function<User, T> mapper) {
+        return findById(userId).map(mapper);
+    }
+
+    /**
+     * Finds a user, only loading the given fields when the backend supports it.
+     * Fields that are not selected are left to their default value (null or 0) in the returned user.
+     *
+     * @param userId the ID of the user
+     * @param fields the fields to load
+     * @return the partially loaded user, empty if not found
+     */
+    default Optional<User> findById(ID userId, Set<UserField> fields) {
+        return findById(userId);
+    }
+
+    /**
+     * Finds when a user was last updated, i.e. the version conditional requests are checked against, without loading
+     * the rest of the user.
+     *
+     * @param userId the ID of the user
+     * @return the last update time, empty if not found
+     */
+    default Optional<ZonedDateTime> findUpdatedAt(ID userId) {
+        return findById(userId, EnumSet.of(UserField.UPDATED_AT)).map(User::getUpdatedAt);
+    }
+
     boolean updatePassword(ID userId, PasswordUpdate passwordUpdate);
+
+    /**
+     * Creates all the given users, in as few round-trips as the backend allows.
+     *
+     * @param users the users to create
+     * @return the created users, in the same order
+     */
+    default List<User> createAll(List<User> users) {
+        var result = new ArrayList<User>(users.size());
+        for (User user : users) {
+            result.add(create(user));
+        }
+        return result;
+    }
+
+    /**
+     * Writes all the given users through the fastest bulk path of the backend, for offline loads: nothing is read
+     * back, so the backend assigns IDs the caller never sees. Backends with a bulk path keep the creation and update
+     * times the users carry, e.g. when loading an export.
+     *
+     * @param users the users to write
+     */
+    default void loadAll(List<User> users) {
+        createAll(users);
+    }
+
+    /**
+     * Finds all the users with the given IDs, in as few round-trips as the backend allows.
+     *
+     * @param userIds the IDs to look up
+     * @return the found users by ID, missing IDs are absent from the map
+     */
+    default Map<ID, User> findAllById(Collection<ID> userIds) {
+        var result = new HashMap<ID, User>();
+        for (ID userId : userIds) {
+            findById(userId).ifPresent(user -> result.put(userId, user));
+        }
+        return result;
+    }
+
+    /**
+     * Applies all the given password updates, in as few round-trips as the backend allows.
+     *
+     * @param passwordUpdates the password updates by user ID
+     * @return the IDs of the users whose password has been updated
+     */
+    default Set<ID> updatePasswords(Map<ID, PasswordUpdate> passwordUpdates) {
+        var result = new HashSet<ID>();
+        passwordUpdates.forEach((userId, passwordUpdate) -> {
+            if (updatePassword(userId, passwordUpdate)) {
+                result.add(userId);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Hands all the users over to the given consumer in ID order, read through a cursor: memory use does not depend
+     * on the number of users.
+     * The consumer is called on the calling thread while the cursor is open, exceptions it throws end the export.
+     *
+     * @param afterId  the ID to resume after, e.g. the last one an interrupted export got to, null to start from the
+     *                 first user
+     * @param consumer the consumer of the users
+     */
+    void exportAll(ID afterId, Consumer<? super User> consumer);
 }
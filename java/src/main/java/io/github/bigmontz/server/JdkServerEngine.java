@@ -0,0 +1,53 @@
+package io.github.bigmontz.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class JdkServerEngine implements ServerEngine {
+
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final HttpServer server;
+
+    /**
+     * @param executor runs the handlers, null to run them on the server's dispatcher thread
+     */
+    public JdkServerEngine(InetSocketAddress address, int backlog, Executor executor) throws IOException {
+        // headers and body are written separately: with Nagle's algorithm on, keep-alive requests stall ~40ms on
+        // the client's delayed ACK. Read once by the server, hence set before creating it
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+        this.server = HttpServer.create();
+        this.server.bind(address, backlog);
+        this.server.setExecutor(executor == null ? null : runnable -> {
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                // the JDK server has no way to answer a request it could not dispatch, so the dispatcher
+                // thread serves it instead: this pushes back on the accept backlog until workers free up
+                runnable.run();
+            }
+        });
+    }
+
+    @Override
+    public void createContext(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+    }
+}
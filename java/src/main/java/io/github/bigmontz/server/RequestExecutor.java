@@ -0,0 +1,103 @@
+package io.github.bigmontz.server;
+
+import io.github.bigmontz.config.Env;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// decides which threads run the HTTP handlers, see HTTP_EXECUTOR
+public class RequestExecutor {
+
+    public enum Mode {
+        // handlers run on the server's own threads: the JDK server's single dispatcher thread, the NIO engine's
+        // worker pool
+        DISPATCHER,
+        // one virtual thread per request, requires running on JDK 21+
+        VIRTUAL,
+        // bounded platform thread pool with a bounded queue
+        POOL
+    }
+
+    private final Mode mode;
+    private final ExecutorService executorService;
+    private final LongAdder rejections = new LongAdder();
+
+    private RequestExecutor(Mode mode, int poolSize, int queueSize) {
+        this.mode = mode;
+        this.executorService = switch (mode) {
+            case DISPATCHER -> null;
+            case VIRTUAL -> virtualThreadPerTaskExecutor();
+            case POOL -> boundedPool(poolSize, queueSize);
+        };
+    }
+
+    public static RequestExecutor fromEnv() {
+        var mode = Mode.valueOf(Env.getOrDefault("HTTP_EXECUTOR", "dispatcher").toUpperCase());
+        return new RequestExecutor(mode,
+                Env.getOrDefault("HTTP_POOL_SIZE", Runtime.getRuntime().availableProcessors() * 4, Integer::parseInt),
+                Env.getOrDefault("HTTP_POOL_QUEUE_SIZE", 1_000, Integer::parseInt));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the executor to hand to the server, throwing {@link RejectedExecutionException} when saturated, or null
+     * to keep running handlers on the server's own threads
+     */
+    public Executor getExecutor() {
+        return executorService;
+    }
+
+    public int getQueueDepth() {
+        if (executorService instanceof ThreadPoolExecutor pool) {
+            return pool.getQueue().size();
+        }
+        return 0;
+    }
+
+    public int getActiveCount() {
+        if (executorService instanceof ThreadPoolExecutor pool) {
+            return pool.getActiveCount();
+        }
+        return 0;
+    }
+
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    private ExecutorService boundedPool(int poolSize, int queueSize) {
+        var threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> new Thread(runnable, "http-worker-" + threadCount.incrementAndGet()),
+                (runnable, pool) -> {
+                    // the engine decides what becomes of the request, see the engines
+                    rejections.increment();
+                    throw new RejectedExecutionException("HTTP worker pool saturated");
+                });
+    }
+
+    private static ExecutorService virtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("HTTP_EXECUTOR=virtual requires JDK 21+, running on %s", Runtime.version()), e);
+        }
+    }
+}
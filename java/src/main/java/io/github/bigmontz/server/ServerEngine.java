@@ -0,0 +1,46 @@
+package io.github.bigmontz.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import io.github.bigmontz.config.Env;
+import io.github.bigmontz.server.nio.NioServerEngine;
+import io.github.bigmontz.server.nio.NioSettings;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * HTTP server the controllers are mounted on, see HTTP_ENGINE.
+ * Both engines hand {@link com.sun.net.httpserver.HttpExchange}s to the handlers, so controllers do not depend on the
+ * engine they run on.
+ */
+public interface ServerEngine {
+
+    enum Kind {
+        // selector-based engine with keep-alive, pipelining and pooled direct buffers
+        NIO,
+        // com.sun.net.httpserver, kept as a fallback
+        JDK
+    }
+
+    static ServerEngine fromEnv(InetSocketAddress address, RequestExecutor requestExecutor) throws IOException {
+        var kind = Kind.valueOf(Env.getOrDefault("HTTP_ENGINE", "nio").toUpperCase());
+        int backlog = Env.getOrDefault("HTTP_BACKLOG", 100, Integer::parseInt);
+        return switch (kind) {
+            case NIO -> new NioServerEngine(address, backlog, requestExecutor.getExecutor(), NioSettings.fromEnv());
+            case JDK -> new JdkServerEngine(address, backlog, requestExecutor.getExecutor());
+        };
+    }
+
+    /**
+     * Routes the requests whose path starts with the given prefix to the handler, the longest matching prefix wins.
+     */
+    void createContext(String path, HttpHandler handler);
+
+    void start() throws IOException;
+
+    /**
+     * Stops accepting connections and closes the existing ones, waiting up to the given delay for in-flight
+     * exchanges to complete.
+     */
+    void stop(int delaySeconds);
+}
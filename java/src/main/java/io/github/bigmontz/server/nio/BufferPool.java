@@ -0,0 +1,50 @@
+package io.github.bigmontz.server.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// fixed-size direct buffers recycled across connections and responses, so that steady traffic allocates none
+public class BufferPool {
+
+    private final int bufferSize;
+    // array-backed, unlike concurrent linked queues it does not allocate a node per release
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final LongAdder allocations = new LongAdder();
+
+    public BufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooledBuffers));
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocations.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer.clear();
+    }
+
+    // buffers that do not come from the pool are ignored, which lets callers release heap buffers blindly
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getAllocationCount() {
+        return allocations.sum();
+    }
+
+    public int getPooledCount() {
+        return free.size();
+    }
+}
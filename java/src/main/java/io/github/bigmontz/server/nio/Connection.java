@@ -0,0 +1,373 @@
+package io.github.bigmontz.server.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * State of a connection, only ever touched by its I/O thread.
+ * Requests are read into a pooled direct buffer, which is only held while there are unparsed bytes or while a handler
+ * may still be reading a body out of it: idle keep-alive connections hold no buffer.
+ */
+class Connection {
+
+    private enum State {
+        READING_HEAD,
+        READING_BODY,
+        // a handler owns the exchange, nothing more is read until its response is written
+        HANDLING,
+        // writing an error response, the connection is closed afterwards
+        CLOSING,
+        CLOSED
+    }
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(ISO_8859_1);
+    private static final int MAX_GATHERED_WRITES = 16;
+
+    private final NioServerEngine engine;
+    private final IoThread ioThread;
+    private final SocketChannel channel;
+    private final BufferPool bufferPool;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+    private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_WRITES];
+    private SelectionKey key;
+    private State state = State.READING_HEAD;
+    private long lastActivity = System.nanoTime();
+
+    // received bytes are in [parsePosition, in.position())
+    private ByteBuffer in;
+    private int parsePosition;
+
+    private RequestHead head;
+    // bodies that do not fit in the input buffer are copied out of it as they arrive
+    private byte[] body;
+    private int bodyLength;
+    private InputStream requestBody;
+
+    private NioHttpExchange exchange;
+    private boolean responseComplete;
+
+    Connection(NioServerEngine engine, IoThread ioThread, SocketChannel channel) throws IOException {
+        this.engine = engine;
+        this.ioThread = ioThread;
+        this.channel = channel;
+        this.bufferPool = engine.getBufferPool();
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    boolean inIoThread() {
+        return ioThread.inIoThread();
+    }
+
+    boolean isIdleSince(long nanoTime) {
+        return state != State.HANDLING && lastActivity - nanoTime < 0;
+    }
+
+    void onReadable() throws IOException {
+        if (in == null) {
+            in = bufferPool.acquire();
+            parsePosition = 0;
+        }
+        int read = channel.read(in);
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastActivity = System.nanoTime();
+        processInput();
+    }
+
+    void onWritable() throws IOException {
+        flushWrites();
+    }
+
+    /**
+     * Hands response bytes over to the I/O thread, from any thread.
+     *
+     * @param complete whether these are the last bytes of the exchange's response
+     */
+    void submit(NioHttpExchange from, List<ByteBuffer> buffers, boolean complete) {
+        ioThread.execute(() -> {
+            // the connection was closed, or the exchange failed and got replaced, meanwhile
+            if (state == State.CLOSED || exchange != from) {
+                buffers.forEach(bufferPool::release);
+                return;
+            }
+            writes.addAll(buffers);
+            responseComplete |= complete;
+            try {
+                flushWrites();
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        });
+    }
+
+    void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        boolean handling = state == State.HANDLING;
+        state = State.CLOSED;
+        if (key != null) {
+            key.cancel();
+        }
+        NioServerEngine.closeQuietly(channel);
+        writes.forEach(bufferPool::release);
+        writes.clear();
+        // a handler may still be reading its body out of the input buffer, leave that one to the GC
+        if (in != null && !handling) {
+            bufferPool.release(in);
+        }
+        in = null;
+        if (exchange != null) {
+            exchange.abort();
+            exchange = null;
+            engine.exchangeDone();
+        }
+        ioThread.closed(this);
+    }
+
+    private void processInput() throws IOException {
+        while (state == State.READING_HEAD || state == State.READING_BODY) {
+            if (state == State.READING_HEAD && !readHead()) {
+                break;
+            }
+            if (state == State.READING_BODY) {
+                if (!readBody()) {
+                    break;
+                }
+                dispatch();
+            }
+        }
+        if (state == State.READING_HEAD || state == State.READING_BODY) {
+            if (in != null && parsePosition == in.position()) {
+                bufferPool.release(in);
+                in = null;
+            } else if (in != null && !in.hasRemaining()) {
+                compact();
+            }
+        }
+        updateInterest();
+    }
+
+    // false until the whole head is buffered
+    private boolean readHead() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        int end = in.position();
+        // tolerate empty lines between pipelined requests
+        while (parsePosition < end && (in.get(parsePosition) == '\r' || in.get(parsePosition) == '\n')) {
+            parsePosition++;
+        }
+        int headEnd = headEnd(parsePosition, end);
+        if (headEnd < 0) {
+            if (end - parsePosition == in.capacity()) {
+                reject(431, "Request Header Fields Too Large");
+            }
+            return false;
+        }
+        byte[] scratch = ioThread.getHeadScratch();
+        int length = headEnd - parsePosition;
+        in.get(parsePosition, scratch, 0, length);
+        try {
+            head = RequestHead.parse(scratch, length);
+        } catch (IllegalArgumentException e) {
+            reject(400, "Bad Request");
+            return false;
+        }
+        parsePosition = headEnd;
+        if (head.isTransferEncoded()) {
+            reject(411, "Length Required");
+            return false;
+        }
+        if (head.getContentLength() > engine.getSettings().getMaxRequestSize()) {
+            reject(413, "Payload Too Large");
+            return false;
+        }
+        if (head.isExpectContinue() && end - parsePosition < head.getContentLength()) {
+            writes.add(ByteBuffer.wrap(CONTINUE));
+            flushWrites();
+        }
+        state = State.READING_BODY;
+        return true;
+    }
+
+    // false until the whole body is buffered
+    private boolean readBody() {
+        int contentLength = (int) head.getContentLength();
+        if (contentLength == 0) {
+            requestBody = InputStream.nullInputStream();
+            return true;
+        }
+        if (in == null) {
+            return false;
+        }
+        int available = in.position() - parsePosition;
+        if (body == null) {
+            if (available >= contentLength) {
+                requestBody = new ByteBufferInputStream(in.slice(parsePosition, contentLength));
+                parsePosition += contentLength;
+                return true;
+            }
+            if (contentLength <= in.capacity()) {
+                // keep reading into the input buffer, making room at its end if needed
+                if (parsePosition + contentLength > in.capacity()) {
+                    compact();
+                }
+                return false;
+            }
+            body = new byte[contentLength];
+            bodyLength = 0;
+        }
+        int copied = Math.min(available, contentLength - bodyLength);
+        in.get(parsePosition, body, bodyLength, copied);
+        parsePosition += copied;
+        bodyLength += copied;
+        if (bodyLength < contentLength) {
+            compact();
+            return false;
+        }
+        requestBody = new ByteArrayInputStream(body);
+        body = null;
+        return true;
+    }
+
+    private void dispatch() throws IOException {
+        URI uri;
+        try {
+            uri = new URI(head.getTarget());
+        } catch (URISyntaxException e) {
+            reject(400, "Bad Request");
+            return;
+        }
+        String path = uri.getRawPath() == null ? "/" : uri.getRawPath();
+        exchange = new NioHttpExchange(this, bufferPool, head, uri, requestBody, engine.contextOf(path));
+        head = null;
+        requestBody = null;
+        responseComplete = false;
+        state = State.HANDLING;
+        updateInterest();
+        engine.dispatch(exchange);
+    }
+
+    private void finishExchange() throws IOException {
+        boolean keepAlive = exchange.isKeepAlive();
+        exchange = null;
+        engine.exchangeDone();
+        if (!keepAlive) {
+            close();
+            return;
+        }
+        state = State.READING_HEAD;
+        // pipelined requests may already be buffered
+        processInput();
+    }
+
+    private void reject(int status, String reason) throws IOException {
+        state = State.CLOSING;
+        String response = String.format("HTTP/1.1 %d %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n", status, reason);
+        writes.add(ByteBuffer.wrap(response.getBytes(ISO_8859_1)));
+        flushWrites();
+    }
+
+    private void flushWrites() throws IOException {
+        while (!writes.isEmpty()) {
+            int count = 0;
+            long requested = 0;
+            for (ByteBuffer buffer : writes) {
+                gathered[count++] = buffer;
+                requested += buffer.remaining();
+                if (count == MAX_GATHERED_WRITES) {
+                    break;
+                }
+            }
+            long written = channel.write(gathered, 0, count);
+            Arrays.fill(gathered, 0, count, null);
+            lastActivity = System.nanoTime();
+            while (!writes.isEmpty() && !writes.peekFirst().hasRemaining()) {
+                bufferPool.release(writes.pollFirst());
+            }
+            if (exchange != null) {
+                exchange.written(written);
+            }
+            if (written < requested) {
+                // the socket buffer is full, resume once it drains
+                updateInterest();
+                return;
+            }
+        }
+        if (state == State.CLOSING) {
+            close();
+            return;
+        }
+        if (state == State.HANDLING && responseComplete) {
+            finishExchange();
+            return;
+        }
+        updateInterest();
+    }
+
+    private void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (state == State.READING_HEAD || state == State.READING_BODY) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!writes.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    // moves the unparsed bytes to the start of the input buffer
+    private void compact() {
+        if (parsePosition == 0) {
+            return;
+        }
+        in.limit(in.position()).position(parsePosition);
+        in.compact();
+        parsePosition = 0;
+    }
+
+    // index right after the CRLFCRLF ending the head, -1 if it is not buffered yet
+    private int headEnd(int start, int end) {
+        for (int i = start; i + 3 < end; i++) {
+            if (in.get(i + 3) == '\n' && in.get(i + 2) == '\r' && in.get(i + 1) == '\n' && in.get(i) == '\r') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.bigmontz.server.nio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// selector loop of a share of the connections; everything touching a connection's channel and buffers runs here
+class IoThread implements Runnable {
+
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1_000;
+
+    private final NioServerEngine engine;
+    private final Selector selector;
+    private final Thread thread;
+    // submitted by the acceptor and by handlers writing responses
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = new HashSet<>();
+    // head of the request being parsed, connections take turns using it
+    private final byte[] headScratch;
+    private final long idleTimeoutNanos;
+    private volatile boolean running = true;
+    private volatile int connectionCount;
+    private long lastIdleCheck = System.nanoTime();
+
+    IoThread(NioServerEngine engine, String name) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.headScratch = new byte[engine.getSettings().getBufferSize()];
+        this.idleTimeoutNanos = engine.getSettings().getIdleTimeout().toNanos();
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                var connection = new Connection(engine, this, channel);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                connections.add(connection);
+                connectionCount = connections.size();
+            } catch (IOException e) {
+                NioServerEngine.closeQuietly(channel);
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    boolean inIoThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    byte[] getHeadScratch() {
+        return headScratch;
+    }
+
+    int getConnectionCount() {
+        return connectionCount;
+    }
+
+    void closed(Connection connection) {
+        connections.remove(connection);
+        connectionCount = connections.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                if (tasks.isEmpty()) {
+                    selector.select(this::onSelected, IDLE_CHECK_INTERVAL_MILLIS);
+                } else {
+                    selector.selectNow(this::onSelected);
+                }
+                runTasks();
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            runTasks();
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    private void onSelected(SelectionKey key) {
+        var connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // one broken task must not take the selector loop, and every other connection, down with it
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.nanoTime();
+        if (now - lastIdleCheck < TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL_MILLIS)) {
+            return;
+        }
+        lastIdleCheck = now;
+        var idle = new ArrayList<Connection>();
+        for (Connection connection : connections) {
+            if (connection.isIdleSince(now - idleTimeoutNanos)) {
+                idle.add(connection);
+            }
+        }
+        for (Connection connection : idle) {
+            connection.close();
+        }
+    }
+}
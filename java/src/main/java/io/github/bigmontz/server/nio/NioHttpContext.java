@@ -0,0 +1,64 @@
+package io.github.bigmontz.server.nio;
+
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// filters and authenticators are not supported: the controllers do not use them
+class NioHttpContext extends HttpContext {
+
+    private final String path;
+    private volatile HttpHandler handler;
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    NioHttpContext(String path, HttpHandler handler) {
+        this.path = path;
+        this.handler = handler;
+    }
+
+    @Override
+    public HttpHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void setHandler(HttpHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public HttpServer getServer() {
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public List<Filter> getFilters() {
+        return List.of();
+    }
+
+    @Override
+    public Authenticator setAuthenticator(Authenticator authenticator) {
+        throw new UnsupportedOperationException("authenticators are not supported by the NIO engine");
+    }
+
+    @Override
+    public Authenticator getAuthenticator() {
+        return null;
+    }
+}
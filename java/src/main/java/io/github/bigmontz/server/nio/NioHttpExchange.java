@@ -0,0 +1,461 @@
+package io.github.bigmontz.server.nio;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Exchange handed to the handlers by the NIO engine, with the semantics of the JDK server's: a response length of 0
+ * means chunked, -1 means no body, and the exchange completes when the response body (or the exchange) is closed.
+ * Responses are written into pooled direct buffers and handed over to the I/O thread when the body is flushed or
+ * closed; a handler writing faster than the client reads is blocked in flush until the backlog drains.
+ */
+class NioHttpExchange extends HttpExchange {
+
+    // backlog of response bytes past which a writing handler is paused, in buffers
+    private static final int HIGH_WATER_BUFFERS = 4;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final Connection connection;
+    private final BufferPool bufferPool;
+    private final RequestHead head;
+    private final URI uri;
+    private final NioHttpContext context;
+    private final Headers responseHeaders = new Headers();
+    private final ResponseBody responseBody = new ResponseBody();
+    // response bytes handed over to the I/O thread but not written yet
+    private final AtomicLong backlog = new AtomicLong();
+    private InputStream requestBody;
+    private OutputStream responseBodyOverride;
+    private Map<String, Object> attributes;
+    private volatile int responseCode = -1;
+    private volatile boolean keepAlive;
+    private volatile boolean aborted;
+    private volatile Thread waiter;
+
+    NioHttpExchange(Connection connection, BufferPool bufferPool, RequestHead head, URI uri, InputStream requestBody, NioHttpContext context) {
+        this.connection = connection;
+        this.bufferPool = bufferPool;
+        this.head = head;
+        this.uri = uri;
+        this.requestBody = requestBody;
+        this.context = context;
+        this.keepAlive = head.isKeepAlive();
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return head.getHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return head.getMethod();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return context;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (responseCode == -1) {
+                // closed without responding: nothing sensible can follow on this connection
+                keepAlive = false;
+                responseBody.close();
+            } else {
+                getResponseBody().close();
+            }
+        } catch (IOException e) {
+            // the connection is gone
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBodyOverride != null ? responseBodyOverride : responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) throws IOException {
+        if (responseCode != -1) {
+            throw new IOException("headers already sent");
+        }
+        if (aborted) {
+            throw new IOException("connection closed");
+        }
+        boolean head = this.head.getMethod().equals("HEAD");
+        boolean bodyAllowed = code >= 200 && code != 204 && code != 304;
+        responseCode = code;
+        responseBody.appendAscii("HTTP/1.1 ");
+        responseBody.appendAscii(Integer.toString(code));
+        responseBody.appendAscii(" ");
+        responseBody.appendAscii(reasonPhrase(code));
+        responseBody.appendAscii("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                appendHeader(header.getKey(), value);
+            }
+        }
+        ResponseBody.Mode mode;
+        if (!bodyAllowed) {
+            mode = ResponseBody.Mode.NONE;
+        } else if (length > 0) {
+            appendHeader("Content-Length", Long.toString(length));
+            mode = head ? ResponseBody.Mode.NONE : ResponseBody.Mode.FIXED;
+        } else if (length == 0 && !head) {
+            appendHeader("Transfer-Encoding", "chunked");
+            mode = ResponseBody.Mode.CHUNKED;
+        } else {
+            appendHeader("Content-Length", "0");
+            mode = ResponseBody.Mode.NONE;
+        }
+        if (!keepAlive) {
+            appendHeader("Connection", "close");
+        } else if (this.head.isHttp10()) {
+            appendHeader("Connection", "keep-alive");
+        }
+        responseBody.appendAscii("\r\n");
+        responseBody.start(mode, length);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return head.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes == null ? null : attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream requestBody, OutputStream responseBody) {
+        if (requestBody != null) {
+            this.requestBody = requestBody;
+        }
+        if (responseBody != null) {
+            this.responseBodyOverride = responseBody;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    // the handler threw: answer 500 if it had not responded yet, otherwise cut the response short
+    void fail() {
+        keepAlive = false;
+        if (responseCode == -1) {
+            try {
+                responseHeaders.clear();
+                sendResponseHeaders(500, -1);
+            } catch (IOException e) {
+                // the connection is gone
+            }
+        }
+        responseBody.closeTruncated();
+    }
+
+    // the connection was closed, called from the I/O thread
+    void abort() {
+        aborted = true;
+        wakeUpWaiter();
+    }
+
+    // response bytes written to the socket, called from the I/O thread
+    void written(long bytes) {
+        backlog.addAndGet(-bytes);
+        wakeUpWaiter();
+    }
+
+    private void wakeUpWaiter() {
+        Thread current = waiter;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private void appendHeader(String name, String value) throws IOException {
+        if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+            throw new IOException(String.format("illegal character in the value of header %s", name));
+        }
+        responseBody.appendAscii(name);
+        responseBody.appendAscii(": ");
+        responseBody.appendAscii(value);
+        responseBody.appendAscii("\r\n");
+    }
+
+    private static String reasonPhrase(int code) {
+        return switch (code) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 412 -> "Precondition Failed";
+            case 413 -> "Payload Too Large";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            default -> "";
+        };
+    }
+
+    private class ResponseBody extends OutputStream {
+
+        enum Mode {
+            NONE,
+            FIXED,
+            CHUNKED
+        }
+
+        private final List<ByteBuffer> pending = new ArrayList<>();
+        private ByteBuffer current;
+        private Mode mode;
+        private long remaining;
+        // chunked bodies hand their head over on its own, so that the chunks that follow can be framed
+        private boolean framing;
+        private boolean closed;
+
+        void start(Mode mode, long length) throws IOException {
+            this.mode = mode;
+            this.remaining = length;
+            if (mode == Mode.CHUNKED) {
+                handOver(false);
+                framing = true;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (accept(1)) {
+                ensureCapacity();
+                current.put((byte) b);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, bytes.length);
+            if (accept(length)) {
+                put(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closed || mode == null) {
+                return;
+            }
+            handOver(false);
+            awaitBacklog();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (mode == Mode.FIXED && remaining > 0) {
+                // the client would wait for the missing bytes forever
+                keepAlive = false;
+            }
+            handOver(true);
+        }
+
+        void closeTruncated() {
+            keepAlive = false;
+            try {
+                close();
+            } catch (IOException e) {
+                // the connection is gone
+            }
+        }
+
+        void appendAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                ensureCapacity();
+                current.put((byte) value.charAt(i));
+            }
+        }
+
+        // false if the bytes are to be dropped, e.g. the body of a HEAD response
+        private boolean accept(int length) throws IOException {
+            if (closed) {
+                throw new IOException("response body closed");
+            }
+            if (aborted) {
+                throw new IOException("connection closed");
+            }
+            if (mode == null) {
+                throw new IOException("response headers not sent");
+            }
+            return switch (mode) {
+                case NONE -> {
+                    if (length > 0 && !head.getMethod().equals("HEAD")) {
+                        throw new IOException("response has no body");
+                    }
+                    yield false;
+                }
+                case FIXED -> {
+                    if (length > remaining) {
+                        throw new IOException("too many bytes written");
+                    }
+                    remaining -= length;
+                    yield true;
+                }
+                case CHUNKED -> true;
+            };
+        }
+
+        private void put(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                ensureCapacity();
+                int count = Math.min(length, current.remaining());
+                current.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                if (pending.size() >= HIGH_WATER_BUFFERS) {
+                    flush();
+                }
+            }
+        }
+
+        private void ensureCapacity() {
+            if (current != null && current.hasRemaining()) {
+                return;
+            }
+            if (current != null) {
+                pending.add(current.flip());
+            }
+            current = bufferPool.acquire();
+        }
+
+        private void handOver(boolean last) {
+            if (current != null && current.position() > 0) {
+                pending.add(current.flip());
+                current = null;
+            }
+            if (last && current != null) {
+                bufferPool.release(current);
+                current = null;
+            }
+            if (pending.isEmpty() && !last) {
+                return;
+            }
+            var buffers = new ArrayList<ByteBuffer>(pending.size() + 3);
+            long size = 0;
+            for (ByteBuffer buffer : pending) {
+                size += buffer.remaining();
+            }
+            if (framing && size > 0) {
+                buffers.add(ByteBuffer.wrap((Long.toHexString(size) + "\r\n").getBytes(ISO_8859_1)));
+                buffers.addAll(pending);
+                buffers.add(ByteBuffer.wrap(CRLF));
+            } else {
+                buffers.addAll(pending);
+            }
+            if (framing && last) {
+                buffers.add(ByteBuffer.wrap(LAST_CHUNK));
+            }
+            pending.clear();
+            long total = 0;
+            for (ByteBuffer buffer : buffers) {
+                total += buffer.remaining();
+            }
+            backlog.addAndGet(total);
+            connection.submit(NioHttpExchange.this, buffers, last);
+        }
+
+        private void awaitBacklog() throws IOException {
+            // the I/O thread is the one draining the backlog, it cannot wait for itself
+            if (connection.inIoThread()) {
+                return;
+            }
+            long highWater = (long) HIGH_WATER_BUFFERS * bufferPool.getBufferSize();
+            if (backlog.get() <= highWater) {
+                return;
+            }
+            waiter = Thread.currentThread();
+            try {
+                while (backlog.get() > highWater) {
+                    if (aborted) {
+                        throw new IOException("connection closed");
+                    }
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            } finally {
+                waiter = null;
+            }
+        }
+    }
+}
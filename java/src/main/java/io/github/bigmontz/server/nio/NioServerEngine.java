@@ -0,0 +1,235 @@
+package io.github.bigmontz.server.nio;
+
+import com.sun.net.httpserver.HttpHandler;
+import io.github.bigmontz.server.ServerEngine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Selector-based HTTP/1.1 server.
+ * <ul>
+ *     <li>an acceptor thread hands new connections to the I/O threads in turn</li>
+ *     <li>each I/O thread owns its connections: it parses their requests out of a pooled direct buffer and writes the
+ *     responses handed over by the handlers</li>
+ *     <li>handlers run on the executor, or on a worker pool of the engine's own when there is none, never on the I/O
+ *     threads: a blocking handler would stall every connection of its thread. Requests no handler thread can take
+ *     are answered with 503 right away</li>
+ * </ul>
+ * Connections are kept alive and pipelined requests are answered in order, one at a time.
+ * Request bodies are buffered before dispatch, they have to be sent with a Content-Length.
+ */
+public class NioServerEngine implements ServerEngine {
+
+    // answers the paths no context matches, as the JDK server does
+    private static final NioHttpContext NOT_FOUND = new NioHttpContext("/", exchange -> {
+        exchange.sendResponseHeaders(404, -1);
+        exchange.close();
+    });
+
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final Executor executor;
+    // the engine's own worker pool, null when handlers run on the executor given
+    private final ExecutorService workers;
+    private final NioSettings settings;
+    private final BufferPool bufferPool;
+    // by path prefix, matched longest first; copied on write, lookups happen on every request
+    private volatile TreeMap<String, NioHttpContext> contexts = new TreeMap<>();
+    private final IoThread[] ioThreads;
+    private final AtomicInteger activeExchanges = new AtomicInteger();
+    private final LongAdder rejections = new LongAdder();
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+
+    /**
+     * @param executor runs the handlers, throwing {@link RejectedExecutionException} when saturated, null to run them
+     *                 on a worker pool sized after the settings
+     */
+    public NioServerEngine(InetSocketAddress address, int backlog, Executor executor, NioSettings settings) throws IOException {
+        this.address = address;
+        this.backlog = backlog;
+        this.workers = executor == null ? workerPool(settings) : null;
+        this.executor = executor == null ? workers : executor;
+        this.settings = settings;
+        this.bufferPool = new BufferPool(settings.getBufferSize(), settings.getMaxPooledBuffers());
+        this.ioThreads = new IoThread[settings.getIoThreads()];
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IoThread(this, "http-io-" + (i + 1));
+        }
+    }
+
+    @Override
+    public synchronized void createContext(String path, HttpHandler handler) {
+        var updated = new TreeMap<>(contexts);
+        updated.put(path, new NioHttpContext(path, handler));
+        contexts = updated;
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, backlog);
+        for (IoThread ioThread : ioThreads) {
+            ioThread.start();
+        }
+        acceptor = new Thread(this::accept, "http-acceptor");
+        acceptor.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // the channel is unusable either way
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+        while (activeExchanges.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (IoThread ioThread : ioThreads) {
+            ioThread.shutdown();
+        }
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    public int getOpenConnectionCount() {
+        int total = 0;
+        for (IoThread ioThread : ioThreads) {
+            total += ioThread.getConnectionCount();
+        }
+        return total;
+    }
+
+    public int getActiveExchangeCount() {
+        return activeExchanges.get();
+    }
+
+    // requests answered with 503 because every handler thread was busy and the queue full
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    NioSettings getSettings() {
+        return settings;
+    }
+
+    // prefixes of a path sort before it, and the longer a prefix the closer it sorts
+    NioHttpContext contextOf(String path) {
+        var current = contexts;
+        for (Map.Entry<String, NioHttpContext> entry = current.floorEntry(path); entry != null; entry = current.lowerEntry(entry.getKey())) {
+            if (path.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    void dispatch(NioHttpExchange exchange) {
+        activeExchanges.incrementAndGet();
+        try {
+            executor.execute(() -> handle(exchange));
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            overloaded(exchange);
+        }
+    }
+
+    void exchangeDone() {
+        activeExchanges.decrementAndGet();
+    }
+
+    private void handle(NioHttpExchange exchange) {
+        try {
+            exchange.getHttpContext().getHandler().handle(exchange);
+        } catch (Throwable e) {
+            exchange.fail();
+        }
+    }
+
+    // runs on the I/O thread, which only queues the response for itself to write
+    private static void overloaded(NioHttpExchange exchange) {
+        try {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        } catch (IOException e) {
+            exchange.fail();
+        }
+    }
+
+    private static ExecutorService workerPool(NioSettings settings) {
+        var threadCount = new AtomicInteger();
+        // the default abort policy: rejected requests are answered with 503 by the I/O thread
+        return new ThreadPoolExecutor(settings.getWorkerThreads(), settings.getWorkerThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(settings.getWorkerQueueSize()),
+                runnable -> new Thread(runnable, "http-nio-worker-" + threadCount.incrementAndGet()));
+    }
+
+    private void accept() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // e.g. too many open files: back off rather than spin
+                sleepQuietly();
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ioThreads[next].register(channel);
+                next = (next + 1) % ioThreads.length;
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private static void sleepQuietly() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.bigmontz.server.nio;
+
+import io.github.bigmontz.config.Env;
+
+import java.time.Duration;
+
+public class NioSettings {
+
+    private final int ioThreads;
+    private final int bufferSize;
+    private final int maxPooledBuffers;
+    private final int maxRequestSize;
+    private final Duration idleTimeout;
+    private final int workerThreads;
+    private final int workerQueueSize;
+
+    public NioSettings(int ioThreads, int bufferSize, int maxPooledBuffers, int maxRequestSize, Duration idleTimeout,
+                       int workerThreads, int workerQueueSize) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException(String.format("invalid I/O thread count %d", ioThreads));
+        }
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException(String.format("invalid worker thread count %d", workerThreads));
+        }
+        if (workerQueueSize <= 0) {
+            throw new IllegalArgumentException(String.format("invalid worker queue size %d", workerQueueSize));
+        }
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException(String.format("buffers should hold at least 1KiB, got %d bytes", bufferSize));
+        }
+        this.ioThreads = ioThreads;
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.maxRequestSize = maxRequestSize;
+        this.idleTimeout = idleTimeout;
+        this.workerThreads = workerThreads;
+        this.workerQueueSize = workerQueueSize;
+    }
+
+    public static NioSettings fromEnv() {
+        return new NioSettings(
+                Env.getOrDefault("HTTP_NIO_IO_THREADS", Math.max(1, Runtime.getRuntime().availableProcessors() / 2), Integer::parseInt),
+                Env.getOrDefault("HTTP_NIO_BUFFER_SIZE_KIB", 16, Integer::parseInt) * 1024,
+                Env.getOrDefault("HTTP_NIO_MAX_POOLED_BUFFERS", 4_096, Integer::parseInt),
+                Env.getOrDefault("HTTP_NIO_MAX_REQUEST_SIZE_KIB", 1_024, Integer::parseInt) * 1024,
+                Duration.ofMillis(Env.getOrDefault("HTTP_NIO_IDLE_TIMEOUT_MS", 30_000L, Long::parseLong)),
+                Env.getOrDefault("HTTP_NIO_WORKER_THREADS", Runtime.getRuntime().availableProcessors() * 4, Integer::parseInt),
+                Env.getOrDefault("HTTP_NIO_WORKER_QUEUE_SIZE", 1_000, Integer::parseInt)
+        );
+    }
+
+    // selector threads, each owning a share of the connections; connections are accepted on a dedicated thread
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    // size of the pooled direct buffers, request heads (request line and headers) have to fit in one
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // buffers kept around for reuse, the ones released past that are left to the GC
+    public int getMaxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    // requests with a larger body are answered with 413
+    public int getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    // connections without any traffic for that long are closed, unless a request is being handled
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    // threads running the handlers when HTTP_EXECUTOR leaves them to the server, handlers never run on I/O threads
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    // requests waiting for a worker, the ones past that are answered with 503
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.bigmontz.server.nio;
+
+import com.sun.net.httpserver.Headers;
+
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+// request line and headers of an HTTP/1.x request
+class RequestHead {
+
+    private static final String[] COMMON_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+
+    private final String method;
+    private final String target;
+    private final String protocol;
+    private final Headers headers;
+    private final long contentLength;
+    private final boolean keepAlive;
+    private final boolean expectContinue;
+    private final boolean transferEncoded;
+
+    private RequestHead(String method, String target, String protocol, Headers headers) {
+        this.method = method;
+        this.target = target;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.contentLength = contentLength(headers);
+        this.keepAlive = protocol.equals("HTTP/1.1")
+                ? !hasToken(headers.get("Connection"), "close")
+                : hasToken(headers.get("Connection"), "keep-alive");
+        this.expectContinue = hasToken(headers.get("Expect"), "100-continue");
+        this.transferEncoded = headers.containsKey("Transfer-encoding");
+    }
+
+    /**
+     * @param head   the request line and headers, up to and including the empty line
+     * @param length the number of bytes of the head
+     * @throws IllegalArgumentException if the head is malformed
+     */
+    static RequestHead parse(byte[] head, int length) {
+        int lineEnd = lineEnd(head, 0, length);
+        int methodEnd = indexOf(head, 0, lineEnd, (byte) ' ');
+        int targetEnd = indexOf(head, methodEnd + 1, lineEnd, (byte) ' ');
+        if (methodEnd <= 0 || targetEnd <= methodEnd + 1) {
+            throw new IllegalArgumentException("malformed request line");
+        }
+        String protocol = protocol(head, targetEnd + 1, lineEnd);
+        String method = method(head, methodEnd);
+        String target = new String(head, methodEnd + 1, targetEnd - methodEnd - 1, ISO_8859_1);
+
+        var headers = new Headers();
+        int position = lineEnd + 2;
+        while (true) {
+            lineEnd = lineEnd(head, position, length);
+            if (lineEnd == position) {
+                break;
+            }
+            byte first = head[position];
+            if (first == ' ' || first == '\t') {
+                throw new IllegalArgumentException("obsolete header line folding");
+            }
+            int colon = indexOf(head, position, lineEnd, (byte) ':');
+            if (colon <= position || head[colon - 1] == ' ' || head[colon - 1] == '\t') {
+                throw new IllegalArgumentException("malformed header");
+            }
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && isWhitespace(head[valueStart])) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && isWhitespace(head[valueEnd - 1])) {
+                valueEnd--;
+            }
+            headers.add(new String(head, position, colon - position, ISO_8859_1), new String(head, valueStart, valueEnd - valueStart, ISO_8859_1));
+            position = lineEnd + 2;
+        }
+        return new RequestHead(method, target, protocol, headers);
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getTarget() {
+        return target;
+    }
+
+    String getProtocol() {
+        return protocol;
+    }
+
+    Headers getHeaders() {
+        return headers;
+    }
+
+    long getContentLength() {
+        return contentLength;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    boolean isExpectContinue() {
+        return expectContinue;
+    }
+
+    // chunked bodies are not supported, requests have to come with a Content-Length
+    boolean isTransferEncoded() {
+        return transferEncoded;
+    }
+
+    boolean isHttp10() {
+        return protocol.equals("HTTP/1.0");
+    }
+
+    private static long contentLength(Headers headers) {
+        List<String> values = headers.get("Content-length");
+        if (values == null) {
+            return 0;
+        }
+        long result = -1;
+        for (String value : values) {
+            long parsed;
+            try {
+                parsed = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("invalid Content-Length %s", value));
+            }
+            if (parsed < 0 || (result != -1 && parsed != result)) {
+                throw new IllegalArgumentException(String.format("invalid Content-Length %s", value));
+            }
+            result = parsed;
+        }
+        return result;
+    }
+
+    private static boolean hasToken(List<String> values, String token) {
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            for (String candidate : value.split(",")) {
+                if (candidate.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // avoids allocating a string for the usual methods
+    private static String method(byte[] head, int length) {
+        for (String candidate : COMMON_METHODS) {
+            if (candidate.length() == length && matches(head, 0, candidate)) {
+                return candidate;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (head[i] < 'A' || head[i] > 'Z') {
+                throw new IllegalArgumentException("malformed method");
+            }
+        }
+        return new String(head, 0, length, ISO_8859_1);
+    }
+
+    private static String protocol(byte[] head, int start, int end) {
+        if (end - start == 8 && matches(head, start, "HTTP/1.1")) {
+            return "HTTP/1.1";
+        }
+        if (end - start == 8 && matches(head, start, "HTTP/1.0")) {
+            return "HTTP/1.0";
+        }
+        throw new IllegalArgumentException("unsupported protocol");
+    }
+
+    private static boolean matches(byte[] head, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (head[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // index of the CR of the CRLF ending the line starting at the given position
+    private static int lineEnd(byte[] head, int start, int length) {
+        for (int i = start; i + 1 < length; i++) {
+            if (head[i] == '\r' && head[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unterminated line");
+    }
+
+    private static int indexOf(byte[] head, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (head[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || value == '\t';
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.bigmontz.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Initialisation that does not have to hold up the main thread, e.g. connecting drivers or checking schemas: it runs on
+ * startup threads, in parallel with the rest of the startup.
+ * The application only reports ready once the main thread is done, warm-up included, and every task it started has
+ * completed. A failed task leaves it unready for good.
+ */
+public class Startup {
+
+    public enum State {
+        STARTING,
+        READY,
+        FAILED
+    }
+
+    private final ExecutorService executor;
+    private final List<CompletableFuture<?>> tasks = new CopyOnWriteArrayList<>();
+    private volatile State state = State.STARTING;
+    private volatile Throwable failure;
+    private volatile long readyUptimeMillis;
+
+    public Startup() {
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "startup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the given task on a startup thread, readiness waits for it.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        var future = CompletableFuture.supplyAsync(task, executor);
+        tasks.add(future);
+        return future;
+    }
+
+    public CompletableFuture<Void> run(Runnable task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Called once the main thread is done starting: the application turns ready as soon as the tasks still running
+     * complete.
+     *
+     * @return completes along with the tasks, for callers that cannot do without them, e.g. commands
+     */
+    public CompletableFuture<Void> finish() {
+        return CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                failure = error instanceof CompletionException ? error.getCause() : error;
+                state = State.FAILED;
+                return;
+            }
+            readyUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            state = State.READY;
+        });
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // the error of the first failed task, if any
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    // time from the start of the JVM to readiness, 0 until ready
+    public double getReadySeconds() {
+        return readyUptimeMillis / 1e3;
+    }
+
+    /**
+     * Waits for the given task, rethrowing what it failed with.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 const PORT =  Cypress.env('API_PORT')  || 3000
 const BASE_URL = `http://localhost:${PORT}/user`
 const INVALID_ID = Cypress.env('INVALID_ID') || '-1'
+// servers storing password hashes return them in place of the passwords
+const PASSWORD_HASHING = Cypress.env('PASSWORD_HASHING') === true || Cypress.env('PASSWORD_HASHING') === 'true'
 
 describe('User API', () => {
 
@@ -66,7 +68,7 @@ describe('User API', () => {
           expect(response.body.name).to.eq(testUser.name)
           expect(response.body.surname).to.eq(testUser.surname)
           expect(response.body.age).to.eq(testUser.age)
-          expect(response.body.password).to.eq(testUser.password)
+          expectPassword(response.body.password, testUser.password)
           expect(response.body.createdAt).to.eq(response.body.updatedAt)
           // Checking valid date format
           expect(new Date(response.body.createdAt).getTime()).not.eq(NaN)
@@ -76,9 +78,11 @@ describe('User API', () => {
 
   context('PUT /user/{id}/password', () => {
     let createdUser = null;
+    let testUser = null;
 
     before(() => {
-      cy.request('POST', BASE_URL, user())
+      testUser = user();
+      cy.request('POST', BASE_URL, testUser)
         .then(response => {
           createdUser = response.body
         })
@@ -89,7 +93,7 @@ describe('User API', () => {
         method: 'PUT',
         url: `${BASE_URL}/${createdUser.id}/password`,
         body: {
-          password: createdUser.password,
+          password: testUser.password,
           newPassword: 'new_password'
         }
       }).should((response) => {
@@ -100,7 +104,7 @@ describe('User API', () => {
           url: `${BASE_URL}/${createdUser.id}`,
         }).then((getUserResponse) => {
           expect(getUserResponse.status).to.eq(200)
-          expect(getUserResponse.body.password).to.eq('new_password')
+          expectPassword(getUserResponse.body.password, 'new_password')
         })
       })
     });
@@ -135,6 +139,14 @@ describe('User API', () => {
   });
 });
 
+function expectPassword(actual, plainText) {
+  if (PASSWORD_HASHING) {
+    expect(actual).to.match(/^pbkdf2-sha256\$/)
+  } else {
+    expect(actual).to.eq(plainText)
+  }
+}
+
 function user() {
   return {
     "username": "the_user_name",